@@ -21,6 +21,7 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
 import java.util.Map;
+import javax.annotation.Nullable;
 
 /**
  * An interface stating that the implementing class accepts child visitors to explore repository
@@ -56,7 +57,33 @@ public interface ChangeVisitable <R extends Revision> {
       return visitor.visit(input, ImmutableMap.copyOf(copy));
     });
   }
-  
+
+  /**
+   * Returns an index of the values of {@code labels} in the history, or null if the implementation
+   * doesn't keep one. Callers should fall back to {@link #visitChangesWithAnyLabel} in that case.
+   *
+   * <p>The index reflects the history up to the current head. Implementations don't need to keep
+   * the index up to date with changes created after this method returns.
+   */
+  @Nullable
+  default LabelValueIndex labelValueIndex(ImmutableCollection<String> labels)
+      throws RepoException, ValidationException {
+    return null;
+  }
+
+  /**
+   * An index of the values of some labels in the history of a {@link ChangeVisitable}.
+   */
+  interface LabelValueIndex {
+
+    /**
+     * Returns the reference of the most recent change that has {@code labelValue} as the value of
+     * any of the indexed labels, or null if there is none.
+     */
+    @Nullable
+    String findChange(String labelValue);
+  }
+
   /**
    * A visitor of changes. An implementation of this interface is provided to {@see
    * visitChanges} methods to visit changes in Origin or
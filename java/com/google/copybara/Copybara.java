@@ -16,18 +16,34 @@
 
 package com.google.copybara;
 
+import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.copybara.Info.MigrationReference;
 import com.google.copybara.config.ConfigLoader;
 import com.google.copybara.config.ConfigValidator;
+import com.google.copybara.util.ExitCode;
 import com.google.copybara.util.console.Console;
 import com.google.copybara.util.console.Message;
 import com.google.copybara.util.console.Message.MessageType;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import javax.annotation.Nullable;
 
@@ -39,6 +55,8 @@ import javax.annotation.Nullable;
  */
 public class Copybara {
 
+  private static final Logger logger = Logger.getLogger(Copybara.class.getName());
+
   protected final ConfigValidator configValidator;
   private final Consumer<Migration> migrationRanConsumer;
 
@@ -64,6 +82,133 @@ public class Copybara {
     migration.run(workdir, sourceRef);
   }
 
+  /**
+   * Runs the migrations selected by {@code migrationNames}, a comma-separated list of names that
+   * can use '*' as a wildcard, using up to {@code jobs} threads. Each migration gets its own
+   * temporary workdir. The summary of all of them goes to the same {@code StructuredOutput}.
+   *
+   * <p>All the migrations are run even if some of them fail. Returns the exit code of the first
+   * migration (in config order) that failed, {@link ExitCode#NO_OP} if none of them had anything
+   * to migrate or {@link ExitCode#SUCCESS} otherwise.
+   */
+  public ExitCode runBatch(Options options, ConfigLoader<?> configLoader, String migrationNames,
+      int jobs) throws ValidationException, IOException {
+    Preconditions.checkArgument(jobs > 0, "Invalid number of jobs: %s", jobs);
+    GeneralOptions generalOptions = options.get(GeneralOptions.class);
+    Console console = generalOptions.console();
+    ImmutableList<String> names =
+        selectMigrations(configLoader.loadConfig(options), migrationNames);
+    Map<String, Migration> migrations = new LinkedHashMap<>();
+    for (String name : names) {
+      // The config is evaluated once for these options, this only validates each migration
+      migrations.put(name, loadConfig(options, configLoader, name).getMigration(name));
+    }
+    console.infoFmt("Running %d migrations with up to %d jobs: %s", names.size(), jobs,
+        Joiner.on(", ").join(names));
+
+    // A new executor for each batch, so that its threads inherit the current profiler task.
+    ExecutorService executor = Executors.newFixedThreadPool(
+        Math.min(jobs, names.size()),
+        new ThreadFactoryBuilder()
+            .setNameFormat("batch-migration-%d")
+            .setDaemon(true)
+            .build());
+    Map<String, Future<ExitCode>> futures = new LinkedHashMap<>();
+    try {
+      for (Entry<String, Migration> entry : migrations.entrySet()) {
+        futures.put(entry.getKey(), executor.submit(
+            () -> runBatchMigration(generalOptions, entry.getKey(), entry.getValue())));
+      }
+      ExitCode firstError = null;
+      boolean anySuccess = false;
+      for (Entry<String, Future<ExitCode>> entry : futures.entrySet()) {
+        ExitCode exitCode = entry.getValue().get();
+        console.infoFmt("Migration '%s': %s", entry.getKey(), exitCode);
+        if (exitCode == ExitCode.SUCCESS) {
+          anySuccess = true;
+        } else if (exitCode != ExitCode.NO_OP && firstError == null) {
+          firstError = exitCode;
+        }
+      }
+      if (firstError != null) {
+        return firstError;
+      }
+      return anySuccess ? ExitCode.SUCCESS : ExitCode.NO_OP;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      console.error("Interrupted while running the migrations");
+      return ExitCode.INTERRUPTED;
+    } catch (ExecutionException e) {
+      // runBatchMigration handles all the exceptions
+      throw new IllegalStateException("Unexpected error running a migration", e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Runs one migration of a batch and returns its exit code. Errors are reported to the console
+   * instead of stopping the other migrations.
+   */
+  private ExitCode runBatchMigration(GeneralOptions generalOptions, String name,
+      Migration migration) {
+    Console console = generalOptions.console();
+    try {
+      Path workdir = generalOptions.getDirFactory().newTempDir("workdir");
+      logger.info(String.format("Running migration '%s' in %s", name, workdir));
+      // The consumer doesn't need to be thread-safe
+      synchronized (migrationRanConsumer) {
+        migrationRanConsumer.accept(migration);
+      }
+      migration.run(workdir, /*sourceRef=*/null);
+      return ExitCode.SUCCESS;
+    } catch (EmptyChangeException e) {
+      console.warnFmt("Migration '%s': %s", name, e.getMessage());
+      return ExitCode.NO_OP;
+    } catch (ValidationException e) {
+      console.errorFmt("Migration '%s' failed: %s", name, e.getMessage());
+      return ExitCode.CONFIGURATION_ERROR;
+    } catch (RepoException e) {
+      console.errorFmt("Migration '%s' failed: %s", name, e.getMessage());
+      return ExitCode.REPOSITORY_ERROR;
+    } catch (IOException e) {
+      console.errorFmt("Migration '%s' failed: %s", name, e.getMessage());
+      return ExitCode.ENVIRONMENT_ERROR;
+    } catch (RuntimeException e) {
+      logger.log(Level.SEVERE, "Unexpected error running migration " + name, e);
+      console.errorFmt("Migration '%s' failed with an unexpected error (please file a bug): %s",
+          name, e);
+      return ExitCode.INTERNAL_ERROR;
+    }
+  }
+
+  /**
+   * Returns the names of the migrations of {@code config} that match {@code migrationNames}, in
+   * config order.
+   */
+  private static ImmutableList<String> selectMigrations(Config config, String migrationNames)
+      throws ValidationException {
+    ImmutableSet.Builder<String> selected = ImmutableSet.builder();
+    for (String pattern : Splitter.on(',').trimResults().omitEmptyStrings()
+        .split(migrationNames)) {
+      Pattern regex = Pattern.compile(Splitter.on('*').splitToList(pattern).stream()
+          .map(Pattern::quote)
+          .collect(Collectors.joining(".*")));
+      List<String> matches = config.getMigrations().keySet().stream()
+          .filter(name -> regex.matcher(name).matches())
+          .collect(Collectors.toList());
+      ValidationException.checkCondition(!matches.isEmpty(),
+          String.format("No migration matches '%s'", pattern));
+      selected.addAll(matches);
+    }
+    ImmutableSet<String> names = selected.build();
+    ValidationException.checkCondition(!names.isEmpty(), "No migration names were passed");
+    // Keep the config order
+    return ImmutableList.copyOf(config.getMigrations().keySet().stream()
+        .filter(names::contains)
+        .collect(Collectors.toList()));
+  }
+
   /**
    * Retrieves the {@link Info} of the {@code migrationName} and prints it to the console.
    */
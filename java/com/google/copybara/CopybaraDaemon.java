@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.copybara.util.ExitCode;
+import com.google.copybara.util.console.Console;
+import com.google.copybara.util.console.LogConsole;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+
+/**
+ * A server that runs the Copybara commands sent by {@link DaemonClient}s in the same JVM, so that
+ * they don't pay for the JVM startup, the Skylark initialization and a cold JIT every time.
+ *
+ * <p>It listens on a loopback TCP port. The port and a random token that clients need to send are
+ * written to a state file, by default {@link #defaultStateFile()}, that is only readable by the
+ * user. Commands are run one at a
+ * time, since concurrent migrations would share the cached repositories.
+ *
+ * <p>The protocol is: the client sends the token, its environment and the arguments. The daemon
+ * answers with {@link #OUTPUT} frames containing the console output and finishes with an
+ * {@link #EXIT} frame containing the exit code. The console output is a single stream, since
+ * {@link Main} writes all of it to stderr.
+ */
+final class CopybaraDaemon {
+
+  private static final Logger logger = Logger.getLogger(CopybaraDaemon.class.getName());
+
+  static final byte OUTPUT = 1;
+  static final byte EXIT = 2;
+
+  private static final int REQUEST_TIMEOUT_MS = 30_000;
+  private static final int MAX_STRING_BYTES = 1024 * 1024;
+
+  private final Main main;
+  private final Path stateFile;
+  @Nullable
+  private volatile ServerSocket server;
+
+  CopybaraDaemon(Main main, Path stateFile) {
+    this.main = Preconditions.checkNotNull(main);
+    this.stateFile = Preconditions.checkNotNull(stateFile);
+  }
+
+  /**
+   * File where a daemon started with {@code copybara daemon} writes its port and token.
+   */
+  static Path defaultStateFile() {
+    return FileSystems.getDefault().getPath(Main.getBaseExecDir(), "daemon");
+  }
+
+  /**
+   * Reads the port and token of the running daemon from {@code stateFile}.
+   */
+  static List<String> readStateFile(Path stateFile) throws IOException {
+    List<String> fields = Splitter.on(' ').trimResults()
+        .splitToList(new String(Files.readAllBytes(stateFile), UTF_8));
+    if (fields.size() != 2) {
+      throw new IOException("Invalid daemon state file: " + stateFile);
+    }
+    return fields;
+  }
+
+  /**
+   * Serves requests until the process is killed or {@link #stop()} is called.
+   */
+  ExitCode serve(Console console) throws IOException {
+    String token = UUID.randomUUID().toString();
+    try (ServerSocket server = new ServerSocket(/*port=*/0, /*backlog=*/50,
+        InetAddress.getLoopbackAddress())) {
+      this.server = server;
+      writeStateFile(stateFile, server.getLocalPort(), token);
+      console.info(String.format("Copybara daemon listening on port %d. State written to %s",
+          server.getLocalPort(), stateFile));
+      while (!Thread.currentThread().isInterrupted() && !server.isClosed()) {
+        try (Socket socket = server.accept()) {
+          handle(socket, token);
+        } catch (IOException | RuntimeException e) {
+          if (server.isClosed()) {
+            break;
+          }
+          // The client might have gone away or the command failed unexpectedly. Keep serving the
+          // rest.
+          logger.log(Level.WARNING, "Error serving a daemon request", e);
+        }
+      }
+      return ExitCode.INTERRUPTED;
+    } finally {
+      Files.deleteIfExists(stateFile);
+    }
+  }
+
+  /**
+   * Stops accepting requests. The request being served, if any, finishes first.
+   */
+  void stop() throws IOException {
+    ServerSocket server = this.server;
+    if (server != null) {
+      server.close();
+    }
+  }
+
+  private static void writeStateFile(Path stateFile, int port, String token) throws IOException {
+    Files.createDirectories(stateFile.getParent());
+    Files.deleteIfExists(stateFile);
+    if (Files.getFileStore(stateFile.getParent()).supportsFileAttributeView("posix")) {
+      // Anybody that can read the token can run commands as this user
+      Files.createFile(stateFile,
+          PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+    }
+    Files.write(stateFile, (port + " " + token + "\n").getBytes(UTF_8));
+  }
+
+  private void handle(Socket socket, String token) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+    DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(socket.getOutputStream()));
+    Request request;
+    // Don't let a stuck client block the daemon
+    socket.setSoTimeout(REQUEST_TIMEOUT_MS);
+    try {
+      request = Request.read(in);
+    } catch (SocketTimeoutException e) {
+      logger.warning("Timed out reading a daemon request");
+      return;
+    }
+    socket.setSoTimeout(0);
+    // Constant time, so that the token cannot be guessed from the response time
+    if (!MessageDigest.isEqual(token.getBytes(UTF_8), request.token.getBytes(UTF_8))) {
+      logger.warning("Rejected a daemon request with a wrong token");
+      writeExit(out, ExitCode.COMMAND_LINE_ERROR);
+      return;
+    }
+
+    String[] args = request.args.toArray(new String[0]);
+    PrintStream output = new PrintStream(new FrameOutputStream(out), /*autoFlush=*/true, "UTF-8");
+    ExitCode exitCode = main.runForDaemon(args, request.environment,
+        LogConsole.writeOnlyConsole(output, Main.isVerbose(args)));
+    output.flush();
+    writeExit(out, exitCode);
+  }
+
+  private static void writeExit(DataOutputStream out, ExitCode exitCode) throws IOException {
+    out.writeByte(EXIT);
+    out.writeInt(exitCode.getCode());
+    out.flush();
+  }
+
+  /**
+   * A command sent by a client.
+   */
+  static final class Request {
+
+    final String token;
+    final ImmutableMap<String, String> environment;
+    final ImmutableList<String> args;
+
+    Request(String token, Map<String, String> environment, List<String> args) {
+      this.token = Preconditions.checkNotNull(token);
+      this.environment = ImmutableMap.copyOf(environment);
+      this.args = ImmutableList.copyOf(args);
+    }
+
+    void write(DataOutputStream out) throws IOException {
+      writeString(out, token);
+      out.writeInt(environment.size());
+      for (Entry<String, String> entry : environment.entrySet()) {
+        writeString(out, entry.getKey());
+        writeString(out, entry.getValue());
+      }
+      out.writeInt(args.size());
+      for (String arg : args) {
+        writeString(out, arg);
+      }
+      out.flush();
+    }
+
+    static Request read(DataInputStream in) throws IOException {
+      String token = readString(in);
+      ImmutableMap.Builder<String, String> environment = ImmutableMap.builder();
+      for (int i = in.readInt(); i > 0; i--) {
+        environment.put(readString(in), readString(in));
+      }
+      ImmutableList.Builder<String> args = ImmutableList.builder();
+      for (int i = in.readInt(); i > 0; i--) {
+        args.add(readString(in));
+      }
+      return new Request(token, environment.build(), args.build());
+    }
+
+    // Not writeUTF, since values like environment variables can be longer than 64K
+    private static void writeString(DataOutputStream out, String str) throws IOException {
+      byte[] bytes = str.getBytes(UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+      int length = in.readInt();
+      if (length < 0 || length > MAX_STRING_BYTES) {
+        throw new IOException("Invalid string length in daemon request: " + length);
+      }
+      byte[] bytes = new byte[length];
+      in.readFully(bytes);
+      return new String(bytes, UTF_8);
+    }
+  }
+
+  /**
+   * Sends what is written as {@link #OUTPUT} frames.
+   */
+  private static final class FrameOutputStream extends OutputStream {
+
+    private final DataOutputStream out;
+
+    private FrameOutputStream(DataOutputStream out) {
+      this.out = out;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return;
+      }
+      out.writeByte(OUTPUT);
+      out.writeInt(len);
+      out.write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      out.flush();
+    }
+  }
+}
@@ -613,7 +613,8 @@ public class Core implements OptionsAwareModule, LabelsAwareModule {
       return VerifyMatch.create(location,
           regex,
           paths,
-          verifyNoMatch);
+          verifyNoMatch,
+          self.workflowOptions);
     }
   };
 
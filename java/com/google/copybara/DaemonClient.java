@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara;
+
+import static com.google.copybara.MainArguments.COPYBARA_SKYLARK_CONFIG_FILENAME;
+
+import com.google.copybara.CopybaraDaemon.Request;
+import com.google.copybara.util.ExitCode;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A thin client that sends a command to the daemon started with {@code copybara daemon} and
+ * prints its output. It takes the same arguments as {@link Main}.
+ *
+ * <p>The config file path is made absolute, since the daemon runs in a different directory. Other
+ * relative paths in flags are resolved against the directory of the daemon.
+ */
+public final class DaemonClient {
+
+  private DaemonClient() {
+  }
+
+  public static void main(String[] args) {
+    System.exit(
+        run(args, CopybaraDaemon.defaultStateFile(), System.getenv(), System.err).getCode());
+  }
+
+  /**
+   * Sends {@code args} to the daemon that wrote {@code stateFile}, writes its output to {@code
+   * err} and returns its exit code.
+   */
+  static ExitCode run(String[] args, Path stateFile, Map<String, String> environment,
+      PrintStream err) {
+    List<String> fields;
+    try {
+      fields = CopybaraDaemon.readStateFile(stateFile);
+    } catch (NoSuchFileException e) {
+      err.println("No Copybara daemon is running. Start one with 'copybara daemon'.");
+      return ExitCode.ENVIRONMENT_ERROR;
+    } catch (IOException e) {
+      err.println("Cannot read the state of the Copybara daemon: " + e.getMessage());
+      return ExitCode.ENVIRONMENT_ERROR;
+    }
+
+    List<String> absoluteArgs = new ArrayList<>();
+    for (String arg : args) {
+      if (!arg.startsWith("-") && arg.endsWith(COPYBARA_SKYLARK_CONFIG_FILENAME)) {
+        Path path = Paths.get(arg);
+        arg = path.toAbsolutePath().normalize().toString();
+      }
+      absoluteArgs.add(arg);
+    }
+
+    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(),
+        Integer.parseInt(fields.get(0)))) {
+      DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(socket.getOutputStream()));
+      new Request(fields.get(1), environment, absoluteArgs).write(out);
+
+      DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      while (true) {
+        byte type = in.readByte();
+        if (type == CopybaraDaemon.OUTPUT) {
+          byte[] bytes = new byte[in.readInt()];
+          in.readFully(bytes);
+          err.write(bytes);
+          err.flush();
+        } else if (type == CopybaraDaemon.EXIT) {
+          return exitCode(in.readInt());
+        } else {
+          err.println("Unexpected message from the Copybara daemon: " + type);
+          return ExitCode.INTERNAL_ERROR;
+        }
+      }
+    } catch (EOFException e) {
+      err.println("The Copybara daemon closed the connection before finishing.");
+      return ExitCode.ENVIRONMENT_ERROR;
+    } catch (IOException | NumberFormatException e) {
+      err.println("Cannot connect to the Copybara daemon: " + e.getMessage());
+      return ExitCode.ENVIRONMENT_ERROR;
+    }
+  }
+
+  private static ExitCode exitCode(int code) {
+    for (ExitCode exitCode : ExitCode.values()) {
+      if (exitCode.getCode() == code) {
+        return exitCode;
+      }
+    }
+    return ExitCode.INTERNAL_ERROR;
+  }
+}
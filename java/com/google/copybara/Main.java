@@ -29,6 +29,8 @@ import com.google.common.collect.ImmutableMap;
 import com.google.copybara.config.ConfigFile;
 import com.google.copybara.config.ConfigLoader;
 import com.google.copybara.config.PathBasedConfigFile;
+import com.google.copybara.profiler.ChromeTraceProfilerListener;
+import com.google.copybara.profiler.Listener;
 import com.google.copybara.profiler.LogProfilerListener;
 import com.google.copybara.profiler.Profiler;
 import com.google.copybara.profiler.Profiler.ProfilerTask;
@@ -72,6 +74,9 @@ public class Main {
    */
   protected final ImmutableMap<String, String> environment;
   protected Profiler profiler;
+  // Not null if this instance is serving commands from daemon clients
+  @Nullable
+  private CopybaraDaemon daemon;
 
   public Main() {
     this(System.getenv());
@@ -98,12 +103,28 @@ public class Main {
       handleUnexpectedError(console, e.getMessage(), args, e);
       return ExitCode.ENVIRONMENT_ERROR;
     }
+    return runAndShutdown(args, environment, console, fs);
+  }
+
+  /**
+   * Runs a command sent by a {@link DaemonClient} to the daemon started by this instance. Logs are
+   * already configured, and the output goes to {@code console}.
+   */
+  ExitCode runForDaemon(String[] args, Map<String, String> environment, Console console) {
+    return runAndShutdown(args, ImmutableMap.copyOf(environment), console,
+        FileSystems.getDefault());
+  }
+
+  private ExitCode runAndShutdown(String[] args, ImmutableMap<String, String> environment,
+      Console console, FileSystem fs) {
     // This is useful when debugging user issues
     logger.info("Running: " + Joiner.on(' ').join(args));
 
     console.startupMessage(getVersion());
 
-    ExitCode exitCode = runInternal(args, console, fs);
+    // A daemon runs several commands. Only stop the profiler of this one, if it got to start it.
+    profiler = null;
+    ExitCode exitCode = runInternal(args, environment, console, fs);
     try {
       shutdown(exitCode);
     } catch (InterruptedException e) {
@@ -123,7 +144,8 @@ public class Main {
    *
    * <p>This method is also responsible for the exception handling/logging.
    */
-  private ExitCode runInternal(String[] args, Console console, FileSystem fs) {
+  private ExitCode runInternal(String[] args, ImmutableMap<String, String> environment,
+      Console console, FileSystem fs) {
     try {
       ModuleSupplier moduleSupplier = newModuleSupplier();
 
@@ -150,39 +172,58 @@ public class Main {
         return ExitCode.SUCCESS;
       }
       mainArgs.parseUnnamedArgs();
+      if (mainArgs.getSubcommand() == Subcommand.DAEMON) {
+        if (daemon != null) {
+          throw new CommandLineException("The daemon cannot run the 'daemon' subcommand");
+        }
+        daemon = new CopybaraDaemon(this, CopybaraDaemon.defaultStateFile());
+        return daemon.serve(console);
+      }
 
       GeneralOptions generalOptions = generalOptionsArgs.init(environment, fs, console);
       generalOptionsSupplier.set(generalOptions);
       allOptions.add(generalOptions);
       Options options = new Options(allOptions);
 
-      initEnvironment(options, mainArgs, jcommander);
-
-      ConfigLoader<?> configLoader =
-          newConfigLoader(
-              moduleSupplier, options, mainArgs.getConfigPath(), mainArgs.getSourceRef());
-
-      Copybara copybara = newCopybaraTool(moduleSupplier, options, mainArgs.getConfigPath());
-      switch (mainArgs.getSubcommand()) {
-        case VALIDATE:
-          return copybara.validate(options, configLoader, mainArgs.getWorkflowName())
-              ? ExitCode.SUCCESS : ExitCode.CONFIGURATION_ERROR;
-        case MIGRATE:
-          copybara.run(
-              options,
-              configLoader,
-              mainArgs.getWorkflowName(),
-              mainArgs.getBaseWorkdir(generalOptions, fs),
-              mainArgs.getSourceRef());
-          return ExitCode.SUCCESS;
-        case INFO:
-          // TODO(malcon): Use the same mechanism (if possible) for the other commands.
-          Config config = configLoader.loadConfig(options);
-          copybara.info(options, config, mainArgs.getWorkflowName());
-          return ExitCode.SUCCESS;
-        default:
-          console.error(String.format("Subcommand %s not implemented.", mainArgs.getSubcommand()));
-          return ExitCode.COMMAND_LINE_ERROR;
+      try {
+        initEnvironment(options, mainArgs, jcommander);
+
+        ConfigLoader<?> configLoader =
+            newConfigLoader(
+                moduleSupplier, options, mainArgs.getConfigPath(), mainArgs.getSourceRef());
+
+        Copybara copybara = newCopybaraTool(moduleSupplier, options, mainArgs.getConfigPath());
+        switch (mainArgs.getSubcommand()) {
+          case VALIDATE:
+            return copybara.validate(options, configLoader, mainArgs.getWorkflowName())
+                ? ExitCode.SUCCESS : ExitCode.CONFIGURATION_ERROR;
+          case MIGRATE:
+            copybara.run(
+                options,
+                configLoader,
+                mainArgs.getWorkflowName(),
+                mainArgs.getBaseWorkdir(generalOptions, fs),
+                mainArgs.getSourceRef());
+            return ExitCode.SUCCESS;
+          case BATCH:
+            if (mainArgs.batchJobs < 1) {
+              throw new CommandLineException("--batch-jobs should be at least 1");
+            }
+            return copybara.runBatch(
+                options, configLoader, mainArgs.getWorkflowName(), mainArgs.batchJobs);
+          case INFO:
+            // TODO(malcon): Use the same mechanism (if possible) for the other commands.
+            Config config = configLoader.loadConfig(options);
+            copybara.info(options, config, mainArgs.getWorkflowName());
+            return ExitCode.SUCCESS;
+          default:
+            console.error(
+                String.format("Subcommand %s not implemented.", mainArgs.getSubcommand()));
+            return ExitCode.COMMAND_LINE_ERROR;
+        }
+      } finally {
+        // Daemons run many commands in the same JVM
+        options.close();
       }
     } catch (CommandLineException | ParameterException e) {
       printCauseChain(Level.WARNING, console, args, e);
@@ -332,7 +373,13 @@ public class Main {
       throws ValidationException, IOException, RepoException {
     GeneralOptions generalOptions = options.get(GeneralOptions.class);
     profiler = generalOptions.profiler();
-    profiler.init(ImmutableList.of(new LogProfilerListener()));
+    ImmutableList.Builder<Listener> listeners = ImmutableList.builder();
+    listeners.add(new LogProfilerListener());
+    if (mainArgs.profileTrace != null) {
+      listeners.add(new ChromeTraceProfilerListener(
+          generalOptions.getFileSystem().getPath(mainArgs.profileTrace)));
+    }
+    profiler.init(listeners.build());
     cleanupOutputDir(generalOptions);
   }
 
@@ -365,7 +412,7 @@ public class Main {
    * Returns the base directory to be used by Copybara to write execution related files (Like
    * logs).
    */
-  private String getBaseExecDir() {
+  static String getBaseExecDir() {
     // In this case we are not using GeneralOptions.getEnvironment() because we still haven't built
     // the options, but it's fine. This is the tool's Main and is also injecting System.getEnv()
     // to the options, so the value is the same.
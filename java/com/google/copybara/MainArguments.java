@@ -16,6 +16,8 @@
 
 package com.google.copybara;
 
+import static com.google.copybara.Subcommand.BATCH;
+import static com.google.copybara.Subcommand.DAEMON;
 import static com.google.copybara.Subcommand.INFO;
 import static com.google.copybara.Subcommand.VALIDATE;
 
@@ -54,12 +56,17 @@ public final class MainArguments {
           + "Copybara. Available subcommands:\n"
           + "  - migrate: Executes the migration for the given config.\n"
           + "  - validate: Validates that the configuration is correct.\n"
-          + "  - info: Reads the last migrated revision in the origin and destination.\n")
+          + "  - info: Reads the last migrated revision in the origin and destination.\n"
+          + "  - daemon: Keeps running and executes the subcommands sent by copybara_client, "
+          + "avoiding the startup cost of each execution. Takes no other arguments.\n"
+          + "  - batch: Executes several migrations of the config concurrently, each one in its "
+          + "own temporary workdir.\n")
           + "\n"
           + "config_path: Required. Relative or absolute path to the main Copybara config file.\n"
           + "\n"
           + "workflow_name: Optional, defaults to 'default'. The name of the workflow in the "
-          + "configuration to be used by Copybara.\n"
+          + "configuration to be used by Copybara. For 'batch', a comma-separated list of names "
+          + "that can use '*' as a wildcard, like 'import_*,export_foo'.\n"
           + "\n"
           + "source_ref: Optional. The reference to be resolved in the origin. Most of the times "
           + "this argument is not needed, as Copybara keeps track of the last migrated reference "
@@ -77,6 +84,14 @@ public final class MainArguments {
       + " will be performed. By default a temporary directory.")
   String baseWorkdir;
 
+  @Parameter(names = "--profile-trace", description = "If set, writes a profile of the execution"
+      + " to this file in the Chrome Trace Event Format, that can be loaded in chrome://tracing.")
+  String profileTrace = null;
+
+  @Parameter(names = "--batch-jobs", description = "Maximum number of migrations executed"
+      + " concurrently by the 'batch' subcommand.")
+  int batchJobs = 4;
+
   @Nullable
   private ArgumentHolder argumentHolder;
 
@@ -93,6 +108,10 @@ public final class MainArguments {
     return getArgs().subcommand;
   }
 
+  /**
+   * Path of the config file. Null only for the {@link Subcommand#DAEMON} subcommand.
+   */
+  @Nullable
   public String getConfigPath() {
     return getArgs().configPath;
   }
@@ -169,6 +188,15 @@ public final class MainArguments {
       }
     }
 
+    if (subcommand == DAEMON) {
+      if (argumentId < unnamed.size()) {
+        throw new CommandLineException("Too many arguments for subcommand 'daemon'");
+      }
+      argumentHolder = new ArgumentHolder(subcommand, /*configPath=*/null, /*workflowName=*/null,
+          /*sourceRef=*/null);
+      return;
+    }
+
     if (argumentId >= unnamed.size()) {
       throw new CommandLineException(
           String.format("Configuration file missing for '%s' subcommand.",
@@ -185,7 +213,7 @@ public final class MainArguments {
 
     String sourceRef = null;
     if (argumentId < unnamed.size()) {
-      if (subcommand == INFO || subcommand == VALIDATE) {
+      if (subcommand == INFO || subcommand == VALIDATE || subcommand == BATCH) {
         throw new CommandLineException(
             String.format(
                 "Too many arguments for subcommand '%s'", subcommand.toString().toLowerCase()));
@@ -199,11 +227,11 @@ public final class MainArguments {
   private static class ArgumentHolder {
 
     private final Subcommand subcommand;
-    private final String configPath;
+    @Nullable private final String configPath;
     @Nullable private final String workflowName;
     @Nullable private final String sourceRef;
 
-    private ArgumentHolder(Subcommand subcommand, String configPath,
+    private ArgumentHolder(Subcommand subcommand, @Nullable String configPath,
         @Nullable  String workflowName, @Nullable String sourceRef) {
       this.subcommand = subcommand;
       this.configPath = configPath;
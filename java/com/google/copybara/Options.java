@@ -17,6 +17,8 @@
 package com.google.copybara;
 
 import com.google.common.collect.ImmutableMap;
+import java.io.Closeable;
+import java.io.IOException;
 import java.util.Map.Entry;
 
 /**
@@ -53,4 +55,15 @@ public class Options {
     }
     return (T) option;
   }
+
+  /**
+   * Closes the options that hold resources for the duration of a command, like thread pools.
+   */
+  public void close() throws IOException {
+    for (Option option : config.values()) {
+      if (option instanceof Closeable) {
+        ((Closeable) option).close();
+      }
+    }
+  }
 }
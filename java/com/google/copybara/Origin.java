@@ -17,6 +17,7 @@
 package com.google.copybara;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.copybara.authoring.Authoring;
 import com.google.copybara.util.Glob;
 import com.google.devtools.build.lib.skylarkinterface.SkylarkModule;
@@ -58,6 +59,25 @@ public interface Origin<R extends Revision> extends ConfigItemDescription {
      */
     void checkout(R ref, Path workdir) throws RepoException, ValidationException;
 
+    /**
+     * Updates {@code workdir}, that contains a previous checkout of {@code baseline} (possibly
+     * transformed afterwards), to the content of {@code ref}: The files that differ between the two
+     * revisions are overwritten with their content in {@code ref} or deleted, and the rest of the
+     * files in {@code workdir} are left untouched.
+     *
+     * <p>Readers that cannot do it return null without modifying {@code workdir}, and callers should
+     * use {@link #checkout} instead.
+     *
+     * @return the paths, relative to {@code workdir}, that were written or deleted, or null if
+     * not supported
+     * @throws RepoException if any error happens during the checkout.
+     */
+    @Nullable
+    default ImmutableSet<String> checkoutIncrementally(R baseline, R ref, Path workdir)
+        throws RepoException, ValidationException {
+      return null;
+    }
+
     /**
      * Returns the changes that happen in the interval (fromRef, toRef].
      *
@@ -31,5 +31,13 @@ public enum Subcommand {
   /**
    * Reads the last migrated revision in the origin and destination.
    */
-  INFO
+  INFO,
+  /**
+   * Keeps running and executes the other subcommands sent by {@link DaemonClient}.
+   */
+  DAEMON,
+  /**
+   * Executes several migrations of the config concurrently.
+   */
+  BATCH
 }
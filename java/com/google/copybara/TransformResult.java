@@ -18,6 +18,7 @@ package com.google.copybara;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.copybara.authoring.Author;
 import java.nio.file.Path;
 import java.time.ZonedDateTime;
@@ -39,6 +40,8 @@ public final class TransformResult {
   private final Revision requestedRevision;
   @Nullable
   private final String changeIdentity;
+  @Nullable
+  private final ImmutableSet<String> changedPaths;
 
   private static ZonedDateTime readTimestampOrCurrentTime(Revision originRef) throws RepoException {
     ZonedDateTime refTimestamp = originRef.readTimestamp();
@@ -50,12 +53,13 @@ public final class TransformResult {
       throws RepoException {
     this(path, currentRevision, author, readTimestampOrCurrentTime(currentRevision), summary,
         /*baseline=*/ null, /*askForConfirmation=*/ false, requestedRevision,
-         /*changeIdentity=*/null /*groupIdentity=*/);
+         /*changeIdentity=*/null /*groupIdentity=*/, /*changedPaths=*/null);
   }
 
   private TransformResult(Path path, Revision currentRevision, Author author,
       ZonedDateTime timestamp, String summary, @Nullable String baseline,
-      boolean askForConfirmation, Revision requestedRevision, @Nullable String changeIdentity) {
+      boolean askForConfirmation, Revision requestedRevision, @Nullable String changeIdentity,
+      @Nullable ImmutableSet<String> changedPaths) {
     this.path = Preconditions.checkNotNull(path);
     this.currentRevision = Preconditions.checkNotNull(currentRevision);
     this.author = Preconditions.checkNotNull(author);
@@ -65,13 +69,15 @@ public final class TransformResult {
     this.askForConfirmation = askForConfirmation;
     this.requestedRevision = Preconditions.checkNotNull(requestedRevision);
     this.changeIdentity = changeIdentity;
+    this.changedPaths = changedPaths;
   }
 
   public TransformResult withBaseline(String newBaseline) {
     Preconditions.checkNotNull(newBaseline);
     return new TransformResult(
         this.path, this.currentRevision, this.author, this.timestamp, this.summary,
-        newBaseline, this.askForConfirmation, this.requestedRevision, this.changeIdentity);
+        newBaseline, this.askForConfirmation, this.requestedRevision, this.changeIdentity,
+        this.changedPaths);
   }
 
   /**
@@ -82,22 +88,29 @@ public final class TransformResult {
     Preconditions.checkNotNull(summary);
     return new TransformResult(
         this.path, this.currentRevision, this.author, this.timestamp, summary,
-        this.baseline, this.askForConfirmation, this.requestedRevision, this.changeIdentity
-    );
+        this.baseline, this.askForConfirmation, this.requestedRevision, this.changeIdentity,
+        this.changedPaths);
   }
 
   public TransformResult withIdentity(String changeIdentity) {
     return new TransformResult(
         this.path, this.currentRevision, this.author, this.timestamp, this.summary,
-        this.baseline, this.askForConfirmation, this.requestedRevision, changeIdentity
-    );
+        this.baseline, this.askForConfirmation, this.requestedRevision, changeIdentity,
+        this.changedPaths);
   }
 
   public TransformResult withAskForConfirmation(boolean askForConfirmation) {
     return new TransformResult(
         this.path, this.currentRevision, this.author, this.timestamp, this.summary,
-        this.baseline, askForConfirmation, this.requestedRevision, this.changeIdentity
-    );
+        this.baseline, askForConfirmation, this.requestedRevision, this.changeIdentity,
+        this.changedPaths);
+  }
+
+  public TransformResult withChangedPaths(@Nullable ImmutableSet<String> changedPaths) {
+    return new TransformResult(
+        this.path, this.currentRevision, this.author, this.timestamp, this.summary,
+        this.baseline, this.askForConfirmation, this.requestedRevision, this.changeIdentity,
+        changedPaths);
   }
 
   /**
@@ -185,6 +198,19 @@ public final class TransformResult {
     return askForConfirmation;
   }
 
+  /**
+   * Paths, relative to {@link #getPath()}, of the files that might be different from the previous
+   * {@code TransformResult} of the same workflow run, that was created in the same directory. Null
+   * if unknown, like when the tree was checked out and transformed from scratch.
+   *
+   * <p>Destinations can use it for updating only those files if they know that the rest of the
+   * files are the ones that they wrote for the previous result.
+   */
+  @Nullable
+  public ImmutableSet<String> getChangedPaths() {
+    return changedPaths;
+  }
+
   /**
    * Get all the labels from the message.
    */
@@ -24,6 +24,7 @@ import com.google.common.collect.Lists;
 import com.google.copybara.authoring.Author;
 import com.google.copybara.treestate.FileSystemTreeState;
 import com.google.copybara.treestate.TreeState;
+import com.google.copybara.treestate.TreeState.FileState;
 import com.google.copybara.util.Glob;
 import com.google.copybara.util.console.Console;
 import com.google.devtools.build.lib.skylarkinterface.Param;
@@ -37,9 +38,12 @@ import com.google.devtools.build.lib.syntax.SkylarkList;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.PathMatcher;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 import javax.annotation.Nullable;
 
@@ -68,6 +72,10 @@ public final class TransformWork {
   private final TreeState treeState;
   private final boolean insideExplicitTransform;
   private TransformWork skylarkTransformWork;
+  // Whether the TreeState of skylarkTransformWork is in sync with the files, for ctx.run(glob)
+  private boolean skylarkTreeStateUpdated;
+  // Results of ctx.run(glob) since the last ctx.run(transform)
+  private final Map<Glob, SkylarkList<CheckoutPath>> globResults = new HashMap<>();
 
   public TransformWork(Path checkoutDir, Metadata metadata, Changes changes, Console console,
       MigrationInfo migrationInfo, Revision resolvedReference) {
@@ -115,6 +123,34 @@ public final class TransformWork {
         metadata.getAuthor());
   }
 
+  /**
+   * Returns the files in the checkout dir that match {@code glob}, sorted by path. The lookup is
+   * done in the {@link TreeState} shared with the transformations run by {@link #run(Object)}, so
+   * that only the roots of the glob are read from the filesystem, and only once.
+   */
+  private SkylarkList<CheckoutPath> findFiles(Glob glob) throws IOException {
+    if (!skylarkTreeStateUpdated) {
+      // A new TreeState is based on the previous one only if the last transformation notified
+      // the changes, otherwise it reads the filesystem again.
+      skylarkTransformWork = skylarkTransformWork.withUpdatedTreeState();
+      skylarkTreeStateUpdated = true;
+    }
+    TreeState treeState = skylarkTransformWork.getTreeState();
+    List<Path> files = new ArrayList<>();
+    for (FileState file : treeState.find(glob.relativeTo(checkoutDir))) {
+      // Like Files.isRegularFile, symlinks to regular files are included
+      if (Files.isRegularFile(file.getPath())) {
+        files.add(file.getPath());
+      }
+    }
+    // Looking up files doesn't change them, so the next transformation can reuse the index
+    treeState.notifyNoChange();
+    Collections.sort(files);
+    return SkylarkList.createImmutable(files.stream()
+        .map(p -> new CheckoutPath(checkoutDir.relativize(p), checkoutDir))
+        .collect(Collectors.toList()));
+  }
+
   @SkylarkCallable(
       name = "run", doc = "Run a glob or a transform. For example:<br>"
       + "<code>files = ctx.run(glob(['**.java']))</code><br>or<br>"
@@ -125,19 +161,22 @@ public final class TransformWork {
       })
   public Object run(Object runnable) throws EvalException, IOException, ValidationException {
     if (runnable instanceof Glob) {
-      PathMatcher pathMatcher = ((Glob) runnable).relativeTo(checkoutDir);
-
-      return SkylarkList.createImmutable(Files.walk(checkoutDir)
-          .filter(Files::isRegularFile)
-          .filter(pathMatcher::matches)
-          .map(p -> new CheckoutPath(checkoutDir.relativize(p), checkoutDir))
-          .collect(Collectors.toList()));
+      Glob glob = (Glob) runnable;
+      SkylarkList<CheckoutPath> result = globResults.get(glob);
+      if (result == null) {
+        result = findFiles(glob);
+        globResults.put(glob, result);
+      }
+      return result;
     } else if (runnable instanceof Transformation) {
       // Works like Sequence. We keep always the latest transform work to allow
       // catching for two sequential replaces.
       skylarkTransformWork = skylarkTransformWork.withUpdatedTreeState();
       ((Transformation) runnable).transform(skylarkTransformWork);
       this.updateFrom(skylarkTransformWork);
+      // The transformation might have changed the files, maybe without notifying the tree state
+      globResults.clear();
+      skylarkTreeStateUpdated = false;
       return Runtime.NONE;
     }
 
@@ -49,4 +49,17 @@ public interface Transformation {
    * {@link #toString()} method but something more user friendly.
    */
   String describe();
+
+  /**
+   * Returns true if running this transformation only on the files that changed since a previous
+   * run, on top of the result of that run, produces the same tree as running it on the whole
+   * checkout. This is true for transformations that process each file independently and don't add,
+   * move or remove files, and for transformations that only modify the metadata.
+   *
+   * <p>Used by {@link WorkflowMode#ITERATIVE} to avoid transforming the full tree for every
+   * change.
+   */
+  default boolean isIncremental() {
+    return false;
+  }
 }
@@ -20,6 +20,7 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
 import com.google.copybara.util.Glob;
+import com.google.copybara.util.GlobPathMatcher;
 import java.io.IOException;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
@@ -35,7 +36,7 @@ import java.util.Collections;
  */
 class ValidateDestinationFilesVisitor extends SimpleFileVisitor<Path> {
 
-  private final PathMatcher destinationFiles;
+  private final GlobPathMatcher destinationFiles;
   private final Path checkoutDir;
   private ArrayList<Path> invalidPaths;
 
@@ -44,6 +45,14 @@ class ValidateDestinationFilesVisitor extends SimpleFileVisitor<Path> {
     this.checkoutDir = checkNotNull(checkoutDir, "checkoutDir");
   }
 
+  @Override
+  public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+    // Nothing to report if all the files in the directory are destination files
+    return destinationFiles.matchesAllUnder(dir)
+        ? FileVisitResult.SKIP_SUBTREE
+        : FileVisitResult.CONTINUE;
+  }
+
   @Override
   public FileVisitResult visitFile(Path file, BasicFileAttributes attr) {
     if (!destinationFiles.matches(file)) {
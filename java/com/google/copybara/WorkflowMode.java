@@ -122,6 +122,10 @@ public enum WorkflowMode {
 
       Deque<Change<O>> migrated = new ArrayDeque<>();
       int migratedChanges = 0;
+      boolean incremental = runHelper.workflowOptions().iterativeIncremental
+          && runHelper.canMigrateIncrementally();
+      // Last revision whose transformed tree is in the workdir, if it can be reused
+      O incrementalBaseline = null;
       while (changesIterator.hasNext() && migratedChanges < limit) {
         Change<O> change = changesIterator.next();
         String prefix = String.format(
@@ -144,7 +148,8 @@ public enum WorkflowMode {
                       // Use the current change since we might want to create different
                       // reviews in the destination. Will not work if we want to group
                       // all the changes in the same Github PR
-                      runHelper.getWorkflowIdentity(change.getRevision()));
+                      runHelper.getWorkflowIdentity(change.getRevision()),
+                      incrementalBaseline);
           migratedChanges++;
         } catch (EmptyChangeException e) {
           runHelper.getConsole().warnFmt("Migration of origin revision '%s' resulted in an empty"
@@ -155,6 +160,9 @@ public enum WorkflowMode {
               change.getRevision().asString(), e.getMessage());
           throw e;
         }
+        if (incremental) {
+          incrementalBaseline = change.getRevision();
+        }
         migrated.addFirst(change);
 
         if (result == WriterResult.PROMPT_TO_CONTINUE && changesIterator.hasNext()) {
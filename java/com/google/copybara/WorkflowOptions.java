@@ -19,14 +19,18 @@ package com.google.copybara;
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.Parameters;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.copybara.util.FileUtil.CopyMode;
 import com.google.copybara.util.console.Console;
+import java.io.Closeable;
 import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import javax.annotation.Nullable;
 
 /**
  * Arguments for {@link Workflow} components.
  */
 @Parameters(separators = "=")
-public class WorkflowOptions implements Option {
+public class WorkflowOptions implements Option, Closeable {
 
   static final String CHANGE_REQUEST_PARENT_FLAG = "--change_request_parent";
 
@@ -62,6 +66,13 @@ public class WorkflowOptions implements Option {
   )
   public boolean squashSkipHistory = false;
 
+  @Parameter(names = "--iterative-incremental",
+      description = "In ITERATIVE mode, reuse the transformed tree of the previous change and only"
+          + " check out and transform the files modified by each change. A full migration is done"
+          + " instead when the transformations are not incremental (like dynamic ones), when the"
+          + " workflow is reversible-checked or when the origin doesn't support it.")
+  public boolean iterativeIncremental = false;
+
   @Parameter(names = {"--import-noop-changes"},
       description = "By default Copybara will only try to migrate changes that could affect the"
           + " destination. Ignoring changes that only affect excluded files in origin_files. This"
@@ -80,6 +91,24 @@ public class WorkflowOptions implements Option {
           + " branch.")
   public boolean dryRunMode = false;
 
+  @Parameter(names = "--transform-threads",
+      description = "Number of threads used by transformations that process files in parallel,"
+          + " like core.replace. A value of 1 processes the files sequentially.")
+  public int transformThreads = Runtime.getRuntime().availableProcessors();
+
+  @Parameter(names = "--file-threads",
+      description = "Number of threads used for copying and deleting the files of the workdir."
+          + " A value of 1 processes the files sequentially.")
+  public int fileThreads = Runtime.getRuntime().availableProcessors();
+
+  @Parameter(names = "--reversible-check-hardlinks", arity = 1,
+      description = "Use hard links instead of copies for the snapshots of the workdir used for"
+          + " checking that the transformations are reversible. The files are copied if the file"
+          + " system doesn't support hard links.")
+  public boolean reversibleCheckHardLinks = true;
+
+  private ForkJoinPool transformPool;
+  private ForkJoinPool filePool;
 
   /**
    * Reports that some operation is a no-op. This will either throw an exception or report the
@@ -93,6 +122,55 @@ public class WorkflowOptions implements Option {
     }
   }
 
+  /**
+   * Returns the pool used by transformations for processing files in parallel. Created lazily with
+   * {@code --transform-threads} parallelism.
+   */
+  public synchronized ForkJoinPool getTransformPool() {
+    if (transformPool == null) {
+      transformPool = new ForkJoinPool(Math.max(1, transformThreads));
+    }
+    return transformPool;
+  }
+
+  /**
+   * Returns the pool used for copying and deleting the files of the workdir in parallel, or null
+   * if they have to be processed sequentially. Created lazily with {@code --file-threads}
+   * parallelism.
+   */
+  @Nullable
+  public synchronized ForkJoinPool getFilePool() {
+    if (fileThreads <= 1) {
+      return null;
+    }
+    if (filePool == null) {
+      filePool = new ForkJoinPool(fileThreads);
+    }
+    return filePool;
+  }
+
+  /**
+   * Shuts down the pools. A new one is created if they are requested again.
+   */
+  @Override
+  public synchronized void close() {
+    if (transformPool != null) {
+      transformPool.shutdown();
+      transformPool = null;
+    }
+    if (filePool != null) {
+      filePool.shutdown();
+      filePool = null;
+    }
+  }
+
+  /**
+   * Returns how the snapshots of the workdir for the reversible check are created.
+   */
+  public CopyMode getReversibleCheckCopyMode() {
+    return reversibleCheckHardLinks ? CopyMode.HARDLINK : CopyMode.COPY;
+  }
+
   public WorkflowOptions() {}
 
   @VisibleForTesting
@@ -21,6 +21,7 @@ import static com.google.copybara.util.FileUtil.CopySymlinkStrategy.FAIL_OUTSIDE
 import com.google.common.base.Preconditions;
 import com.google.common.base.Verify;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.copybara.Destination.DestinationStatus;
 import com.google.copybara.Destination.Writer;
 import com.google.copybara.Destination.WriterResult;
@@ -28,8 +29,12 @@ import com.google.copybara.Origin.Reader;
 import com.google.copybara.authoring.Authoring;
 import com.google.copybara.profiler.Profiler;
 import com.google.copybara.profiler.Profiler.ProfilerTask;
+import com.google.copybara.treestate.FileSystemTreeState;
+import com.google.copybara.treestate.PartialTreeState;
+import com.google.copybara.treestate.TreeState;
 import com.google.copybara.util.DiffUtil;
 import com.google.copybara.util.FileUtil;
+import com.google.copybara.util.Glob;
 import com.google.copybara.util.console.Console;
 import com.google.copybara.util.console.ProgressPrefixConsole;
 import com.google.devtools.build.lib.skylarkinterface.SkylarkModule;
@@ -37,9 +42,12 @@ import com.google.devtools.build.lib.syntax.SkylarkList;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import javax.annotation.Nullable;
 
 /**
@@ -177,6 +185,87 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
       return null;
     });
   }
+  /**
+   * Returns true if the transformed tree of a migration can be reused for migrating the next
+   * revision by only checking out and transforming the files that changed.
+   */
+  boolean canMigrateIncrementally() {
+    return workflow.getReverseTransformForCheck() == null
+        && workflow.getTransformation().isIncremental();
+  }
+
+  /**
+   * Cleans the workdir and does a full checkout of {@code rev}, without the files excluded by
+   * origin_files.
+   */
+  private void checkout(O rev, Path checkoutDir, PathMatcher originFiles, Console processConsole)
+      throws IOException, RepoException, ValidationException {
+    try (ProfilerTask ignored = profiler().start("prepare_workdir")) {
+      processConsole.progress("Cleaning working directory");
+      if (Files.exists(workdir)) {
+        FileUtil.deleteRecursively(workdir, workflowOptions().getFilePool());
+      }
+      Files.createDirectories(checkoutDir);
+    }
+    processConsole.progress("Checking out the change");
+    try (ProfilerTask ignored = profiler().start(
+        "origin.checkout", profiler().taskType(originReader.getClass()))) {
+      originReader.checkout(rev, checkoutDir);
+    }
+
+    // Remove excluded origin files.
+    processConsole.progress("Removing excluded origin files");
+
+    int deleted = FileUtil.deleteFilesRecursively(
+        checkoutDir, FileUtil.notPathMatcher(originFiles), workflowOptions().getFilePool());
+    if (deleted != 0) {
+      processConsole.info(
+          String.format("Removed %d files from workdir that do not match origin_files", deleted));
+    }
+  }
+
+  /**
+   * Updates the transformed tree of {@code baseline} in {@code checkoutDir} to {@code rev} and
+   * returns the paths that were written or deleted, or null if the origin doesn't support it.
+   */
+  @Nullable
+  private ImmutableSet<String> checkoutIncrementally(O baseline, O rev, Path checkoutDir,
+      Console processConsole) throws RepoException, ValidationException {
+    processConsole.progress("Checking out the files changed since " + baseline.asString());
+    try (ProfilerTask ignored = profiler().start(
+        "origin.checkout", profiler().taskType(originReader.getClass()))) {
+      return originReader.checkoutIncrementally(baseline, rev, checkoutDir);
+    }
+  }
+
+  /**
+   * Returns a {@link TreeState} with the files of {@code updated} that need to be transformed.
+   * The updated files that do not match origin_files are removed from the workdir.
+   */
+  private TreeState partialTreeState(ImmutableSet<String> updated, Path checkoutDir,
+      PathMatcher originFiles, Console processConsole) throws IOException {
+    List<Path> toTransform = new ArrayList<>();
+    int deleted = 0;
+    for (String path : updated) {
+      Path file = checkoutDir.resolve(path);
+      if (!Files.exists(file, LinkOption.NOFOLLOW_LINKS)
+          || Files.isDirectory(file, LinkOption.NOFOLLOW_LINKS)) {
+        continue;
+      }
+      if (originFiles.matches(file)) {
+        toTransform.add(file);
+      } else {
+        Files.delete(file);
+        deleted++;
+      }
+    }
+    if (deleted != 0) {
+      processConsole.info(
+          String.format("Removed %d files from workdir that do not match origin_files", deleted));
+    }
+    return new PartialTreeState(toTransform);
+  }
+
   /**
    * Performs a full migration, including checking out files from the origin, deleting excluded
    * files, transforming the code, and writing to the destination. This writes to the destination
@@ -195,33 +284,41 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
       Metadata metadata, Changes changes, @Nullable String destinationBaseline,
       @Nullable String changeIdentity)
       throws IOException, RepoException, ValidationException {
+    return migrate(rev, processConsole, metadata, changes, destinationBaseline, changeIdentity,
+        /*incrementalBaseline=*/null);
+  }
+
+  /**
+   * Like {@link #migrate(Revision, Console, Metadata, Changes, String, String)}, but if {@code
+   * incrementalBaseline} is not null, the workdir is expected to contain the result of migrating
+   * that revision. In that case, only the files that changed since it are checked out and
+   * transformed, if the origin supports it. See {@link #canMigrateIncrementally()}.
+   */
+  WriterResult migrate(O rev, Console processConsole,
+      Metadata metadata, Changes changes, @Nullable String destinationBaseline,
+      @Nullable String changeIdentity, @Nullable O incrementalBaseline)
+      throws IOException, RepoException, ValidationException {
     Path checkoutDir = workdir.resolve("checkout");
-    try (ProfilerTask ignored = profiler().start("prepare_workdir")) {
-      processConsole.progress("Cleaning working directory");
-      if (Files.exists(workdir)) {
-        FileUtil.deleteRecursively(workdir);
-      }
-      Files.createDirectories(checkoutDir);
-    }
     // Start new output entry and add origin refs
     workflow.getGeneralOptions().getStructuredOutput().getCurrentSummaryLineBuilder()
         .setOriginRefs(changes.getCurrent().stream()
             .map(Change::refAsString).collect(ImmutableList.toImmutableList()));
-    processConsole.progress("Checking out the change");
-    try (ProfilerTask ignored = profiler().start(
-        "origin.checkout", profiler().taskType(originReader.getClass()))) {
-      originReader.checkout(rev, checkoutDir);
-    }
-
-    // Remove excluded origin files.
     PathMatcher originFiles = workflow.getOriginFiles().relativeTo(checkoutDir);
-    processConsole.progress("Removing excluded origin files");
 
-    int deleted = FileUtil.deleteFilesRecursively(
-        checkoutDir, FileUtil.notPathMatcher(originFiles));
-    if (deleted != 0) {
-      processConsole.info(
-          String.format("Removed %d files from workdir that do not match origin_files", deleted));
+    TreeState treeState = null;
+    // Files that changed since the previous migration, if the workdir is reused
+    ImmutableSet<String> changedPaths = null;
+    if (incrementalBaseline != null) {
+      Preconditions.checkState(canMigrateIncrementally(),
+          "Workflow '%s' cannot be migrated incrementally", workflow.getName());
+      changedPaths = checkoutIncrementally(incrementalBaseline, rev, checkoutDir, processConsole);
+      if (changedPaths != null) {
+        treeState = partialTreeState(changedPaths, checkoutDir, originFiles, processConsole);
+      }
+    }
+    if (treeState == null) {
+      checkout(rev, checkoutDir, originFiles, processConsole);
+      treeState = new FileSystemTreeState(checkoutDir);
     }
 
     Path originCopy = null;
@@ -229,7 +326,9 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
       try (ProfilerTask ignored = profiler().start("reverse_copy")) {
         workflow.getConsole().progress("Making a copy or the workdir for reverse checking");
         originCopy = Files.createDirectories(workdir.resolve("origin"));
-        FileUtil.copyFilesRecursively(checkoutDir, originCopy, FAIL_OUTSIDE_SYMLINKS);
+        FileUtil.copyFilesRecursively(checkoutDir, originCopy, FAIL_OUTSIDE_SYMLINKS,
+            Glob.ALL_FILES, workflowOptions().getFilePool(),
+            workflowOptions().getReversibleCheckCopyMode());
       }
     }
 
@@ -240,7 +339,9 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
             changes,
             workflow.getConsole(),
             new MigrationInfo(workflow.getOrigin().getLabelName(), getDestinationVisitor()),
-            resolvedRef);
+            resolvedRef,
+            treeState,
+            /*insideExplicitTransform=*/false);
     try (ProfilerTask ignored = profiler().start("transforms")) {
       workflow.getTransformation().transform(transformWork);
     }
@@ -250,7 +351,9 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
       Path reverse;
       try (ProfilerTask ignored = profiler().start("reverse_copy")) {
         reverse = Files.createDirectories(workdir.resolve("reverse"));
-        FileUtil.copyFilesRecursively(checkoutDir, reverse, FAIL_OUTSIDE_SYMLINKS);
+        FileUtil.copyFilesRecursively(checkoutDir, reverse, FAIL_OUTSIDE_SYMLINKS,
+            Glob.ALL_FILES, workflowOptions().getFilePool(),
+            workflowOptions().getReversibleCheckCopyMode());
       }
 
       try (ProfilerTask ignored = profiler().start("reverse_transform")) {
@@ -264,7 +367,8 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
                     new MigrationInfo(/*originLabel=*/ null, null),
                     resolvedRef));
       }
-      String diff = new String(DiffUtil.diff(originCopy, reverse, workflow.isVerbose()),
+      String diff = new String(DiffUtil.diff(originCopy, reverse, workflow.isVerbose(),
+          workflowOptions().getFilePool()),
           StandardCharsets.UTF_8);
       if (!diff.trim().isEmpty()) {
         workflow.getConsole().error("Non reversible transformations:\n"
@@ -288,7 +392,8 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
     }
     transformResult = transformResult
         .withAskForConfirmation(workflow.isAskForConfirmation())
-        .withIdentity(changeIdentity);
+        .withIdentity(changeIdentity)
+        .withChangedPaths(changedPaths);
 
     WriterResult result;
     try (ProfilerTask ignored = profiler().start(
@@ -18,12 +18,16 @@ package com.google.copybara.config;
 
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
+import javax.annotation.Nullable;
 
 /**
  * A config file that records the children created from it. Useful for collecting dependencies in
@@ -32,15 +36,24 @@ import java.util.Set;
 class CapturingConfigFile<T> extends ConfigFile<T> {
   private final Set<CapturingConfigFile<T>> children = new LinkedHashSet<>();
   private final ConfigFile<T> wrapped;
+  @Nullable private final String label;
+  @Nullable private volatile HashCode contentHash;
 
   CapturingConfigFile(ConfigFile<T> config) {
+    this(config, /*label=*/null);
+  }
+
+  private CapturingConfigFile(ConfigFile<T> config, @Nullable String label) {
     super(config.path());
     this.wrapped = Preconditions.checkNotNull(config);
+    this.label = label;
   }
 
   @Override
   public byte[] content() throws IOException {
-    return wrapped.content();
+    byte[] content = wrapped.content();
+    contentHash = Hashing.sha256().hashBytes(content);
+    return content;
   }
 
   @Override
@@ -76,10 +89,33 @@ class CapturingConfigFile<T> extends ConfigFile<T> {
     }
   }
 
+  /**
+   * The ConfigFiles created from this one, in creation order.
+   */
+  ImmutableList<CapturingConfigFile<T>> getChildren() {
+    return ImmutableList.copyOf(children);
+  }
+
+  /**
+   * The label used for resolving this file from its parent, or null for the root.
+   */
+  @Nullable
+  String getLabel() {
+    return label;
+  }
+
+  /**
+   * Hash of the last content read from this file, or null if it was never read.
+   */
+  @Nullable
+  HashCode getContentHash() {
+    return contentHash;
+  }
+
   @Override
   protected ConfigFile<T> createConfigFile(String label, T resolved) throws CannotResolveLabel {
     CapturingConfigFile<T> child =
-        new CapturingConfigFile<>(wrapped.createConfigFile(label, resolved));
+        new CapturingConfigFile<>(wrapped.createConfigFile(label, resolved), label);
     children.add(child);
     return child;
   }
@@ -21,8 +21,12 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
 import com.google.copybara.Config;
 import com.google.copybara.Core;
 import com.google.copybara.GeneralOptions;
@@ -45,10 +49,14 @@ import com.google.devtools.build.lib.syntax.SkylarkSignatureProcessor;
 import com.google.devtools.build.lib.syntax.StringLiteral;
 import com.google.devtools.build.lib.vfs.PathFragment;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -65,6 +73,21 @@ public class SkylarkParser {
 
   private static final Object initializationLock = new Object();
 
+  private static final int MAX_CACHED_ASTS = 1_000;
+
+  // Parsing doesn't depend on the options, so the parsed files are shared by all the loads in
+  // the process (For example the commands run by a daemon). Keyed by path and content. Accessed
+  // through its concurrent map view, since configs can be loaded from several threads.
+  private static final Cache<HashCode, BuildFileAST> parsedFiles =
+      CacheBuilder.newBuilder().maximumSize(MAX_CACHED_ASTS).build();
+
+  // The evaluated modules are bound to the Options, so configs can only be reused for the same
+  // Options instance. Every command creates its own Options and ConfigLoader, so this only helps
+  // the repeated loads of a single command (For example 'batch' loads the config once per
+  // migration). Keyed by Options and main config path.
+  private final Map<Options, Map<String, CachedConfig<?>>> evaluatedConfigs =
+      new ConcurrentHashMap<>();
+
   public SkylarkParser(Set<Class<?>> modules) {
     this.modules = ImmutableSet.<Class<?>>builder()
         .add(Authoring.Module.class)
@@ -130,6 +153,9 @@ public class SkylarkParser {
   /**
    * Collect all ConfigFiles retrieved by the parser while loading {code config}.
    *
+   * <p>If {@code config} was already loaded with the same {@code options} and neither it nor any
+   * file resolved from it while loading changed, the previously evaluated Config is returned.
+   *
    * @param config Root file of the configuration.
    * @return A map linking paths to the captured ConfigFiles and the parsed Config
    * @throws IOException If files cannot be read
@@ -138,6 +164,17 @@ public class SkylarkParser {
    */
   public <T> ConfigWithDependencies<T> getConfigWithTransitiveImports(
       ConfigFile<T> config, Options options) throws IOException, ValidationException {
+    Map<String, CachedConfig<?>> cachedConfigs =
+        evaluatedConfigs.computeIfAbsent(options, o -> new ConcurrentHashMap<>());
+    CachedConfig<?> cached = cachedConfigs.get(config.path());
+    if (cached != null) {
+      Map<String, ConfigFile<T>> currentFiles = new LinkedHashMap<>();
+      if (isUnchanged(config, cached.files, currentFiles)) {
+        logger.info("Reusing the evaluated config for " + config.path());
+        return new ConfigWithDependencies<>(ImmutableMap.copyOf(currentFiles), cached.config);
+      }
+    }
+
     CapturingConfigFile<T> capturingConfigFile = new CapturingConfigFile<>(config);
     ConfigFilesSupplier<T> configFilesSupplier = new ConfigFilesSupplier<>();
 
@@ -147,9 +184,64 @@ public class SkylarkParser {
 
     configFilesSupplier.setConfigFiles(allLoadedFiles);
 
+    cachedConfigs.put(config.path(), new CachedConfig<>(capturingConfigFile, parsedConfig));
     return new ConfigWithDependencies<>(allLoadedFiles, parsedConfig);
   };
 
+  /**
+   * Returns true if resolving the same labels as when {@code captured} was loaded, starting from
+   * {@code config}, gives the same paths and contents. The resolved files are added to
+   * {@code files}.
+   *
+   * <p>Files whose content was not read while loading are only checked by path.
+   */
+  private static <T> boolean isUnchanged(ConfigFile<T> config, CapturingConfigFile<?> captured,
+      Map<String, ConfigFile<T>> files) {
+    if (!config.path().equals(captured.path())) {
+      return false;
+    }
+    HashCode contentHash = captured.getContentHash();
+    if (contentHash != null) {
+      byte[] content;
+      try {
+        content = config.content();
+      } catch (IOException e) {
+        // Let the regular load report it
+        return false;
+      }
+      if (!Hashing.sha256().hashBytes(content).equals(contentHash)) {
+        return false;
+      }
+    }
+    files.put(config.path(), config);
+    for (CapturingConfigFile<?> child : captured.getChildren()) {
+      ConfigFile<T> resolved;
+      try {
+        resolved = config.resolve(child.getLabel());
+      } catch (CannotResolveLabel e) {
+        return false;
+      }
+      if (!isUnchanged(resolved, child, files)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * A config evaluated for some Options, together with the files read while evaluating it.
+   */
+  private static final class CachedConfig<T> {
+
+    private final CapturingConfigFile<T> files;
+    private final Config config;
+
+    private CachedConfig(CapturingConfigFile<T> files, Config config) {
+      this.files = Preconditions.checkNotNull(files);
+      this.config = Preconditions.checkNotNull(config);
+    }
+  }
+
   private static class ConfigFilesSupplier<T>
       implements Supplier<ImmutableMap<String, ? extends ConfigFile<?>>> {
 
@@ -217,8 +309,7 @@ public class SkylarkParser {
       Frame globals = createGlobals(eventHandler, options, content, mainConfigFile,
                                     configFilesSupplier);
 
-      BuildFileAST buildFileAST = BuildFileAST.parseSkylarkFileWithoutImports(
-          new InputSourceForConfigFile(content), eventHandler);
+      BuildFileAST buildFileAST = parse(content);
 
       Map<String, Extension> imports = new HashMap<>();
       for (StringLiteral anImport : buildFileAST.getRawImports()) {
@@ -233,6 +324,36 @@ public class SkylarkParser {
       return env;
     }
 
+    /**
+     * Parses {@code content}, reusing a previous parse of the same path and content if possible.
+     */
+    private BuildFileAST parse(ConfigFile<?> content) throws IOException {
+      InputSourceForConfigFile input = new InputSourceForConfigFile(content);
+      HashCode key = Hashing.sha256().newHasher()
+          .putString(input.path, UTF_8)
+          .putString(input.content, UTF_8)
+          .hash();
+      BuildFileAST cached = parsedFiles.asMap().get(key);
+      if (cached != null) {
+        return cached;
+      }
+      List<Event> parseEvents = new ArrayList<>();
+      BuildFileAST buildFileAST =
+          BuildFileAST.parseSkylarkFileWithoutImports(input, parseEvents::add);
+      for (Event event : parseEvents) {
+        eventHandler.handle(event);
+      }
+      // Don't cache files with errors or warnings, so that they are reported every time.
+      if (parseEvents.isEmpty() && !buildFileAST.containsErrors()) {
+        // Another load could have parsed the same file in the meantime. Keep the first one.
+        BuildFileAST previous = parsedFiles.asMap().putIfAbsent(key, buildFileAST);
+        if (previous != null) {
+          return previous;
+        }
+      }
+      return buildFileAST;
+    }
+
     private ValidationException throwCycleError(String cycleElement)
         throws ValidationException {
       StringBuilder sb = new StringBuilder();
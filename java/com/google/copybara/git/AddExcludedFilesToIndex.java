@@ -20,12 +20,12 @@ import com.google.common.base.Preconditions;
 import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
 import com.google.copybara.RepoException;
+import com.google.copybara.util.GlobPathMatcher;
 import com.google.copybara.util.console.Console;
 import java.io.IOException;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.PathMatcher;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
@@ -37,10 +37,10 @@ import java.util.List;
  */
 final class AddExcludedFilesToIndex {
   private final GitRepository repo;
-  private final PathMatcher pathMatcher;
+  private final GlobPathMatcher pathMatcher;
   private ArrayList<String> addBackSubmodules;
 
-  AddExcludedFilesToIndex(GitRepository repo, PathMatcher pathMatcher) {
+  AddExcludedFilesToIndex(GitRepository repo, GlobPathMatcher pathMatcher) {
     this.repo = Preconditions.checkNotNull(repo);
     this.pathMatcher = Preconditions.checkNotNull(pathMatcher);
   }
@@ -98,10 +98,10 @@ final class AddExcludedFilesToIndex {
   private static final class ExcludesFinder extends SimpleFileVisitor<Path> {
 
     private final Path gitDir;
-    private final PathMatcher destinationFiles;
+    private final GlobPathMatcher destinationFiles;
     private final List<String> excluded = new ArrayList<>();
 
-    private ExcludesFinder(Path gitDir, PathMatcher destinationFiles) {
+    private ExcludesFinder(Path gitDir, GlobPathMatcher destinationFiles) {
       this.gitDir = gitDir;
       this.destinationFiles = destinationFiles;
     }
@@ -109,7 +109,8 @@ final class AddExcludedFilesToIndex {
     @Override
     public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
         throws IOException {
-      if (dir.equals(gitDir)) {
+      // Skip directories with no excluded files
+      if (dir.equals(gitDir) || destinationFiles.matchesAllUnder(dir)) {
         return FileVisitResult.SKIP_SUBTREE;
       }
       return FileVisitResult.CONTINUE;
@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.git;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.re2j.Matcher;
+import com.google.re2j.Pattern;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A pool of long-lived {@code git cat-file --batch-check} processes, used for resolving references
+ * and checking the existence of objects without forking a new git process for each lookup.
+ *
+ * <p>Processes are started on demand for a git directory and reused by all the {@link
+ * GitRepository} instances for that directory. Requests are pipelined: all the lookups of a batch
+ * are written before reading the responses. Only a few idle processes are kept, and they are
+ * stopped by {@link #shutdown()} when the {@link GitOptions} of the command are closed. The JVM
+ * shutdown hook is only a fallback for commands that don't close their options.
+ */
+final class CatFileProcessPool {
+
+  private static final Logger logger = Logger.getLogger(CatFileProcessPool.class.getName());
+
+  private static final Pattern OBJECT_INFO = Pattern.compile("([a-f0-9]{40}) ([a-z]+) ([0-9]+)");
+
+  /**
+   * Maximum number of idle processes kept in the pool, for all the repositories.
+   */
+  private static final int MAX_IDLE_PROCESSES = 8;
+
+  /**
+   * Requests of a batch are written before reading any response, so they need to fit in the pipe
+   * buffer. Otherwise both processes could block writing.
+   */
+  private static final int MAX_BATCH_BYTES = 16 * 1024;
+
+  private static final CatFileProcessPool INSTANCE = new CatFileProcessPool();
+
+  static {
+    Runtime.getRuntime().addShutdownHook(new Thread(INSTANCE::shutdown, "cat-file-shutdown"));
+  }
+
+  /**
+   * Information about an object found by {@code git cat-file}.
+   */
+  static final class ObjectInfo {
+
+    private final String sha1;
+    private final String type;
+
+    private ObjectInfo(String sha1, String type) {
+      this.sha1 = sha1;
+      this.type = type;
+    }
+
+    /**
+     * The complete SHA-1 of the object.
+     */
+    String getSha1() {
+      return sha1;
+    }
+
+    /**
+     * The object type: commit, tree, blob or tag.
+     */
+    String getType() {
+      return type;
+    }
+  }
+
+  private final Deque<CatFileProcess> idle = new ArrayDeque<>();
+
+  @VisibleForTesting
+  CatFileProcessPool() {}
+
+  static CatFileProcessPool getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Looks up {@code revisions} in the repository and returns the information of the ones that
+   * exist. Revisions can be anything that {@code git rev-parse} accepts, like SHA-1s, references
+   * or {@code <rev>^{commit}}.
+   *
+   * @throws IOException if the lookup couldn't be done. Callers should fall back to a regular git
+   *     command.
+   */
+  ImmutableMap<String, ObjectInfo> lookup(String gitBinary, Path gitDir,
+      Map<String, String> environment, List<String> revisions) throws IOException {
+    for (String revision : revisions) {
+      Preconditions.checkArgument(revision.indexOf('\n') == -1,
+          "Revision cannot contain new lines: %s", revision);
+    }
+    CatFileProcess process = borrow(gitBinary, gitDir, environment);
+    try {
+      ImmutableMap<String, ObjectInfo> result = process.lookup(revisions);
+      release(process);
+      return result;
+    } catch (IOException | RuntimeException e) {
+      process.close();
+      throw e;
+    }
+  }
+
+  private CatFileProcess borrow(String gitBinary, Path gitDir, Map<String, String> environment)
+      throws IOException {
+    synchronized (idle) {
+      for (Iterator<CatFileProcess> it = idle.iterator(); it.hasNext(); ) {
+        CatFileProcess process = it.next();
+        if (process.isFor(gitBinary, gitDir, environment)) {
+          it.remove();
+          return process;
+        }
+      }
+    }
+    return new CatFileProcess(gitBinary, gitDir, environment);
+  }
+
+  private void release(CatFileProcess process) {
+    CatFileProcess evicted = null;
+    synchronized (idle) {
+      idle.addFirst(process);
+      if (idle.size() > MAX_IDLE_PROCESSES) {
+        evicted = idle.removeLast();
+      }
+    }
+    if (evicted != null) {
+      evicted.close();
+    }
+  }
+
+  /**
+   * Stops all the idle processes. Processes in use go back to the pool when they are released.
+   */
+  void shutdown() {
+    List<CatFileProcess> toClose;
+    synchronized (idle) {
+      toClose = new ArrayList<>(idle);
+      idle.clear();
+    }
+    for (CatFileProcess process : toClose) {
+      process.close();
+    }
+  }
+
+  @VisibleForTesting
+  int idleProcesses() {
+    synchronized (idle) {
+      return idle.size();
+    }
+  }
+
+  private static final class CatFileProcess {
+
+    private final String gitBinary;
+    private final Path gitDir;
+    private final ImmutableMap<String, String> environment;
+    private final Process process;
+    private final Writer stdin;
+    private final BufferedReader stdout;
+
+    private CatFileProcess(String gitBinary, Path gitDir, Map<String, String> environment)
+        throws IOException {
+      this.gitBinary = gitBinary;
+      this.gitDir = gitDir;
+      this.environment = ImmutableMap.copyOf(environment);
+      ProcessBuilder builder = new ProcessBuilder(
+          gitBinary, "--git-dir=" + gitDir, "cat-file", "--batch-check")
+          .directory(gitDir.toFile());
+      builder.environment().clear();
+      builder.environment().putAll(environment);
+      logger.log(Level.INFO, "Starting 'git cat-file --batch-check' for " + gitDir);
+      process = builder.start();
+      stdin = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), UTF_8));
+      stdout = new BufferedReader(new InputStreamReader(process.getInputStream(), UTF_8));
+      Thread stderrLogger = new Thread(this::logStderr, "cat-file-stderr");
+      stderrLogger.setDaemon(true);
+      stderrLogger.start();
+    }
+
+    private boolean isFor(String gitBinary, Path gitDir, Map<String, String> environment) {
+      return this.gitBinary.equals(gitBinary) && this.gitDir.equals(gitDir)
+          && this.environment.equals(environment);
+    }
+
+    private ImmutableMap<String, ObjectInfo> lookup(List<String> revisions) throws IOException {
+      // The same revision could be requested more than once
+      Map<String, ObjectInfo> result = new LinkedHashMap<>();
+      int start = 0;
+      while (start < revisions.size()) {
+        int end = start;
+        int bytes = 0;
+        do {
+          bytes += revisions.get(end).length() + 1;
+          end++;
+        } while (end < revisions.size() && bytes + revisions.get(end).length() < MAX_BATCH_BYTES);
+        List<String> batch = revisions.subList(start, end);
+        for (String revision : batch) {
+          stdin.write(revision);
+          stdin.write('\n');
+        }
+        stdin.flush();
+        for (String revision : batch) {
+          String line = stdout.readLine();
+          if (line == null) {
+            throw new IOException("git cat-file for " + gitDir + " exited unexpectedly");
+          }
+          Matcher matcher = OBJECT_INFO.matcher(line);
+          if (matcher.matches()) {
+            result.put(revision, new ObjectInfo(matcher.group(1), matcher.group(2)));
+          } else if (!line.endsWith(" missing") && !line.endsWith(" ambiguous")) {
+            throw new IOException("Unexpected output from git cat-file: " + line);
+          }
+        }
+        start = end;
+      }
+      return ImmutableMap.copyOf(result);
+    }
+
+    private void logStderr() {
+      try (BufferedReader stderr =
+          new BufferedReader(new InputStreamReader(process.getErrorStream(), UTF_8))) {
+        String line;
+        while ((line = stderr.readLine()) != null) {
+          logger.warning("'git cat-file' STDERR: " + line);
+        }
+      } catch (IOException e) {
+        logger.log(Level.FINE, "Cannot read git cat-file stderr", e);
+      }
+    }
+
+    /**
+     * Closes the input of the process, which makes git exit, and kills it if it doesn't.
+     */
+    private void close() {
+      try {
+        stdin.close();
+        if (!process.waitFor(1, TimeUnit.SECONDS)) {
+          process.destroyForcibly();
+        }
+      } catch (IOException e) {
+        process.destroyForcibly();
+      } catch (InterruptedException e) {
+        process.destroyForcibly();
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
@@ -23,11 +23,14 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.copybara.Change;
 import com.google.copybara.ChangeMessage;
+import com.google.copybara.ChangeVisitable.ChangesVisitor;
+import com.google.copybara.ChangeVisitable.VisitResult;
 import com.google.copybara.RepoException;
 import com.google.copybara.authoring.Author;
 import com.google.copybara.authoring.Authoring;
 import com.google.copybara.git.GitRepository.GitLogEntry;
 import com.google.copybara.git.GitRepository.LogCmd;
+import com.google.copybara.git.GitRepository.LogStream;
 import com.google.copybara.util.Glob;
 import com.google.copybara.util.console.Console;
 import java.util.List;
@@ -60,13 +63,49 @@ class ChangeReader {
   }
 
   ImmutableList<GitChange> run(String refExpression) throws RepoException {
+    // Entries are converted while they are read, so that the raw log is never kept in memory.
+    ImmutableList.Builder<GitChange> result = ImmutableList.builder();
+    try (LogStream stream = logCmd(refExpression).stream()) {
+      GitLogEntry entry;
+      while ((entry = stream.next()) != null) {
+        result.add(toChange(entry));
+      }
+    }
+    return result.build().reverse();
+  }
+
+  /**
+   * Visits the changes of the first-parent history of {@code refExpression}, newest first. The
+   * changes are read from a single 'git log' process in pages of {@code pageSize} commits, and
+   * the process is stopped as soon as {@code visitor} returns {@link VisitResult#TERMINATE}.
+   *
+   * @return false if no change was found
+   */
+  boolean visitChanges(String refExpression, int pageSize, ChangesVisitor visitor)
+      throws RepoException {
+    boolean found = false;
+    try (LogStream stream = logCmd(refExpression).stream()) {
+      ImmutableList<GitLogEntry> page;
+      while (!(page = stream.nextPage(pageSize)).isEmpty()) {
+        found = true;
+        for (GitLogEntry entry : page) {
+          if (visitor.visit(toChange(entry).getChange()) == VisitResult.TERMINATE) {
+            return true;
+          }
+        }
+      }
+    }
+    return found;
+  }
+
+  private LogCmd logCmd(String refExpression) {
     LogCmd logCmd = repository
         .log(refExpression)
         .withPaths(Glob.isEmptyRoot(roots) ? ImmutableList.of() : roots);
     if (limit != -1) {
       logCmd = logCmd.withLimit(limit);
     }
-    return parseChanges(logCmd.includeFiles(true).includeMergeDiff(true).run());
+    return logCmd.includeFiles(true).includeMergeDiff(true);
   }
 
   static final String BRANCH_COMMIT_LOG_HEADING = "-- Branch commit log --";
@@ -100,21 +139,15 @@ class ChangeReader {
             .collect(Collectors.toList()));
   }
 
-  private ImmutableList<GitChange> parseChanges(ImmutableList<GitLogEntry> logEntries)
-      throws RepoException {
-
-    ImmutableList.Builder<GitChange> result = ImmutableList.builder();
-    for (GitLogEntry e : logEntries) {
-      result.add(new GitChange(new Change<>(
-          e.getCommit(),
-          filterAuthor(e.getAuthor())
-          , e.getBody() + branchCommitLog(e.getCommit(), e.getParents()),
-          e.getAuthorDate(),
-          ChangeMessage.parseAllAsLabels(e.getBody()).labelsAsMultimap(),
-          e.getFiles()),
-          e.getParents()));
-    }
-    return result.build().reverse();
+  private GitChange toChange(GitLogEntry e) throws RepoException {
+    return new GitChange(new Change<>(
+        e.getCommit(),
+        filterAuthor(e.getAuthor())
+        , e.getBody() + branchCommitLog(e.getCommit(), e.getParents()),
+        e.getAuthorDate(),
+        ChangeMessage.parseAllAsLabels(e.getBody()).labelsAsMultimap(),
+        e.getFiles()),
+        e.getParents());
   }
 
   private Author filterAuthor(Author author) {
@@ -59,7 +59,10 @@ public class GerritOrigin extends GitOrigin {
 
     ValidationException.checkCondition(!Strings.isNullOrEmpty(reference),
         "Expecting a change number as reference");
-    return GitRepoType.GERRIT.resolveRef(getRepository(), repoUrl, reference, this.generalOptions);
+    synchronized (gitOptions.cachedRepoLock(repoUrl)) {
+      return GitRepoType.GERRIT.resolveRef(getRepository(), repoUrl, reference,
+          this.generalOptions);
+    }
   }
 
   /**
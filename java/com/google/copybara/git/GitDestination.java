@@ -21,9 +21,11 @@ import static com.google.copybara.ChangeMessage.parseMessage;
 import static com.google.copybara.git.LazyGitRepository.memoized;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Joiner;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSetMultimap;
@@ -38,20 +40,25 @@ import com.google.copybara.RepoException;
 import com.google.copybara.Revision;
 import com.google.copybara.TransformResult;
 import com.google.copybara.ValidationException;
-import com.google.copybara.git.ChangeReader.GitChange;
 import com.google.copybara.git.GitRepository.GitLogEntry;
+import com.google.copybara.git.LabelIndex.LabelParser;
 import com.google.copybara.git.GitRepository.LogCmd;
+import com.google.copybara.git.GitRepository.LogStream;
 import com.google.copybara.util.DiffUtil;
 import com.google.copybara.util.Glob;
+import com.google.copybara.util.GlobPathMatcher;
 import com.google.copybara.util.StructuredOutput;
 import com.google.copybara.util.console.Console;
 import java.io.IOException;
-import java.nio.file.PathMatcher;
+import java.nio.file.Path;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 import javax.annotation.Nullable;
 
 /**
@@ -60,6 +67,9 @@ import javax.annotation.Nullable;
 public final class GitDestination implements Destination<GitRevision> {
 
   private static final String ORIGIN_LABEL_SEPARATOR = ": ";
+  // Maximum number of commits matching the label grep that are checked when looking for the last
+  // migrated revision. Grep can return false positives, like comments that mention the label.
+  private static final int MAX_LABEL_GREP_MATCHES = 50;
 
   static class MessageInfo {
 
@@ -181,6 +191,12 @@ public final class GitDestination implements Destination<GitRevision> {
     boolean firstWrite = true;
     final LazyGitRepository localRepo;
     final String localBranch;
+    // Label indexes already loaded, by label index parameters
+    final Map<String, LabelIndex> labelIndexes = new HashMap<>();
+    // Work tree and resulting commit of the previous write, if the index still contains exactly
+    // that tree. Used for staging only the changed files in the next write.
+    @Nullable Path lastWriteWorkTree;
+    @Nullable String lastWriteCommit;
 
     WriterState(LazyGitRepository localRepo, String localBranch) {
       this.localRepo = localRepo;
@@ -245,25 +261,15 @@ public final class GitDestination implements Destination<GitRevision> {
       ChangeReader changeReader =
           ChangeReader.Builder.forDestination(repository, baseConsole)
               .setVerbose(generalOptions.isVerbose())
-              .setLimit(1)
               .build();
 
-      ImmutableList<GitChange> result = changeReader.run(revString);
-      if (result.isEmpty()) {
+      if (!changeReader.visitChanges(
+          revString, destinationOptions.getHistoryPageSize(), visitor)) {
         if (start == null) {
           baseConsole.error("Unable to find HEAD - is the destination repository bare?");
         }
         throw new CannotResolveRevisionException("Cannot find reference " + revString);
       }
-      GitChange current = Iterables.getOnlyElement(result);
-      while (current != null) {
-        if (visitor.visit(current.getChange()) == VisitResult.TERMINATE
-            || current.getParents().isEmpty()) {
-          break;
-        }
-        current =
-            Iterables.getOnlyElement(changeReader.run(current.getParents().get(0).getSha1()));
-      }
     }
 
     /**
@@ -272,9 +278,11 @@ public final class GitDestination implements Destination<GitRevision> {
     private void fetchIfNeeded(GitRepository repo, Console console)
         throws RepoException, ValidationException {
       if (!state.alreadyFetched) {
-        GitRevision revision = fetchFromRemote(console, repo, repoUrl, remoteFetch);
-        if (revision != null) {
-          repo.simpleCommand("branch", state.localBranch, revision.getSha1());
+        synchronized (destinationOptions.localGitRepoLock(repoUrl)) {
+          GitRevision revision = fetchFromRemote(console, repo, repoUrl, remoteFetch);
+          if (revision != null) {
+            repo.simpleCommand("branch", state.localBranch, revision.getSha1());
+          }
         }
         state.alreadyFetched = true;
       }
@@ -296,30 +304,82 @@ public final class GitDestination implements Destination<GitRevision> {
       }
 
       ImmutableSet<String> roots = destinationFiles.roots();
+      ImmutableList<String> paths =
+          Glob.isEmptyRoot(roots) ? ImmutableList.of() : ImmutableList.copyOf(roots);
+      LabelIndex index = labelIndex(gitRepository, startRef, ImmutableList.of(labelName), paths,
+          destinationOptions.lastRevFirstParent, LabelParser.MESSAGE);
+      if (index != null) {
+        String value = index.latestValue(labelName);
+        return value == null ? null : new DestinationStatus(value, ImmutableList.of());
+      }
+
       LogCmd logCmd = gitRepository.log(startRef.getSha1())
           .grep("^" + labelName + ORIGIN_LABEL_SEPARATOR)
           .firstParent(destinationOptions.lastRevFirstParent)
-          .withPaths(Glob.isEmptyRoot(roots) ? ImmutableList.of() : roots);
+          .withPaths(paths);
 
       // 99% of the times it will be the first match. But grep could return a false positive
-      // for a comment that contains labelName. But if entries is empty we know for sure
-      // that the label is not there.
-      ImmutableList<GitLogEntry> entries = logCmd.withLimit(1).run();
-      if (entries.isEmpty()) {
+      // for a comment that contains labelName, so we read the matches one by one and stop git
+      // as soon as we find the label. If we have that many false positives we give up.
+      try (LogStream stream = logCmd.withLimit(MAX_LABEL_GREP_MATCHES).stream()) {
+        GitLogEntry entry;
+        while ((entry = stream.next()) != null) {
+          String value = findLabelValue(labelName, entry);
+          if (value != null) {
+            return new DestinationStatus(value, ImmutableList.of());
+          }
+        }
+      }
+      return null;
+    }
+
+    @Nullable
+    @Override
+    public LabelValueIndex labelValueIndex(ImmutableCollection<String> labels)
+        throws RepoException {
+      GitRepository repository = state.localRepo.get(baseConsole);
+      try {
+        fetchIfNeeded(repository, baseConsole);
+      } catch (ValidationException e) {
+        // visitChanges reports the error
         return null;
       }
+      GitRevision startRef = getLocalBranchRevision(repository);
+      if (startRef == null) {
+        return labelValue -> null;
+      }
+      // Same history as visitChanges
+      LabelIndex index = labelIndex(repository, startRef, ImmutableList.copyOf(labels),
+          ImmutableList.of(), /*firstParent=*/true, LabelParser.ALL_LINES);
+      return index == null ? null : index::findCommit;
+    }
 
-      String value = findLabelValue(labelName, entries);
-      if (value != null) {
-        return new DestinationStatus(value, ImmutableList.of());
+    /**
+     * Returns the index of {@code labels} in the history of the destination up to {@code head},
+     * or null if the history needs to be read instead.
+     */
+    @Nullable
+    private LabelIndex labelIndex(GitRepository repository, GitRevision head,
+        ImmutableList<String> labels, ImmutableList<String> paths, boolean firstParent,
+        LabelParser parser) throws RepoException {
+      if (destinationOptions.noLabelIndex) {
+        return null;
       }
-      // Lets try with the latest matches. If we have that many false positives we give up.
-      entries = logCmd.withLimit(50).run();
-      value = findLabelValue(labelName, entries);
-      if (value != null) {
-        return new DestinationStatus(value, ImmutableList.of());
+      String key = Joiner.on('\n').join(labels, paths, firstParent, parser);
+      try {
+        LabelIndex index = state.labelIndexes.get(key);
+        if (index == null) {
+          index = LabelIndex.open(generalOptions.getDirFactory().getCacheDir("git_label_index"),
+              repository, repoUrl, remoteFetch, labels, paths, firstParent, parser);
+          state.labelIndexes.put(key, index);
+        }
+        index.update(head.getSha1());
+        return index;
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "Cannot use the label index. Reading the history instead.", e);
+        state.labelIndexes.remove(key);
+        return null;
       }
-      return null;
     }
 
     @Nullable
@@ -341,19 +401,23 @@ public final class GitDestination implements Destination<GitRevision> {
     }
 
     @Nullable
-    private String findLabelValue(String labelName, ImmutableList<GitLogEntry> entries) {
-      for (GitLogEntry entry : entries) {
-        List<String> prev = parseMessage(entry.getBody()).labelsAsMultimap().get(labelName);
-        if (!prev.isEmpty()) {
-          return Iterables.getLast(prev);
-        }
-      }
-      return null;
+    private String findLabelValue(String labelName, GitLogEntry entry) {
+      List<String> prev = parseMessage(entry.getBody()).labelsAsMultimap().get(labelName);
+      return prev.isEmpty() ? null : Iterables.getLast(prev);
     }
 
     @Override
     public WriterResult write(TransformResult transformResult, Console console)
         throws ValidationException, RepoException, IOException {
+      // HEAD and the index of the git directory are shared with the other writers of the same
+      // cached repository.
+      synchronized (destinationOptions.localGitRepoLock(repoUrl)) {
+        return writeLocked(transformResult, console);
+      }
+    }
+
+    private WriterResult writeLocked(TransformResult transformResult, Console console)
+        throws ValidationException, RepoException, IOException {
       logger.log(Level.INFO, "Exporting from " + transformResult.getPath() + " to: " + this);
       String baseline = transformResult.getBaseline();
 
@@ -390,20 +454,34 @@ public final class GitDestination implements Destination<GitRevision> {
       }
 
 
-      PathMatcher pathMatcher = destinationFiles.relativeTo(scratchClone.getWorkTree());
-      // Get the submodules before we stage them for deletion with
-      // repo.simpleCommand(add --all)
-      AddExcludedFilesToIndex excludedAdder =
-          new AddExcludedFilesToIndex(scratchClone, pathMatcher);
-      excludedAdder.findSubmodules(console);
-
+      GlobPathMatcher pathMatcher = destinationFiles.relativeTo(scratchClone.getWorkTree());
       GitRepository alternate = scratchClone.withWorkTree(transformResult.getPath());
 
-      console.progress("Git Destination: Adding all files");
-      alternate.add().force().all().run();
-
-      console.progress("Git Destination: Excluding files");
-      excludedAdder.add();
+      if (canStageChangedPaths(scratchClone, transformResult, baseline)) {
+        // The index contains the tree that we wrote from the same work tree, including the
+        // excluded files and submodules, so only the files that changed since need to be staged.
+        // Excluded files keep the destination version that is already in the index.
+        List<String> changedPaths = transformResult.getChangedPaths().stream()
+            .filter(path -> pathMatcher.matches(scratchClone.getWorkTree().resolve(path)))
+            .collect(Collectors.toList());
+        console.progress(String.format("Git Destination: Adding %d changed files",
+            changedPaths.size()));
+        alternate.updateIndex(changedPaths);
+      } else {
+        // Get the submodules before we stage them for deletion with
+        // repo.simpleCommand(add --all)
+        AddExcludedFilesToIndex excludedAdder =
+            new AddExcludedFilesToIndex(scratchClone, pathMatcher);
+        excludedAdder.findSubmodules(console);
+
+        console.progress("Git Destination: Adding all files");
+        alternate.add().force().all().run();
+
+        console.progress("Git Destination: Excluding files");
+        excludedAdder.add();
+      }
+      state.lastWriteWorkTree = null;
+      state.lastWriteCommit = null;
 
       console.progress("Git Destination: Creating a local commit");
       MessageInfo messageInfo = commitGenerator.message(transformResult);
@@ -418,6 +496,11 @@ public final class GitDestination implements Destination<GitRevision> {
           transformResult.getAuthor().toString(),
           transformResult.getTimestamp(),
           commitMessage);
+      // Rebasing or resetting the local repo leaves an index that doesn't match the work tree
+      if (baseline == null && destinationOptions.localRepoPath == null) {
+        state.lastWriteWorkTree = transformResult.getPath();
+        state.lastWriteCommit = alternate.parseRef("HEAD");
+      }
 
       for (GitIntegrateChanges integrate : integrates) {
         integrate.run(alternate, generalOptions, destinationOptions, messageInfo,
@@ -469,6 +552,26 @@ public final class GitDestination implements Destination<GitRevision> {
       return WriterResult.OK;
     }
 
+    /**
+     * Returns true if staging the changed paths of {@code transformResult} is enough for the index
+     * to contain the transformed tree: the previous write was from the same work tree and nothing
+     * modified the index or HEAD since.
+     */
+    private boolean canStageChangedPaths(GitRepository repo, TransformResult transformResult,
+        @Nullable String baseline) throws RepoException {
+      if (transformResult.getChangedPaths() == null || baseline != null
+          || state.lastWriteCommit == null
+          || !transformResult.getPath().equals(state.lastWriteWorkTree)) {
+        return false;
+      }
+      // Integrates could have created more commits
+      try {
+        return state.lastWriteCommit.equals(repo.parseRef("HEAD"));
+      } catch (CannotResolveRevisionException e) {
+        return false;
+      }
+    }
+
     private void updateLocalBranchToBaseline(GitRepository repo, String baseline)
         throws RepoException {
       if (baseline != null && !repo.refExists(baseline)) {
@@ -63,6 +63,13 @@ public final class GitDestinationOptions implements Option {
     return new Author(committerName, committerEmail);
   }
 
+  /**
+   * Number of commits read at a time when walking the destination history.
+   */
+  int getHistoryPageSize() {
+    return gitOptions.historyPageSize;
+  }
+
   @Parameter(names = "--git-destination-url",
       description = "If set, overrides the git destination URL.")
   String url = null;
@@ -97,11 +104,30 @@ public final class GitDestinationOptions implements Option {
           + " used with different push != fetch references.")
   boolean nonFastForwardPush = false;
 
+  @Parameter(names = "--nogit-destination-label-index",
+      description = "Don't use the on-disk index of the labels in the destination history when"
+          + " looking for the last migrated revision or for the destination change of a"
+          + " reference. The history is read every time instead.")
+  boolean noLabelIndex = false;
+
   @Parameter(names = "--git-destination-ignore-integration-errors",
       description = "If an integration error occurs, ignore it and continue without the integrate")
   boolean ignoreIntegrationErrors = false;
 
 
+  /**
+   * Returns the lock for the git directory of {@link #localGitRepo(String)}, that might be shared
+   * with other workflows.
+   */
+  Object localGitRepoLock(String url) {
+    if (Strings.isNullOrEmpty(localRepoPath)) {
+      return gitOptions.cachedRepoLock(url);
+    }
+    // All the destinations use the same repository, whatever their url is
+    return gitOptions.cachedRepoLock(
+        Paths.get(localRepoPath).toAbsolutePath().normalize().toUri().toString());
+  }
+
   /**
    * Returns a non-bare repo. Either because it uses a custom worktree or because it is a user
    * non-bare repo.
@@ -22,9 +22,12 @@ import com.google.common.base.Preconditions;
 import com.google.copybara.GeneralOptions;
 import com.google.copybara.Option;
 import com.google.copybara.RepoException;
+import java.io.Closeable;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.function.Supplier;
 import javax.annotation.Nullable;
 
@@ -32,9 +35,11 @@ import javax.annotation.Nullable;
  * Common arguments for {@link GitDestination}, {@link GitOrigin}, and other Git components.
  */
 @Parameters(separators = "=")
-public class GitOptions implements Option {
+public class GitOptions implements Option, Closeable {
 
   private final Supplier<GeneralOptions> generalOptionsSupplier;
+  // Locks for the cached repositories, by url
+  private final ConcurrentMap<String, Object> cachedRepoLocks = new ConcurrentHashMap<>();
 
   // Not used by git.destination but it will be at some point to make fetches more efficient.
   @Parameter(names = "--git-repo-storage",
@@ -58,6 +63,12 @@ public class GitOptions implements Option {
           + "https://git-scm.com/docs/git-credential-store")
   boolean noCredentialHelperStore = false;
 
+  @Parameter(names = "--git-history-page-size",
+      description = "Number of commits read at a time when walking the history of a repository,"
+          + " for example when looking for a label or the baseline of a change. The history is"
+          + " read from a single 'git log' process that is stopped as soon as the walk ends.")
+  public int historyPageSize = 100;
+
   public GitOptions(Supplier<GeneralOptions> generalOptionsSupplier) {
     this.generalOptionsSupplier = Preconditions.checkNotNull(generalOptionsSupplier);
   }
@@ -79,6 +90,18 @@ public class GitOptions implements Option {
     }
   }
 
+  /**
+   * Returns the lock for the cached repository of {@code url}.
+   *
+   * <p>The git directory of a cached repository, including HEAD, the index and the refs, is shared
+   * by all its users, for example submodules with the same url or migrations run concurrently by
+   * {@code copybara batch}. Fetches, checkouts and other sequences of commands that modify it
+   * should be done while holding this lock.
+   */
+  public final Object cachedRepoLock(String url) {
+    return cachedRepoLocks.computeIfAbsent(Preconditions.checkNotNull(url), u -> new Object());
+  }
+
   /**
    * Create a new initialized repository in the location.
    *
@@ -101,4 +124,12 @@ public class GitOptions implements Option {
     repo.withCredentialHelper("store" + path);
     return repo;
   }
+
+  /**
+   * Stops the idle {@code git cat-file} processes started for the command.
+   */
+  @Override
+  public void close() {
+    CatFileProcessPool.getInstance().shutdown();
+  }
 }
@@ -17,15 +17,18 @@
 package com.google.copybara.git;
 
 import static com.google.common.base.Preconditions.checkNotNull;
-import static com.google.copybara.util.console.Consoles.logLines;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.copybara.CannotResolveRevisionException;
 import com.google.copybara.Change;
 import com.google.copybara.EmptyChangeException;
@@ -38,17 +41,26 @@ import com.google.copybara.authoring.Authoring;
 import com.google.copybara.git.ChangeReader.GitChange;
 import com.google.copybara.git.GitRepository.Submodule;
 import com.google.copybara.git.GitRepository.TreeElement;
-import com.google.copybara.util.BadExitStatusWithOutputException;
-import com.google.copybara.util.CommandOutputWithStatus;
+import com.google.copybara.profiler.Profiler.ProfilerTask;
 import com.google.copybara.util.CommandUtil;
 import com.google.copybara.util.Glob;
+import com.google.copybara.util.LineOutputStream;
 import com.google.copybara.util.console.Console;
 import com.google.devtools.build.lib.shell.Command;
 import com.google.devtools.build.lib.shell.CommandException;
 import java.io.IOException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import javax.annotation.Nullable;
 
 /**
@@ -170,24 +182,86 @@ public class GitOrigin implements Origin<GitRevision> {
       }
     }
 
-    void runCheckoutHook(Path workdir) throws RepoException {
+    /**
+     * Checks out only the files that differ between {@code baseline} and {@code ref}. Not
+     * supported with submodules, checkout hooks or rebasing, since they can modify any file of the
+     * checkout.
+     */
+    @Nullable
+    @Override
+    public ImmutableSet<String> checkoutIncrementally(GitRevision baseline, GitRevision ref,
+        Path workdir) throws RepoException {
+      if (submoduleStrategy != SubmoduleStrategy.NO
+          || !Strings.isNullOrEmpty(gitOriginOptions.originCheckoutHook)
+          || gitOriginOptions.originRebaseRef != null) {
+        return null;
+      }
+      GitRepository repo = getRepository().withWorkTree(workdir);
+      ImmutableMap<String, Boolean> files = repo.diffFiles(baseline.getSha1(), ref.getSha1());
+      List<String> toCheckout = new ArrayList<>();
+      for (Entry<String, Boolean> file : files.entrySet()) {
+        if (file.getValue()) {
+          toCheckout.add(file.getKey());
+        } else {
+          deleteFile(workdir, file.getKey());
+        }
+      }
+      // The index of the repository is shared by all its work trees
+      synchronized (gitOptions.cachedRepoLock(repoUrl)) {
+        repo.forceCheckoutPaths(ref.getSha1(), toCheckout);
+      }
+      return files.keySet();
+    }
+
+    /**
+     * Deletes {@code path} and the directories that become empty, since they wouldn't exist in a
+     * full checkout either.
+     */
+    private static void deleteFile(Path workdir, String path) throws RepoException {
+      Path file = workdir.resolve(path);
       try {
-        CommandOutputWithStatus result = CommandUtil.executeCommand(
+        Files.deleteIfExists(file);
+        for (Path dir = file.getParent(); !dir.equals(workdir) && isEmptyDirectory(dir);
+            dir = dir.getParent()) {
+          Files.delete(dir);
+        }
+      } catch (IOException e) {
+        throw new RepoException("Cannot delete " + path + " from " + workdir, e);
+      }
+    }
+
+    private static boolean isEmptyDirectory(Path dir) throws IOException {
+      if (!Files.isDirectory(dir, LinkOption.NOFOLLOW_LINKS)) {
+        return false;
+      }
+      try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+        return !entries.iterator().hasNext();
+      }
+    }
+
+    void runCheckoutHook(Path workdir) throws RepoException {
+      Console console = generalOptions.console();
+      // The output is shown while the hook runs. Stdout and stderr are read by different threads.
+      try (LineOutputStream stdout = new LineOutputStream(
+              line -> hookLine(console, "git.origin hook (Stdout): ", line));
+          LineOutputStream stderr = new LineOutputStream(
+              line -> hookLine(console, "git.origin hook (Stderr): ", line))) {
+        CommandUtil.executeCommandStreaming(
             new Command(new String[]{gitOriginOptions.originCheckoutHook},
-                generalOptions.getEnvironment(), workdir.toFile()), generalOptions.isVerbose());
-        logLines(generalOptions.console(), "git.origin hook (Stdout): ", result.getStdout());
-        logLines(generalOptions.console(), "git.origin hook (Stderr): ", result.getStderr());
-      } catch (BadExitStatusWithOutputException e) {
-        logLines(generalOptions.console(), "git.origin hook (Stdout): ", e.getOutput().getStdout());
-        logLines(generalOptions.console(), "git.origin hook (Stderr): ", e.getOutput().getStderr());
-        throw new RepoException(
-            "Error executing the git checkout hook: " + gitOriginOptions.originCheckoutHook, e);
+                generalOptions.getEnvironment(), workdir.toFile()),
+            CommandUtil.NO_INPUT, generalOptions.isVerbose(), stdout, stderr);
       } catch (CommandException e) {
         throw new RepoException(
             "Error executing the git checkout hook: " + gitOriginOptions.originCheckoutHook, e);
       }
     }
 
+    private static void hookLine(Console console, String prefix, String line) {
+      synchronized (console) {
+        console.info(prefix + line);
+      }
+    }
+
 
     /**
      * Checks out the repository, and rebases to a ref if necessary.
@@ -200,15 +274,91 @@ public class GitOrigin implements Origin<GitRevision> {
     void checkoutRepo(GitRepository repository, String currentRemoteUrl, Path workdir,
         SubmoduleStrategy submoduleStrategy, GitRevision ref, boolean topLevelCheckout)
         throws RepoException, CannotResolveRevisionException {
-      GitRepository repo = checkout(repository, workdir, ref);
-      if(topLevelCheckout) {
-        maybeRebase(repo, ref, workdir);
+      GitRepository repo;
+      // The index of the repository is shared by all its work trees
+      synchronized (gitOptions.cachedRepoLock(currentRemoteUrl)) {
+        repo = checkout(repository, workdir, ref);
+        if (topLevelCheckout) {
+          maybeRebase(repo, ref, workdir);
+        }
       }
 
       if (submoduleStrategy == SubmoduleStrategy.NO) {
         return;
       }
-      for (Submodule submodule : repo.listSubmodules(currentRemoteUrl)) {
+      SubmoduleStrategy childStrategy = submoduleStrategy == SubmoduleStrategy.RECURSIVE
+          ? SubmoduleStrategy.RECURSIVE
+          : SubmoduleStrategy.NO;
+      ImmutableList<Submodule> submodules =
+          ImmutableList.copyOf(repo.listSubmodules(currentRemoteUrl));
+      // Nested submodules are checked out by the thread of their parent, so that tasks never
+      // wait for other tasks of the same executor.
+      if (!topLevelCheckout || submodules.size() < 2 || gitOriginOptions.submoduleThreads < 2) {
+        for (Submodule submodule : submodules) {
+          checkoutSubmodule(repo, workdir, ref, submodule, childStrategy);
+        }
+        return;
+      }
+      checkoutSubmodulesInParallel(repo, workdir, ref, submodules, childStrategy);
+    }
+
+    /**
+     * Checks out {@code submodules} concurrently, using up to {@code --git-origin-submodule-threads}
+     * threads. All the submodules are checked out even if some of them fail, and the errors are
+     * reported per submodule.
+     */
+    private void checkoutSubmodulesInParallel(GitRepository repo, Path workdir, GitRevision ref,
+        ImmutableList<Submodule> submodules, SubmoduleStrategy childStrategy)
+        throws RepoException, CannotResolveRevisionException {
+      // A new executor for each checkout, so that its threads inherit the current profiler task.
+      ExecutorService executor = Executors.newFixedThreadPool(
+          Math.min(gitOriginOptions.submoduleThreads, submodules.size()),
+          new ThreadFactoryBuilder()
+              .setNameFormat("submodule-checkout-%d")
+              .setDaemon(true)
+              .build());
+      try {
+        List<Future<?>> futures = new ArrayList<>();
+        for (Submodule submodule : submodules) {
+          futures.add(executor.submit(() -> {
+            checkoutSubmodule(repo, workdir, ref, submodule, childStrategy);
+            return null;
+          }));
+        }
+        List<Exception> errors = new ArrayList<>();
+        for (int i = 0; i < futures.size(); i++) {
+          try {
+            futures.get(i).get();
+          } catch (ExecutionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            Submodule submodule = submodules.get(i);
+            generalOptions.console().errorFmt("Cannot checkout submodule %s (%s): %s",
+                submodule.getPath(), submodule.getUrl(), e.getCause().getMessage());
+            errors.add((Exception) e.getCause());
+          }
+        }
+        if (errors.size() == 1) {
+          Exception error = Iterables.getOnlyElement(errors);
+          Throwables.throwIfInstanceOf(error, CannotResolveRevisionException.class);
+          Throwables.throwIfInstanceOf(error, RepoException.class);
+        }
+        if (!errors.isEmpty()) {
+          throw new RepoException(String.format("Cannot checkout %d submodules. First error: %s",
+              errors.size(), errors.get(0).getMessage()), errors.get(0));
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RepoException("Interrupted while checking out submodules", e);
+      } finally {
+        executor.shutdownNow();
+      }
+    }
+
+    private void checkoutSubmodule(GitRepository repo, Path workdir, GitRevision ref,
+        Submodule submodule, SubmoduleStrategy submoduleStrategy)
+        throws RepoException, CannotResolveRevisionException {
+      try (ProfilerTask ignore = generalOptions.profiler().start(
+          "submodule_" + submodule.getPath())) {
         ImmutableList<TreeElement> elements = repo.lsTree(ref, submodule.getPath());
         if (elements.size() != 1) {
           throw new RepoException(String
@@ -218,9 +368,14 @@ public class GitOrigin implements Origin<GitRevision> {
         TreeElement element = Iterables.getOnlyElement(elements);
         Preconditions.checkArgument(element.getPath().equals(submodule.getPath()));
 
-        GitRepository subRepo = gitOptions.cachedBareRepoForUrl(submodule.getUrl());
-        subRepo.fetchSingleRef(submodule.getUrl(), submodule.getBranch());
-        GitRevision submoduleRef = subRepo.resolveReference(element.getRef(), submodule.getName());
+        GitRepository subRepo;
+        GitRevision submoduleRef;
+        // Submodules with the same url share the cached repository
+        synchronized (gitOptions.cachedRepoLock(submodule.getUrl())) {
+          subRepo = gitOptions.cachedBareRepoForUrl(submodule.getUrl());
+          subRepo.fetchSingleRef(submodule.getUrl(), submodule.getBranch());
+          submoduleRef = subRepo.resolveReference(element.getRef(), submodule.getName());
+        }
 
         Path subdir = workdir.resolve(submodule.getPath());
         try {
@@ -230,10 +385,8 @@ public class GitOrigin implements Origin<GitRevision> {
               "Cannot create subdirectory %s for submodule: %s", subdir, submodule));
         }
 
-        checkoutRepo(subRepo, submodule.getUrl(), subdir,
-            submoduleStrategy == SubmoduleStrategy.RECURSIVE
-                ? SubmoduleStrategy.RECURSIVE
-                : SubmoduleStrategy.NO, submoduleRef, /*topLevelCheckout*/ false);
+        checkoutRepo(subRepo, submodule.getUrl(), subdir, submoduleStrategy, submoduleRef,
+            /*topLevelCheckout*/ false);
       }
     }
 
@@ -294,29 +447,10 @@ public class GitOrigin implements Origin<GitRevision> {
     @Override
     public void visitChanges(GitRevision start, ChangesVisitor visitor)
         throws RepoException, CannotResolveRevisionException {
-      ChangeReader queryChanges = changeReaderBuilder()
-          .setLimit(1)
-          .build();
-
-      ImmutableList<GitChange> result = queryChanges.run(start.asString());
-      if (result.isEmpty()) {
+      if (!changeReaderBuilder().build()
+          .visitChanges(start.asString(), gitOptions.historyPageSize, visitor)) {
         throw new CannotResolveRevisionException("Cannot resolve reference " + start.asString());
       }
-      GitChange current = Iterables.getOnlyElement(result);
-      while (current != null) {
-        if (visitor.visit(current.getChange()) == VisitResult.TERMINATE
-            || current.getParents().isEmpty()) {
-          break;
-        }
-        String parentRef = current.getParents().get(0).asString();
-        ImmutableList<GitChange> changes = queryChanges.run(parentRef);
-        if (changes.isEmpty()) {
-          throw new CannotResolveRevisionException(String.format(
-              "'%s' revision cannot be found in the origin. But it is referenced as parent of"
-                  + " revision '%s'", parentRef, current.getChange().getRevision().asString()));
-        }
-        current = Iterables.getOnlyElement(changes);
-      }
     }
   }
 
@@ -340,7 +474,9 @@ public class GitOrigin implements Origin<GitRevision> {
     } else {
       ref = reference;
     }
-    return repoType.resolveRef(getRepository(), repoUrl, ref, generalOptions);
+    synchronized (gitOptions.cachedRepoLock(repoUrl)) {
+      return repoType.resolveRef(getRepository(), repoUrl, ref, generalOptions);
+    }
   }
 
   static ImmutableList<Change<GitRevision>> asChanges(ImmutableList<GitChange> gitChanges) {
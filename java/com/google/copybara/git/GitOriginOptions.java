@@ -37,4 +37,9 @@ public class GitOriginOptions implements Option {
           + " if set. A common use case: importing a Github PR, rebase it to the main branch "
           + "(usually 'master'). Note that, if the repo uses submodules, they won't be rebased.")
   String originRebaseRef = null;
+
+  @Parameter(names = "--git-origin-submodule-threads",
+      description = "Maximum number of submodules of a git origin that are fetched and checked out"
+          + " at the same time.")
+  int submoduleThreads = 8;
 }
@@ -18,6 +18,7 @@ package com.google.copybara.git;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.copybara.util.CommandUtil.executeCommand;
+import static com.google.copybara.util.CommandUtil.executeCommandStreaming;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
@@ -36,6 +37,7 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Range;
 import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
 import com.google.common.net.PercentEscaper;
 import com.google.copybara.CannotResolveRevisionException;
 import com.google.copybara.EmptyChangeException;
@@ -44,19 +46,27 @@ import com.google.copybara.ValidationException;
 import com.google.copybara.authoring.Author;
 import com.google.copybara.authoring.AuthorParser;
 import com.google.copybara.authoring.InvalidAuthorException;
+import com.google.copybara.git.CatFileProcessPool.ObjectInfo;
 import com.google.copybara.git.GitCredential.UserPassword;
 import com.google.copybara.util.BadExitStatusWithOutputException;
 import com.google.copybara.util.CommandOutput;
 import com.google.copybara.util.CommandOutputWithStatus;
 import com.google.copybara.util.CommandUtil;
 import com.google.copybara.util.FileUtil;
+import com.google.copybara.util.LineOutputStream;
+import com.google.copybara.util.RingBufferOutputStream;
 import com.google.devtools.build.lib.events.Location;
 import com.google.devtools.build.lib.shell.Command;
 import com.google.devtools.build.lib.shell.CommandException;
+import com.google.devtools.build.lib.shell.ShellUtils;
 import com.google.devtools.build.lib.syntax.EvalException;
 import com.google.re2j.Matcher;
 import com.google.re2j.Pattern;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
@@ -74,6 +84,7 @@ import java.util.Objects;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.function.Function;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import javax.annotation.CheckReturnValue;
@@ -515,6 +526,34 @@ public class GitRepository {
     return new AddCmd(/*force*/false, /*all*/false, /*files*/ImmutableSet.of());
   }
 
+  /**
+   * Updates the index entries of {@code paths}, relative to the work tree, to match the work tree:
+   * regular files and symlinks are added or updated and the rest of the paths are removed from the
+   * index. The rest of the index is not modified.
+   *
+   * <p>Unlike {@code git add --all}, git doesn't need to stat all the files in the work tree.
+   */
+  public void updateIndex(Iterable<String> paths) throws RepoException {
+    Path workTree = getWorkTree();
+    StringBuilder toAdd = new StringBuilder();
+    StringBuilder toRemove = new StringBuilder();
+    for (String path : paths) {
+      Path file = workTree.resolve(path);
+      boolean exists = Files.isSymbolicLink(file) || Files.isRegularFile(file);
+      // Paths are NUL terminated, so they don't need quoting
+      (exists ? toAdd : toRemove).append(path).append('\0');
+    }
+    if (toRemove.length() > 0) {
+      // --force-remove also works for paths that are directories now
+      gitWithInput(toRemove.toString().getBytes(StandardCharsets.UTF_8),
+          ImmutableList.of("update-index", "-z", "--force-remove", "--stdin"));
+    }
+    if (toAdd.length() > 0) {
+      gitWithInput(toAdd.toString().getBytes(StandardCharsets.UTF_8),
+          ImmutableList.of("update-index", "-z", "--add", "--stdin"));
+    }
+  }
+
   // TODO(malcon): Refactor. See bellow.
   String getConfigField(String field) throws RepoException {
     return getConfigField(field, /*configFile=*/null);
@@ -548,6 +587,17 @@ public class GitRepository {
    * Resolves a git reference to the SHA-1 reference
    */
   public String parseRef(String ref) throws RepoException, CannotResolveRevisionException {
+    if (ref.indexOf('\n') == -1) {
+      try {
+        String sha1 = lookupObject(ref + "^{commit}");
+        if (sha1 == null) {
+          throw new CannotResolveRevisionException("Cannot find reference '" + ref + "'");
+        }
+        return sha1;
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "Cannot resolve '" + ref + "' using git cat-file", e);
+      }
+    }
     // Runs rev-list on the reference and remove the extra newline from the output.
     CommandOutputWithStatus result = gitAllowNonZeroExit(
         CommandUtil.NO_INPUT, ImmutableList.of("rev-list", "-1", ref, "--"));
@@ -559,6 +609,22 @@ public class GitRepository {
     return sha1;
   }
 
+  /**
+   * Returns true if {@code ancestor} is an ancestor of {@code commit} or the same commit.
+   */
+  boolean isAncestor(String ancestor, String commit) throws RepoException {
+    CommandOutputWithStatus output = gitAllowNonZeroExit(CommandUtil.NO_INPUT,
+        ImmutableList.of("merge-base", "--is-ancestor", ancestor, commit));
+    if (output.getTerminationStatus().success()) {
+      return true;
+    }
+    if (output.getTerminationStatus().getExitCode() == 1) {
+      return false;
+    }
+    throw new RepoException(String.format("Cannot check if %s is an ancestor of %s: %s",
+        ancestor, commit, output.getStderr()));
+  }
+
   public boolean refExists(String ref) throws RepoException {
     try {
       parseRef(ref);
@@ -591,6 +657,48 @@ public class GitRepository {
     return simpleCommand("checkout", "-q", "-f", checkNotNull(ref));
   }
 
+  /**
+   * Checks out {@code paths} from {@code ref} into the work tree, overwriting the existing files.
+   * The rest of the work tree is not modified.
+   */
+  public void forceCheckoutPaths(String ref, Collection<String> paths) throws RepoException {
+    for (List<String> batch : Iterables.partition(paths, MAX_PATHS_PER_COMMAND)) {
+      List<String> params = Lists.newArrayList(
+          "--literal-pathspecs", "checkout", "-q", "-f", checkNotNull(ref), "--");
+      params.addAll(batch);
+      simpleCommand(params.toArray(new String[0]));
+    }
+  }
+
+  /**
+   * Returns the paths of the files that are different between {@code from} and {@code to}, mapped
+   * to true if the file exists in {@code to} or false if it was deleted.
+   */
+  public ImmutableMap<String, Boolean> diffFiles(String from, String to) throws RepoException {
+    ImmutableMap.Builder<String, Boolean> result = ImmutableMap.builder();
+    // Alternates status and path fields
+    String[] status = new String[1];
+    try (LineOutputStream fields = new LineOutputStream('\0', field -> {
+      if (field.isEmpty()) {
+        return;
+      }
+      if (status[0] == null) {
+        status[0] = field;
+      } else {
+        result.put(field, !status[0].equals("D"));
+        status[0] = null;
+      }
+    })) {
+      gitStreaming(fields, "diff-tree", "-r", "-z", "--no-renames", "--name-status",
+          checkNotNull(from), checkNotNull(to));
+    }
+    if (status[0] != null) {
+      throw new RepoException(
+          "Unexpected format for diff-tree output. Missing path for status: " + status[0]);
+    }
+    return result.build();
+  }
+
   // DateTimeFormatter.ISO_OFFSET_DATE_TIME might include subseconds, but Git's ISO8601 format does
   // not deal with subseconds (see https://git-scm.com/docs/git-commit#git-commit-ISO8601).
   // We still want to stick to the default ISO format in Git, but don't add the subseconds.
@@ -599,6 +707,8 @@ public class GitRepository {
   // The effective bytes that can be used for command-line arguments is ~128k. Setting an arbitrary
   // max for the description of 64k
   private static final int ARBITRARY_MAX_ARG_SIZE = 64_000;
+  // Keeps the command line of the commands that receive paths far from the arguments limit.
+  private static final int MAX_PATHS_PER_COMMAND = 1_000;
 
   public void commit(String author, ZonedDateTime timestamp, String message)
       throws RepoException, ValidationException {
@@ -652,8 +762,14 @@ public class GitRepository {
    * Check if staging is empty. That means that a commit would fail with EmptyCommitException.
    */
   private boolean isEmptyStaging() throws RepoException {
-    CommandOutput status = simpleCommand("diff", "--staged", "--stat");
-    return status.getStdout().trim().isEmpty();
+    // Exits with 1 if there are differences, without computing the diff of all the files
+    CommandOutputWithStatus output = gitAllowNonZeroExit(CommandUtil.NO_INPUT,
+        ImmutableList.of("diff", "--staged", "--quiet"));
+    int exitCode = output.getTerminationStatus().getExitCode();
+    if (exitCode != 0 && exitCode != 1) {
+      throw throwUnknownGitError(output, ImmutableList.of("diff", "--staged", "--quiet"));
+    }
+    return exitCode == 0;
   }
 
   public List<StatusFile> status() throws RepoException {
@@ -736,14 +852,16 @@ public class GitRepository {
 
   ImmutableList<TreeElement> lsTree(GitRevision reference, String treeish) throws RepoException {
     ImmutableList.Builder<TreeElement> result = ImmutableList.builder();
-    String stdout = simpleCommand("ls-tree", reference.getSha1(), "--", treeish).getStdout();
-    for (String line : Splitter.on('\n').split(stdout)) {
+    List<String> unexpected = new ArrayList<>();
+    try (LineOutputStream lines = new LineOutputStream(line -> {
       if (line.isEmpty()) {
-        continue;
+        return;
       }
       Matcher matcher = LS_TREE_ELEMENT.matcher(line);
       if (!matcher.matches()) {
-        throw new RepoException("Unexpected format for ls-tree output: " + line);
+        // Thrown once all the output is read
+        unexpected.add(line);
+        return;
       }
       // We ignore the mode for now
       GitObjectType objectType = GitObjectType.valueOf(matcher.group(2).toUpperCase());
@@ -753,6 +871,11 @@ public class GitRepository {
           .replace("\\\\", "\\").replace("\\t", "\t").replace("\\n", "\n");
 
       result.add(new TreeElement(objectType, sha1, path));
+    })) {
+      gitStreaming(lines, "ls-tree", reference.getSha1(), "--", treeish);
+    }
+    if (!unexpected.isEmpty()) {
+      throw new RepoException("Unexpected format for ls-tree output: " + unexpected.get(0));
     }
     return result.build();
   }
@@ -887,21 +1010,89 @@ public class GitRepository {
       return executeGit(cwd, params, environment, verbose);
     } catch (BadExitStatusWithOutputException e) {
       CommandOutputWithStatus output = e.getOutput();
+      throw gitError(output.getStderr(), output.getTerminationStatus().getExitCode(), params);
+    } catch (CommandException e) {
+      throw new RepoException("Error executing 'git': " + e.getMessage(), e);
+    }
+  }
 
-      for (Pattern error : REF_NOT_FOUND_ERRORS) {
-        Matcher matcher = error.matcher(output.getStderr());
-        if (matcher.find()) {
-          throw new RepoException(
-              "Cannot find reference '" + matcher.group(1) + "'");
-        }
-      }
+  /**
+   * Like {@link #git(Path, Iterable)}, but writes {@code stdin} to the standard input of git.
+   */
+  private CommandOutput gitWithInput(byte[] stdin, Iterable<String> params)
+      throws RepoException {
+    List<String> gitParams = addGitDirAndWorkTreeParams(params);
+    List<String> allParams = new ArrayList<>(gitParams.size() + 1);
+    allParams.add(resolveGitBinary(environment));
+    allParams.addAll(gitParams);
+    try {
+      return executeCommand(new Command(
+              Iterables.toArray(allParams, String.class), environment, getCwd().toFile()),
+          stdin, verbose);
+    } catch (BadExitStatusWithOutputException e) {
+      CommandOutputWithStatus output = e.getOutput();
+      throw gitError(output.getStderr(), output.getTerminationStatus().getExitCode(), gitParams);
+    } catch (CommandException e) {
+      throw new RepoException("Error executing 'git': " + e.getMessage(), e);
+    }
+  }
 
-      throw throwUnknownGitError(output, params);
+  /**
+   * Executes git with {@code argv}, writing the standard output to {@code stdout} while git
+   * produces it instead of collecting it in memory.
+   */
+  private void gitStreaming(OutputStream stdout, String... argv) throws RepoException {
+    List<String> params = addGitDirAndWorkTreeParams(Arrays.asList(argv));
+    List<String> allParams = new ArrayList<>(params.size() + 1);
+    allParams.add(resolveGitBinary(environment));
+    allParams.addAll(params);
+    try {
+      executeCommandStreaming(new Command(
+              Iterables.toArray(allParams, String.class), environment, getCwd().toFile()),
+          CommandUtil.NO_INPUT, verbose, stdout, ByteStreams.nullOutputStream());
+    } catch (BadExitStatusWithOutputException e) {
+      CommandOutputWithStatus output = e.getOutput();
+      throw gitError(output.getStderr(), output.getTerminationStatus().getExitCode(), params);
     } catch (CommandException e) {
       throw new RepoException("Error executing 'git': " + e.getMessage(), e);
     }
   }
 
+  /**
+   * Starts git with {@code params} without waiting for it to finish, for commands whose output is
+   * consumed while it is produced.
+   */
+  private Process startGit(List<String> params) throws RepoException {
+    List<String> allParams = new ArrayList<>(params.size() + 1);
+    allParams.add(resolveGitBinary(environment));
+    allParams.addAll(params);
+    logger.log(Level.INFO, "Executing [" + ShellUtils.prettyPrintArgv(allParams) + "]");
+    ProcessBuilder builder = new ProcessBuilder(allParams).directory(getCwd().toFile());
+    builder.environment().clear();
+    builder.environment().putAll(environment);
+    try {
+      return builder.start();
+    } catch (IOException e) {
+      throw new RepoException("Error executing 'git': " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Creates the exception for a git command that failed with {@code exitCode}.
+   */
+  private static RepoException gitError(String stderr, int exitCode, Iterable<String> params) {
+    for (Pattern error : REF_NOT_FOUND_ERRORS) {
+      Matcher matcher = error.matcher(stderr);
+      if (matcher.find()) {
+        return new RepoException("Cannot find reference '" + matcher.group(1) + "'");
+      }
+    }
+    return new RepoException(
+        String.format(
+            "Error executing 'git %s'(exit code %d). Stderr: %s\n",
+            Joiner.on(' ').join(params), exitCode, stderr));
+  }
+
   private RepoException throwUnknownGitError(
       CommandOutputWithStatus output, Iterable<String> params) throws RepoException {
     throw new RepoException(
@@ -1002,6 +1193,11 @@ public class GitRepository {
    * Checks if a SHA-1 object exist in the the repository
    */
   private boolean checkSha1Exists(String reference) throws RepoException {
+    try {
+      return lookupObject(reference) != null;
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Cannot look up '" + reference + "' using git cat-file", e);
+    }
     ImmutableList<String> params = ImmutableList.of("cat-file", "-e", reference);
     CommandOutputWithStatus output = gitAllowNonZeroExit(CommandUtil.NO_INPUT, params);
     if (output.getTerminationStatus().success()) {
@@ -1013,6 +1209,22 @@ public class GitRepository {
     throw throwUnknownGitError(output, params);
   }
 
+  /**
+   * Returns the complete SHA-1 of the object that {@code revision} resolves to, or null if it
+   * doesn't exist. Uses a long-lived {@code git cat-file} process shared by all the instances for
+   * this repository, instead of forking git for each lookup.
+   *
+   * @throws IOException if the process cannot be used. Callers should fall back to a regular git
+   *     command.
+   */
+  @Nullable
+  private String lookupObject(String revision) throws IOException {
+    ObjectInfo info = CatFileProcessPool.getInstance()
+        .lookup(resolveGitBinary(environment), gitDir, environment, ImmutableList.of(revision))
+        .get(revision);
+    return info == null ? null : info.getSha1();
+  }
+
   GitRevision commitTree(String message, String tree, List<GitRevision> parents)
       throws RepoException {
     ImmutableList.Builder<String> args = ImmutableList.<String>builder().add("commit-tree", tree);
@@ -1289,7 +1501,7 @@ public class GitRepository {
     private static final String BEGIN_BODY = "begin_body";
     private static final String END_BODY = "end_body";
     private static final String COMMIT_SEPARATOR = "\u0001copybara\u0001";
-    private static final Pattern UNINDENT = Pattern.compile("\n    ");
+    private static final String INDENT = "    ";
     private static final String GROUP = "--\n";
     private final int limit;
     private final ImmutableCollection<String> paths;
@@ -1402,6 +1614,27 @@ public class GitRepository {
      * Run 'git log' and returns zero or more {@link GitLogEntry}.
      */
     public ImmutableList<GitLogEntry> run() throws RepoException {
+      ImmutableList.Builder<GitLogEntry> commits = ImmutableList.builder();
+      try (LogStream stream = stream()) {
+        GitLogEntry entry;
+        while ((entry = stream.next()) != null) {
+          commits.add(entry);
+        }
+      }
+      return commits.build();
+    }
+
+    /**
+     * Runs 'git log' and returns a stream of {@link GitLogEntry}s that are parsed while git
+     * produces them, so that only one entry at a time is kept in memory. The stream needs to be
+     * closed, which stops git if not all the entries were read.
+     */
+    LogStream stream() throws RepoException {
+      List<String> params = repo.addGitDirAndWorkTreeParams(createCommand());
+      return new LogStream(this, params, repo.startGit(params));
+    }
+
+    private List<String> createCommand() {
       List<String> cmd = Lists.newArrayList("log", "--no-color", createFormat(includeBody));
 
       if (limit > 0) {
@@ -1433,66 +1666,7 @@ public class GitRepository {
         cmd.add("--");
         cmd.addAll(paths);
       }
-
-      CommandOutput output = repo.simpleCommand(cmd.toArray(new String[cmd.size()]));
-      return parseLog(output.getStdout(), includeBody);
-    }
-
-    private ImmutableList<GitLogEntry> parseLog(String log, boolean includeBody)
-        throws RepoException {
-      // No changes. We cannot know until we run git log since fromRef can be null (HEAD)
-      if (log.isEmpty()) {
-        return ImmutableList.of();
-      }
-
-      ImmutableList.Builder<GitLogEntry> commits = ImmutableList.builder();
-      for (String msg : Splitter.on("\n" + COMMIT_SEPARATOR).
-          split(log.substring(COMMIT_SEPARATOR.length()))) {
-
-        List<String> groups = Splitter.on("\n" + GROUP).splitToList(msg);
-
-        Map<String, String> fields = Splitter.on("\n")
-            .withKeyValueSeparator(Splitter.on("=").limit(2))
-            .split(groups.get(0));
-
-        String body = null;
-        if (includeBody) {
-          body = UNINDENT.matcher(groups.get(1)).replaceAll("\n");
-          body = body.substring(BEGIN_BODY.length() + 1, body.length() - END_BODY.length() - 1);
-          // Copybara assumes \n as a separator in many places.
-          body = body.replace("\r\n", "\n");
-        }
-
-        ImmutableSet<String> files = includeStat
-            ? ImmutableSet.copyOf(Splitter.on("\n").omitEmptyStrings().split(groups.get(2)))
-            : null;
-
-        ImmutableList.Builder<GitRevision> parents = ImmutableList.builder();
-        for (String parent : Splitter.on(" ").omitEmptyStrings()
-            .split(getField(fields, PARENTS_FIELD))) {
-          parents.add(repo.createReferenceFromCompleteSha1(parent));
-        }
-
-        String tree = getField(fields, TREE_FIELD);
-        String commit = getField(fields, COMMIT_FIELD);
-        try {
-          commits.add(new GitLogEntry(
-              repo.createReferenceFromCompleteSha1(commit), parents.build(),
-              tree,
-              AuthorParser.parse(getField(fields, AUTHOR_FIELD)),
-              AuthorParser.parse(getField(fields, COMMITTER_FIELD)),
-              ZonedDateTime.parse(getField(fields, AUTHOR_DATE_FIELD)),
-              ZonedDateTime.parse(getField(fields, COMMITTER_DATE)),
-              body, files));
-        } catch (InvalidAuthorException e) {
-          throw new RepoException("Error in commit '" + commit + "'. Invalid author.", e);
-        }
-      }
-      return commits.build();
-    }
-
-    private String getField(Map<String, String> fields, String field) {
-      return Preconditions.checkNotNull(fields.get(field), "%s not present", field);
+      return cmd;
     }
 
     /**
@@ -1518,6 +1692,294 @@ public class GitRepository {
     }
   }
 
+  /**
+   * A stream of the entries of a 'git log' command, that are parsed while git produces them.
+   * Closing the stream stops git if it is still running.
+   *
+   * <p>The output is parsed line by line, in the format produced by {@link LogCmd}. Only the
+   * current line and the entry being parsed are kept in memory.
+   */
+  static final class LogStream implements AutoCloseable {
+
+    private static final String GROUP_LINE = LogCmd.GROUP.trim();
+
+    private final LogCmd cmd;
+    private final List<String> params;
+    private final Process process;
+    private final Reader stdout;
+    private final RingBufferOutputStream stderr =
+        new RingBufferOutputStream(CommandUtil.MAX_KEPT_OUTPUT_BYTES);
+    private final Thread stderrReader;
+    private final char[] chunk = new char[8192];
+    private int chunkPos;
+    private int chunkLen;
+    // The current line, without the new line character
+    private final StringBuilder line = new StringBuilder();
+    private final StringBuilder body = new StringBuilder();
+    private boolean started;
+    private boolean hasLine;
+    private boolean finished;
+
+    private LogStream(LogCmd cmd, List<String> params, Process process) {
+      this.cmd = cmd;
+      this.params = params;
+      this.process = process;
+      this.stdout = new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8);
+      this.stderrReader = new Thread(() -> {
+        try (InputStream in = process.getErrorStream()) {
+          ByteStreams.copy(in, stderr);
+        } catch (IOException e) {
+          logger.log(Level.WARNING, "Cannot read the stderr of git log", e);
+        }
+      }, "git-log-stderr");
+      stderrReader.setDaemon(true);
+      stderrReader.start();
+    }
+
+    /**
+     * Returns the next entry, or null if there are no more entries.
+     */
+    @Nullable
+    GitLogEntry next() throws RepoException {
+      if (!started) {
+        started = true;
+        hasLine = readLine();
+      }
+      if (!hasLine) {
+        // No changes. We cannot know until we run git log since fromRef can be null (HEAD)
+        if (!finished) {
+          waitForExit();
+        }
+        return null;
+      }
+      if (!lineStartsWith(LogCmd.COMMIT_SEPARATOR)) {
+        throw unexpectedOutput();
+      }
+
+      String commit = null;
+      String parents = null;
+      String tree = null;
+      String author = null;
+      String authorDate = null;
+      String committer = null;
+      String committerDate = null;
+      int offset = LogCmd.COMMIT_SEPARATOR.length();
+      while (!lineEquals(GROUP_LINE)) {
+        int equals = line.indexOf("=", offset);
+        if (equals == -1) {
+          throw unexpectedOutput();
+        }
+        String value = line.substring(equals + 1);
+        switch (line.substring(offset, equals)) {
+          case LogCmd.COMMIT_FIELD:
+            commit = value;
+            break;
+          case LogCmd.PARENTS_FIELD:
+            parents = value;
+            break;
+          case LogCmd.TREE_FIELD:
+            tree = value;
+            break;
+          case LogCmd.AUTHOR_FIELD:
+            author = value;
+            break;
+          case LogCmd.AUTHOR_DATE_FIELD:
+            authorDate = value;
+            break;
+          case LogCmd.COMMITTER_FIELD:
+            committer = value;
+            break;
+          case LogCmd.COMMITTER_DATE:
+            committerDate = value;
+            break;
+          default:
+            throw unexpectedOutput();
+        }
+        offset = 0;
+        nextLine();
+      }
+
+      nextLine();
+      String message = null;
+      if (cmd.includeBody) {
+        if (!lineEquals(LogCmd.BEGIN_BODY)) {
+          throw unexpectedOutput();
+        }
+        message = readBody();
+      }
+      // The line after the body (or the empty line in its place) is the end of the group
+      nextLine();
+      if (!lineEquals(GROUP_LINE)) {
+        throw unexpectedOutput();
+      }
+
+      ImmutableSet.Builder<String> files = ImmutableSet.builder();
+      while ((hasLine = readLine()) && !lineStartsWith(LogCmd.COMMIT_SEPARATOR)) {
+        if (line.length() > 0) {
+          files.add(line.toString());
+        }
+      }
+
+      ImmutableList.Builder<GitRevision> parentRevisions = ImmutableList.builder();
+      for (String parent : Splitter.on(" ").omitEmptyStrings()
+          .split(checkField(parents, LogCmd.PARENTS_FIELD))) {
+        parentRevisions.add(cmd.repo.createReferenceFromCompleteSha1(parent));
+      }
+      checkField(commit, LogCmd.COMMIT_FIELD);
+      try {
+        return new GitLogEntry(
+            cmd.repo.createReferenceFromCompleteSha1(commit), parentRevisions.build(),
+            checkField(tree, LogCmd.TREE_FIELD),
+            AuthorParser.parse(checkField(author, LogCmd.AUTHOR_FIELD)),
+            AuthorParser.parse(checkField(committer, LogCmd.COMMITTER_FIELD)),
+            ZonedDateTime.parse(checkField(authorDate, LogCmd.AUTHOR_DATE_FIELD)),
+            ZonedDateTime.parse(checkField(committerDate, LogCmd.COMMITTER_DATE)),
+            message, cmd.includeStat ? files.build() : null);
+      } catch (InvalidAuthorException e) {
+        throw new RepoException("Error in commit '" + commit + "'. Invalid author.", e);
+      }
+    }
+
+    /**
+     * Returns up to {@code pageSize} entries. The result is empty if there are no more entries.
+     */
+    ImmutableList<GitLogEntry> nextPage(int pageSize) throws RepoException {
+      Preconditions.checkArgument(pageSize > 0);
+      ImmutableList.Builder<GitLogEntry> page = ImmutableList.builder();
+      for (int i = 0; i < pageSize; i++) {
+        GitLogEntry entry = next();
+        if (entry == null) {
+          break;
+        }
+        page.add(entry);
+      }
+      return page.build();
+    }
+
+    /**
+     * Reads the lines of the body until {@link LogCmd#END_BODY}, removing the indentation that
+     * protects the body from being confused with the rest of the output.
+     */
+    private String readBody() throws RepoException {
+      body.setLength(0);
+      nextLine();
+      boolean first = true;
+      while (!lineEquals(LogCmd.END_BODY)) {
+        if (!first) {
+          // Copybara assumes \n as a separator in many places.
+          int last = body.length() - 1;
+          if (last >= 0 && body.charAt(last) == '\r') {
+            body.setLength(last);
+          }
+          body.append('\n');
+        }
+        first = false;
+        body.append(line, lineStartsWith(LogCmd.INDENT) ? LogCmd.INDENT.length() : 0,
+            line.length());
+        nextLine();
+      }
+      return body.toString();
+    }
+
+    private void nextLine() throws RepoException {
+      if (!readLine()) {
+        if (!finished) {
+          waitForExit();
+        }
+        throw unexpectedOutput();
+      }
+    }
+
+    /**
+     * Reads the next line into {@link #line}. Returns false if there are no more lines.
+     */
+    private boolean readLine() throws RepoException {
+      line.setLength(0);
+      while (true) {
+        if (chunkPos == chunkLen) {
+          int read;
+          try {
+            read = finished ? -1 : stdout.read(chunk);
+          } catch (IOException e) {
+            throw new RepoException("Error reading the output of git log", e);
+          }
+          if (read == -1) {
+            chunkPos = 0;
+            chunkLen = 0;
+            return line.length() > 0;
+          }
+          chunkPos = 0;
+          chunkLen = read;
+        }
+        for (int i = chunkPos; i < chunkLen; i++) {
+          if (chunk[i] == '\n') {
+            line.append(chunk, chunkPos, i - chunkPos);
+            chunkPos = i + 1;
+            return true;
+          }
+        }
+        line.append(chunk, chunkPos, chunkLen - chunkPos);
+        chunkPos = chunkLen;
+      }
+    }
+
+    private boolean lineStartsWith(String prefix) {
+      if (line.length() < prefix.length()) {
+        return false;
+      }
+      for (int i = 0; i < prefix.length(); i++) {
+        if (line.charAt(i) != prefix.charAt(i)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private boolean lineEquals(String value) {
+      return line.length() == value.length() && lineStartsWith(value);
+    }
+
+    private static String checkField(@Nullable String value, String field) {
+      return Preconditions.checkNotNull(value, "%s not present", field);
+    }
+
+    private RepoException unexpectedOutput() {
+      return new RepoException(
+          String.format("Unexpected output from 'git %s': '%s'", Joiner.on(' ').join(params),
+              line));
+    }
+
+    private void waitForExit() throws RepoException {
+      finished = true;
+      try {
+        int exitCode = process.waitFor();
+        stderrReader.join();
+        if (exitCode != 0) {
+          throw gitError(stderr.toString(), exitCode, params);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RepoException("Interrupted while waiting for git log", e);
+      }
+    }
+
+    /**
+     * Stops git if the output wasn't completely read.
+     */
+    @Override
+    public void close() {
+      if (!finished) {
+        finished = true;
+        process.destroy();
+      }
+      try {
+        stdout.close();
+      } catch (IOException e) {
+        logger.log(Level.FINE, "Cannot close the output of git log", e);
+      }
+    }
+  }
+
   /**
    * An object that represent a commit as returned by 'git log'.
    */
@@ -22,17 +22,29 @@ import com.google.common.base.Preconditions;
 import com.google.copybara.GeneralOptions;
 import com.google.copybara.Option;
 import com.google.copybara.RepoException;
+import com.google.copybara.git.github_api.GitHubApiCache;
+import com.google.copybara.git.github_api.GitHubApiTransport;
 import com.google.copybara.git.github_api.GitHubApiTransportImpl;
 import com.google.copybara.git.github_api.GithubApi;
+import java.io.IOException;
 import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
 
 /**
  * Options related to GitHub
  */
 public class GithubOptions implements Option {
 
+  private static final Logger logger = Logger.getLogger(GithubOptions.class.getName());
+
+  // Maximum size of the GitHub API responses cached on disk
+  private static final long CACHE_MAX_BYTES = 50 * 1024 * 1024;
+
   private final Supplier<GeneralOptions> generalOptionsSupplier;
   private final GitOptions gitOptions;
+  @Nullable private GitHubApiTransport transport;
 
   public GithubOptions(Supplier<GeneralOptions> generalOptionsSupplier, GitOptions gitOptions) {
     this.generalOptionsSupplier = Preconditions.checkNotNull(generalOptionsSupplier);
@@ -40,14 +52,36 @@ public class GithubOptions implements Option {
   }
 
   public GithubApi getApi() throws RepoException {
-    GitRepository repo = gitOptions.cachedBareRepoForUrl("just_for_github_api");
+    return new GithubApi(getTransport(), generalOptionsSupplier.get().profiler());
+  }
+
+  /**
+   * Returns the transport shared by all the API calls of the process, so that the credentials and
+   * the connections are reused.
+   */
+  private synchronized GitHubApiTransport getTransport() throws RepoException {
+    if (transport == null) {
+      GitRepository repo = gitOptions.cachedBareRepoForUrl("just_for_github_api");
+
+      String storePath = gitOptions.getCredentialHelperStorePath();
+      if (storePath == null) {
+        storePath = "~/.git-credentials";
+      }
+      transport = new GitHubApiTransportImpl(repo, getHttpTransport(), storePath, openCache());
+    }
+    return transport;
+  }
 
-    String storePath = gitOptions.getCredentialHelperStorePath();
-    if (storePath == null) {
-      storePath = "~/.git-credentials";
+  @Nullable
+  private GitHubApiCache openCache() {
+    try {
+      return GitHubApiCache.open(
+          generalOptionsSupplier.get().getDirFactory().getCacheDir("github_api"),
+          CACHE_MAX_BYTES);
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Cannot open the GitHub API cache. Not using it", e);
+      return null;
     }
-    return new GithubApi(new GitHubApiTransportImpl(repo, getHttpTransport(), storePath),
-        generalOptionsSupplier.get().profiler());
   }
 
   protected HttpTransport getHttpTransport() {
@@ -154,22 +154,26 @@ public class GithubPROrigin implements Origin<GitRevision> {
     // latency.
     console.progressFmt("Fetching Pull Request %d and branch '%s'",
         prNumber, prData.getBase().getRef());
-    try {
-      getRepository().fetch(asGithubUrl(project),/*prune=*/false,/*force=*/true,
-          ImmutableList.of(stableRef + ":PR_HEAD", prData.getBase().getRef() + ":PR_BASE_BRANCH"));
-    } catch (CannotResolveRevisionException e) {
-      if (useMerge) {
-        throw new CannotResolveRevisionException(
-            String.format("Cannot find a merge reference for Pull Request %d."
-                + " It might have a conflict with head.", prNumber), e);
-      } else {
-        throw new CannotResolveRevisionException(
-            String.format("Cannot find Pull Request %d.", prNumber), e);
+    GitRevision gitRevision;
+    // PR_HEAD and PR_BASE_BRANCH are shared by all the users of the cached repository
+    synchronized (gitOptions.cachedRepoLock(url)) {
+      try {
+        getRepository().fetch(asGithubUrl(project),/*prune=*/false,/*force=*/true,
+            ImmutableList.of(stableRef + ":PR_HEAD",
+                prData.getBase().getRef() + ":PR_BASE_BRANCH"));
+      } catch (CannotResolveRevisionException e) {
+        if (useMerge) {
+          throw new CannotResolveRevisionException(
+              String.format("Cannot find a merge reference for Pull Request %d."
+                  + " It might have a conflict with head.", prNumber), e);
+        } else {
+          throw new CannotResolveRevisionException(
+              String.format("Cannot find Pull Request %d.", prNumber), e);
+        }
       }
+      gitRevision = getRepository().resolveReference("PR_HEAD", /*contextRef=*/null);
     }
 
-    GitRevision gitRevision = getRepository().resolveReference("PR_HEAD", /*contextRef=*/null);
-
     String integrateLabel = new GithubPRIntegrateLabel(getRepository(), generalOptions,
         project, prNumber,
         prData.getHead().getLabel(), gitRevision.getSha1()).toString();
@@ -35,6 +35,7 @@ import com.google.copybara.git.GitDestination.WriterImpl;
 import com.google.copybara.git.GitDestination.WriterState;
 import com.google.copybara.git.github_api.CreatePullRequest;
 import com.google.copybara.git.github_api.GithubApi;
+import com.google.copybara.git.github_api.PageIterator;
 import com.google.copybara.git.github_api.PullRequest;
 import com.google.copybara.util.Glob;
 import com.google.copybara.util.console.Console;
@@ -130,7 +131,8 @@ public class GithubPrDestination implements Destination<GitRevision> {
         }
 
         GithubApi api = githubOptions.getApi();
-        for (PullRequest pr : api.getPullRequests(getProjectName())) {
+        PageIterator<PullRequest> pullRequests = api.listPullRequests(getProjectName());
+        for (PullRequest pr = pullRequests.next(); pr != null; pr = pullRequests.next()) {
           if (pr.isOpen() && pr.getHead().getRef().equals(pushBranchName)) {
             console.infoFmt("Pull request for branch %s already exists as %s/pull/%s",
                 pushBranchName, asHttpsUrl(), pr.getNumber());
@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.git;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
+import com.google.copybara.ChangeMessage;
+import com.google.copybara.RepoException;
+import com.google.copybara.git.GitRepository.GitLogEntry;
+import com.google.copybara.git.GitRepository.LogCmd;
+import com.google.copybara.git.GitRepository.LogStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+
+/**
+ * An on-disk index of the values of some labels in the first-parent history of a git reference,
+ * for answering "which commit has this label value?" and "what is the latest value of this
+ * label?" without walking the history.
+ *
+ * <p>The index is updated incrementally: Only the commits after the last indexed one are read. If
+ * the reference was rewritten and the last indexed commit is not an ancestor anymore, the index
+ * is rebuilt.
+ *
+ * <p>Each update appends one line per label found, oldest commit first, followed by a line with
+ * the commit that was indexed up to:
+ *
+ * <pre>
+ * L &lt;commit&gt; &lt;label&gt; &lt;value&gt;
+ * H &lt;commit&gt;
+ * </pre>
+ *
+ * Label lines that are not followed by a head line, for example because of a crash while
+ * writing, are ignored when loading and truncated by the next update. A rebuild rewrites the file.
+ *
+ * <p>Migrations run concurrently and other Copybara processes might share the index, so updates
+ * lock the file and reload it before writing.
+ */
+final class LabelIndex {
+
+  private static final Logger logger = Logger.getLogger(LabelIndex.class.getName());
+
+  private static final String LABEL = "L";
+  private static final String HEAD = "H";
+
+  // File locks are held by the whole JVM, so its threads also need to take turns
+  private static final ConcurrentMap<Path, Object> fileLocks = new ConcurrentHashMap<>();
+
+  /**
+   * How labels are found in the commit messages.
+   */
+  enum LabelParser {
+    /** Labels in the last paragraph of the message, like {@link ChangeMessage#parseMessage}. */
+    MESSAGE {
+      @Override
+      ChangeMessage parse(String message) {
+        return ChangeMessage.parseMessage(message);
+      }
+    },
+    /** Any line of the message, like {@link ChangeMessage#parseAllAsLabels}. */
+    ALL_LINES {
+      @Override
+      ChangeMessage parse(String message) {
+        return ChangeMessage.parseAllAsLabels(message);
+      }
+    };
+
+    abstract ChangeMessage parse(String message);
+  }
+
+  private final Path file;
+  private final GitRepository repo;
+  private final ImmutableList<String> labels;
+  private final ImmutableList<String> paths;
+  private final boolean firstParent;
+  private final LabelParser parser;
+
+  @Nullable private String indexedHead;
+  // Size in bytes of the part of the file that ends with a head line
+  private long validSize;
+  private final Map<String, String> latestValues = new HashMap<>();
+  private final Map<String, String> commitsByValue = new HashMap<>();
+
+  private LabelIndex(Path file, GitRepository repo, ImmutableList<String> labels,
+      ImmutableList<String> paths, boolean firstParent, LabelParser parser) {
+    this.file = file;
+    this.repo = repo;
+    this.labels = labels;
+    this.paths = paths;
+    this.firstParent = firstParent;
+    this.parser = parser;
+  }
+
+  /**
+   * Opens the index of {@code labels} for {@code ref} of {@code repoUrl}, stored under
+   * {@code indexDir}. Only the commits that affect {@code paths} are indexed, or all of them if
+   * empty.
+   */
+  static LabelIndex open(Path indexDir, GitRepository repo, String repoUrl, String ref,
+      ImmutableList<String> labels, ImmutableList<String> paths, boolean firstParent,
+      LabelParser parser) throws IOException {
+    Preconditions.checkArgument(!labels.isEmpty(), "No labels to index");
+    String key = Joiner.on('\n').join(repoUrl, ref, labels, paths, firstParent, parser);
+    Path file = indexDir.resolve(Hashing.sha256().hashString(key, UTF_8).toString());
+    LabelIndex index = new LabelIndex(file, repo, labels, paths, firstParent, parser);
+    index.load();
+    return index;
+  }
+
+  /**
+   * Returns the latest value of {@code label} in the indexed history, or null if not found.
+   */
+  @Nullable
+  String latestValue(String label) {
+    Preconditions.checkArgument(labels.contains(label), "%s is not indexed", label);
+    return latestValues.get(label);
+  }
+
+  /**
+   * Returns the SHA-1 of the most recent commit that has {@code value} for any of the indexed
+   * labels, or null if not found.
+   */
+  @Nullable
+  String findCommit(String value) {
+    return commitsByValue.get(value);
+  }
+
+  /**
+   * Indexes the history up to {@code head}, reading only the commits that are not indexed yet.
+   */
+  void update(String head) throws RepoException, IOException {
+    if (head.equals(indexedHead)) {
+      return;
+    }
+    synchronized (fileLocks.computeIfAbsent(file.toAbsolutePath(), f -> new Object())) {
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+              StandardOpenOption.READ, StandardOpenOption.WRITE);
+          FileLock ignored = channel.lock()) {
+        // Another writer might have updated the index since it was loaded
+        ByteBuffer content = ByteBuffer.allocate(Math.toIntExact(channel.size()));
+        while (content.hasRemaining()) {
+          if (channel.read(content, content.position()) == -1) {
+            break;
+          }
+        }
+        load(Arrays.copyOf(content.array(), content.position()));
+        if (!head.equals(indexedHead)) {
+          updateLocked(head, channel);
+        }
+      }
+    }
+  }
+
+  private void updateLocked(String head, FileChannel channel) throws RepoException, IOException {
+    boolean incremental = indexedHead != null
+        && repo.refExists(indexedHead)
+        && repo.isAncestor(indexedHead, head);
+    if (!incremental) {
+      if (indexedHead != null) {
+        logger.info(String.format("Rebuilding label index %s: %s is not an ancestor of %s",
+            file, indexedHead, head));
+      }
+      indexedHead = null;
+      latestValues.clear();
+      commitsByValue.clear();
+    }
+
+    LogCmd logCmd = repo.log(incremental ? indexedHead + ".." + head : head)
+        .withPaths(paths)
+        .firstParent(firstParent);
+    if (labels.size() == 1) {
+      // Might return false positives, that are filtered by the parser
+      logCmd = logCmd.grep("^" + Iterables.getOnlyElement(labels));
+    }
+    // Newest first
+    List<String[]> lines = new ArrayList<>();
+    try (LogStream stream = logCmd.stream()) {
+      GitLogEntry entry;
+      while ((entry = stream.next()) != null) {
+        String commit = entry.getCommit().getSha1();
+        ImmutableListMultimap<String, String> found =
+            parser.parse(entry.getBody()).labelsAsMultimap();
+        for (String label : labels) {
+          // A squashed or merged commit can have several values. Reversed like the commits, so
+          // that the last one in the message is the latest value.
+          for (String value : Lists.reverse(found.get(label))) {
+            lines.add(new String[] {commit, label, value});
+          }
+        }
+      }
+    }
+
+    StringBuilder toWrite = new StringBuilder();
+    for (String[] line : Lists.reverse(lines)) {
+      toWrite.append(LABEL).append(' ').append(line[0]).append(' ').append(line[1]).append(' ')
+          .append(line[2]).append('\n');
+    }
+    toWrite.append(HEAD).append(' ').append(head).append('\n');
+    byte[] bytes = toWrite.toString().getBytes(UTF_8);
+    long offset = incremental ? validSize : 0;
+    // Drop anything written after the last head line, or everything when rebuilding
+    channel.truncate(offset);
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    while (buffer.hasRemaining()) {
+      channel.write(buffer, offset + buffer.position());
+    }
+    validSize = offset + bytes.length;
+    apply(toWrite.toString());
+  }
+
+  private void load() throws IOException {
+    if (Files.exists(file)) {
+      load(Files.readAllBytes(file));
+    }
+  }
+
+  private void load(byte[] bytes) {
+    indexedHead = null;
+    latestValues.clear();
+    commitsByValue.clear();
+    String content = new String(bytes, UTF_8);
+    validSize = content.substring(0, apply(content)).getBytes(UTF_8).length;
+  }
+
+  /**
+   * Applies the lines of {@code content} to the in-memory index and returns the length of the
+   * prefix that ends with a head line.
+   */
+  private int apply(String content) {
+    List<List<String>> pending = new ArrayList<>();
+    int valid = 0;
+    int start = 0;
+    int end;
+    // Only complete lines
+    while ((end = content.indexOf('\n', start)) != -1) {
+      List<String> fields = Splitter.on(' ').limit(4).splitToList(content.substring(start, end));
+      start = end + 1;
+      if (fields.get(0).equals(LABEL) && fields.size() == 4) {
+        pending.add(fields);
+      } else if (fields.get(0).equals(HEAD) && fields.size() == 2) {
+        for (List<String> label : pending) {
+          latestValues.put(label.get(2), label.get(3));
+          commitsByValue.put(label.get(3), label.get(1));
+        }
+        pending.clear();
+        indexedHead = fields.get(1);
+        valid = start;
+      } else {
+        break;
+      }
+    }
+    return valid;
+  }
+}
@@ -69,15 +69,18 @@ public class Mirror implements Migration {
         .map(r -> r.getOrigin() + ":" + r.getOrigin())
         .collect(Collectors.toList());
 
-    generalOptions.console().progress("Fetching from " + origin);
-
-    repo.fetch(origin, /*prune=*/true, /*force=*/true, fetchRefspecs);
-
-    generalOptions.console().progress("Pushing to " + destination);
     List<Refspec> pushRefspecs = forcePush
         ? refspec.stream().map(Refspec::withAllowNoFastForward).collect(Collectors.toList())
         : refspec;
-    repo.push().prune(prune).withRefspecs(destination, pushRefspecs).run();
+    // Other migrations could fetch into the same cached repository between the fetch and the push
+    synchronized (gitOptions.cachedRepoLock(origin)) {
+      generalOptions.console().progress("Fetching from " + origin);
+
+      repo.fetch(origin, /*prune=*/true, /*force=*/true, fetchRefspecs);
+
+      generalOptions.console().progress("Pushing to " + destination);
+      repo.push().prune(prune).withRefspecs(destination, pushRefspecs).run();
+    }
   }
 
   @VisibleForTesting
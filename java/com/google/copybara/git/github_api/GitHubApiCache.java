@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.git.github_api;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+
+/**
+ * An on-disk cache of GitHub API responses, used for doing conditional requests: GitHub answers
+ * 304 (Not Modified) if the ETag or the Last-Modified date of the cached response are still
+ * valid, and those responses don't count against the rate limit.
+ *
+ * <p>Each response is stored in its own file. When the size of the files exceeds the maximum,
+ * the least recently used ones are deleted. The file modification time is used as the access
+ * time, so that it is kept between executions.
+ */
+public final class GitHubApiCache {
+
+  private static final Logger logger = Logger.getLogger(GitHubApiCache.class.getName());
+
+  private static final String SUFFIX = ".response";
+
+  private final Path dir;
+  private final long maxBytes;
+  // File name to size, least recently used first
+  private final LinkedHashMap<String, Long> files = new LinkedHashMap<>(16, 0.75f, true);
+  private long totalBytes;
+
+  private GitHubApiCache(Path dir, long maxBytes) {
+    this.dir = dir;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Opens the cache stored in {@code dir}, that keeps at most {@code maxBytes} of responses.
+   */
+  public static GitHubApiCache open(Path dir, long maxBytes) throws IOException {
+    Preconditions.checkArgument(maxBytes > 0, "maxBytes must be positive: %s", maxBytes);
+    GitHubApiCache cache = new GitHubApiCache(dir, maxBytes);
+    Files.createDirectories(dir);
+    Map<String, Long> sizes = new HashMap<>();
+    Map<String, FileTime> accessTimes = new HashMap<>();
+    try (DirectoryStream<Path> existing = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+      for (Path file : existing) {
+        String name = file.getFileName().toString();
+        try {
+          sizes.put(name, Files.size(file));
+          accessTimes.put(name, Files.getLastModifiedTime(file));
+        } catch (NoSuchFileException e) {
+          // Deleted by another process
+          sizes.remove(name);
+        }
+      }
+    }
+    List<String> names = new ArrayList<>(accessTimes.keySet());
+    names.sort(Comparator.comparing(accessTimes::get));
+    for (String name : names) {
+      cache.files.put(name, sizes.get(name));
+      cache.totalBytes += sizes.get(name);
+    }
+    cache.evict();
+    return cache;
+  }
+
+  /**
+   * Returns the cached response for {@code key}, or null if not cached.
+   */
+  @Nullable
+  synchronized Response get(String key) {
+    String name = fileName(key);
+    if (files.get(name) == null) {
+      return null;
+    }
+    Path file = dir.resolve(name);
+    try {
+      byte[] content = Files.readAllBytes(file);
+      Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+      Response response = Response.parse(content);
+      if (response == null || !response.key.equals(key)) {
+        remove(name);
+        return null;
+      }
+      return response;
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Cannot read cached GitHub API response " + file, e);
+      remove(name);
+      return null;
+    }
+  }
+
+  /**
+   * Stores the response for {@code key}. At least one of {@code etag} and {@code lastModified}
+   * must be present for the response to be useful. {@code link} is the pagination header.
+   */
+  synchronized void put(String key, @Nullable String etag, @Nullable String lastModified,
+      @Nullable String link, byte[] body) {
+    String name = fileName(key);
+    Path file = dir.resolve(name);
+    byte[] content = new Response(key, etag, lastModified, link, body).serialize();
+    try {
+      Path tmp = Files.createTempFile(dir, name, ".tmp");
+      Files.write(tmp, content);
+      Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Cannot cache GitHub API response in " + file, e);
+      return;
+    }
+    Long previous = files.put(name, (long) content.length);
+    totalBytes += content.length - (previous != null ? previous : 0);
+    evict();
+  }
+
+  private void evict() {
+    Iterator<Map.Entry<String, Long>> it = files.entrySet().iterator();
+    while (totalBytes > maxBytes && it.hasNext()) {
+      Map.Entry<String, Long> eldest = it.next();
+      it.remove();
+      totalBytes -= eldest.getValue();
+      delete(eldest.getKey());
+    }
+  }
+
+  private void remove(String name) {
+    Long size = files.remove(name);
+    if (size != null) {
+      totalBytes -= size;
+    }
+    delete(name);
+  }
+
+  private void delete(String name) {
+    try {
+      Files.deleteIfExists(dir.resolve(name));
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Cannot delete cached GitHub API response " + name, e);
+    }
+  }
+
+  private static String fileName(String key) {
+    return Hashing.sha256().hashString(key, UTF_8) + SUFFIX;
+  }
+
+  /**
+   * A cached response.
+   */
+  static final class Response {
+
+    private final String key;
+    @Nullable private final String etag;
+    @Nullable private final String lastModified;
+    @Nullable private final String link;
+    private final byte[] body;
+
+    private Response(String key, @Nullable String etag, @Nullable String lastModified,
+        @Nullable String link, byte[] body) {
+      this.key = key;
+      this.etag = etag;
+      this.lastModified = lastModified;
+      this.link = link;
+      this.body = body;
+    }
+
+    @Nullable
+    String getEtag() {
+      return etag;
+    }
+
+    @Nullable
+    String getLastModified() {
+      return lastModified;
+    }
+
+    @Nullable
+    String getLink() {
+      return link;
+    }
+
+    byte[] getBody() {
+      return body;
+    }
+
+    /**
+     * Four header lines (key, ETag, Last-Modified and Link, empty if not present) and the body.
+     */
+    private byte[] serialize() {
+      byte[] header = (key + "\n" + Strings.nullToEmpty(etag) + "\n"
+          + Strings.nullToEmpty(lastModified) + "\n" + Strings.nullToEmpty(link) + "\n")
+          .getBytes(UTF_8);
+      byte[] content = Arrays.copyOf(header, header.length + body.length);
+      System.arraycopy(body, 0, content, header.length, body.length);
+      return content;
+    }
+
+    @Nullable
+    private static Response parse(byte[] content) {
+      String[] header = new String[4];
+      int start = 0;
+      for (int i = 0; i < header.length; i++) {
+        int end = indexOf(content, (byte) '\n', start);
+        if (end == -1) {
+          return null;
+        }
+        header[i] = new String(content, start, end - start, UTF_8);
+        start = end + 1;
+      }
+      return new Response(header[0], Strings.emptyToNull(header[1]),
+          Strings.emptyToNull(header[2]), Strings.emptyToNull(header[3]),
+          Arrays.copyOfRange(content, start, content.length));
+    }
+
+    private static int indexOf(byte[] content, byte value, int from) {
+      for (int i = from; i < content.length; i++) {
+        if (content[i] == value) {
+          return i;
+        }
+      }
+      return -1;
+    }
+  }
+}
@@ -16,9 +16,13 @@
 
 package com.google.copybara.git.github_api;
 
+import com.google.common.base.Preconditions;
 import com.google.copybara.RepoException;
 import com.google.copybara.ValidationException;
 import java.lang.reflect.Type;
+import java.util.List;
+import javax.annotation.Nullable;
+
 /**
  * TODO(copybara-team): Document
  */
@@ -28,9 +32,48 @@ public interface GitHubApiTransport {
    * Do a http GET call
    */
   <T> T get(String path, Type responseType) throws RepoException, ValidationException;
+
+  /**
+   * Do a http GET call for a page of a paginated list. {@code responseType} is the type of the
+   * list.
+   *
+   * <p>The default implementation doesn't support pagination and returns the response as the only
+   * page.
+   */
+  default <T> Page<T> getPage(String path, Type responseType)
+      throws RepoException, ValidationException {
+    return new Page<>(this.<List<T>>get(path, responseType), /*nextPath=*/null);
+  }
+
   /**
    * Do a http POST call
    */
   <T> T post(String path, Object request, Type responseType)
       throws RepoException, ValidationException;
+
+  /**
+   * A page of a paginated list.
+   */
+  final class Page<T> {
+
+    private final List<T> elements;
+    @Nullable private final String nextPath;
+
+    public Page(List<T> elements, @Nullable String nextPath) {
+      this.elements = Preconditions.checkNotNull(elements);
+      this.nextPath = nextPath;
+    }
+
+    public List<T> getElements() {
+      return elements;
+    }
+
+    /**
+     * The path of the next page, or null if this is the last one.
+     */
+    @Nullable
+    public String getNextPath() {
+      return nextPath;
+    }
+  }
 }
@@ -17,24 +17,35 @@
 package com.google.copybara.git.github_api;
 
 import com.google.api.client.http.GenericUrl;
-import com.google.api.client.http.HttpHeaders;
 import com.google.api.client.http.HttpRequest;
 import com.google.api.client.http.HttpRequestFactory;
 import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.HttpStatusCodes;
 import com.google.api.client.http.HttpTransport;
 import com.google.api.client.http.json.JsonHttpContent;
 import com.google.api.client.json.JsonFactory;
 import com.google.api.client.json.JsonObjectParser;
 import com.google.api.client.json.gson.GsonFactory;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+import com.google.common.io.ByteStreams;
 import com.google.copybara.RepoException;
 import com.google.copybara.ValidationException;
 import com.google.copybara.git.GitCredential.UserPassword;
 import com.google.copybara.git.GitRepository;
+import com.google.re2j.Matcher;
+import com.google.re2j.Pattern;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.reflect.Type;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.List;
+import java.util.logging.Logger;
 import javax.annotation.Nullable;
 
 /**
@@ -43,36 +54,207 @@ import javax.annotation.Nullable;
  */
 public class GitHubApiTransportImpl implements GitHubApiTransport {
 
+  private static final Logger logger = Logger.getLogger(GitHubApiTransportImpl.class.getName());
+
   private static final JsonFactory JSON_FACTORY = new GsonFactory();
   private static final String API_URL = "https://api.github.com";
   private static final String GITHUB_WEB_URL = "https://github.com";
+  private static final Duration CREDENTIALS_EXPIRATION = Duration.ofMinutes(10);
+  // For example: '<https://api.github.com/repositories/1/pulls?page=2>; rel="next"'
+  private static final Pattern NEXT_LINK = Pattern.compile("<([^>]*)>\\s*;\\s*rel=\"next\"");
 
   private final GitRepository repo;
-  private final HttpTransport httpTransport;
   private final String storePath;
+  private final HttpRequestFactory requestFactory;
+  @Nullable private final GitHubApiCache cache;
+  private final Ticker ticker;
+  private final Duration credentialsExpiration;
+
+  // Credentials from the git credential helper, or the error if there are none. Cached so that
+  // we don't run 'git credential fill' for each request.
+  @Nullable private UserPassword credentials;
+  @Nullable private ValidationException credentialsError;
+  private boolean credentialsLoaded;
+  private long credentialsLoadedNanos;
+
+  public GitHubApiTransportImpl(GitRepository repo, HttpTransport httpTransport,
+      String storePath, @Nullable GitHubApiCache cache) {
+    this(repo, httpTransport, storePath, cache, Ticker.systemTicker(), CREDENTIALS_EXPIRATION);
+  }
 
+  @VisibleForTesting
   public GitHubApiTransportImpl(GitRepository repo, HttpTransport httpTransport,
-      String storePath) {
+      String storePath, @Nullable GitHubApiCache cache, Ticker ticker,
+      Duration credentialsExpiration) {
     this.repo = Preconditions.checkNotNull(repo);
-    this.httpTransport = Preconditions.checkNotNull(httpTransport);
     this.storePath = storePath;
+    this.cache = cache;
+    this.ticker = Preconditions.checkNotNull(ticker);
+    this.credentialsExpiration = Preconditions.checkNotNull(credentialsExpiration);
+    // Reused for all the requests, so that connections can be kept alive
+    this.requestFactory = Preconditions.checkNotNull(httpTransport).createRequestFactory(
+        request -> {
+          request.setConnectTimeout((int) Duration.ofSeconds(60).toMillis());
+          request.setReadTimeout((int) Duration.ofSeconds(60).toMillis());
+          request.setParser(new JsonObjectParser(JSON_FACTORY));
+        });
   }
 
-  @SuppressWarnings("unchecked")
+  /**
+   * If a cache is present, the request is conditional on the cached response, that is used if
+   * GitHub answers that it wasn't modified.
+   */
   @Override
   public <T> T get(String path, Type responseType) throws RepoException, ValidationException {
-    HttpRequestFactory requestFactory = getHttpRequestFactory(getCredentialsIfPresent());
+    return get(path, responseType, new String[1]);
+  }
+
+  @Override
+  public <T> Page<T> getPage(String path, Type responseType)
+      throws RepoException, ValidationException {
+    String[] link = new String[1];
+    List<T> elements = get(path, responseType, link);
+    return new Page<>(elements, nextPagePath(link[0]));
+  }
+
+  /**
+   * Returns the path of the 'next' link of a Link header, or null if there isn't one.
+   */
+  @Nullable
+  private static String nextPagePath(@Nullable String link) throws RepoException {
+    if (link == null) {
+      return null;
+    }
+    Matcher matcher = NEXT_LINK.matcher(link);
+    if (!matcher.find()) {
+      return null;
+    }
+    String url = matcher.group(1);
+    if (!url.startsWith(API_URL + "/")) {
+      throw new RepoException("Unexpected url for the next page: " + url);
+    }
+    return url.substring(API_URL.length() + 1);
+  }
 
+  /**
+   * Does a GET call, storing the Link header of the response in {@code link}.
+   */
+  private <T> T get(String path, Type responseType, String[] link)
+      throws RepoException, ValidationException {
     GenericUrl url = new GenericUrl(URI.create(API_URL + "/" + path));
+    // The key and the cached response for the user of the last request executed
+    String[] cacheKey = new String[1];
+    GitHubApiCache.Response[] cached = new GitHubApiCache.Response[1];
     try {
-      HttpRequest httpRequest = requestFactory.buildGetRequest(url);
-      HttpResponse response = httpRequest.execute();
-      return (T) response.parseAs(responseType);
+      HttpResponse response;
+      try {
+        response = execute(/*credentialsRequired=*/false, path, userPassword -> {
+          HttpRequest request = requestFactory.buildGetRequest(url);
+          if (cache != null) {
+            // Responses depend on the user
+            cacheKey[0] = (userPassword != null ? userPassword.getUsername() : "") + "@" + url;
+            cached[0] = cache.get(cacheKey[0]);
+            if (cached[0] != null) {
+              request.getHeaders().setIfNoneMatch(cached[0].getEtag());
+              request.getHeaders().setIfModifiedSince(cached[0].getLastModified());
+            }
+          }
+          return request;
+        });
+      } catch (HttpResponseException e) {
+        if (e.getStatusCode() == HttpStatusCodes.STATUS_CODE_NOT_MODIFIED && cached[0] != null) {
+          link[0] = cached[0].getLink();
+          return parse(cached[0].getBody(), responseType);
+        }
+        throw e;
+      }
+      byte[] body;
+      try (InputStream content = response.getContent()) {
+        body = content != null ? ByteStreams.toByteArray(content) : new byte[0];
+      }
+      String etag = response.getHeaders().getETag();
+      String lastModified = response.getHeaders().getLastModified();
+      link[0] = response.getHeaders().getFirstHeaderStringValue("Link");
+      if (cache != null && (etag != null || lastModified != null)) {
+        cache.put(cacheKey[0], etag, lastModified, link[0], body);
+      }
+      return parse(body, responseType);
     } catch (IOException e) {
       throw new RepoException("Error running GitHub API operation " + path, e);
     }
   }
 
+  @SuppressWarnings("unchecked")
+  @Override
+  public <T> T post(String path, Object request, Type responseType)
+      throws RepoException, ValidationException {
+    GenericUrl url = new GenericUrl(URI.create(API_URL + "/" + path));
+    try {
+      return (T) execute(/*credentialsRequired=*/true, path,
+          userPassword -> requestFactory.buildPostRequest(url,
+              new JsonHttpContent(JSON_FACTORY, request)))
+          .parseAs(responseType);
+    } catch (IOException e) {
+      throw new RepoException("Error running GitHub API operation " + path, e);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T parse(byte[] body, Type responseType) throws IOException {
+    return (T) new JsonObjectParser(JSON_FACTORY)
+        .parseAndClose(new ByteArrayInputStream(body), StandardCharsets.UTF_8, responseType);
+  }
+
+  /**
+   * Executes the request built by {@code requestBuilder}. If GitHub rejects the credentials, they
+   * are read again from the credential helper and the request is retried once.
+   */
+  private HttpResponse execute(boolean credentialsRequired, String path,
+      RequestBuilder requestBuilder) throws IOException, RepoException, ValidationException {
+    UserPassword userPassword = credentialsRequired
+        ? getCredentials()
+        : getCredentialsIfPresent();
+    try {
+      return execute(requestBuilder, userPassword);
+    } catch (HttpResponseException e) {
+      if (e.getStatusCode() != HttpStatusCodes.STATUS_CODE_UNAUTHORIZED) {
+        throw e;
+      }
+      invalidateCredentials(userPassword);
+      UserPassword newUserPassword = credentialsRequired
+          ? getCredentials()
+          : getCredentialsIfPresent();
+      if (sameCredentials(userPassword, newUserPassword)) {
+        throw e;
+      }
+      logger.info("GitHub rejected the credentials. Retrying " + path
+          + " with the new ones from the credential helper");
+      return execute(requestBuilder, newUserPassword);
+    }
+  }
+
+  private static HttpResponse execute(RequestBuilder requestBuilder,
+      @Nullable UserPassword userPassword) throws IOException {
+    HttpRequest httpRequest = requestBuilder.build(userPassword);
+    if (userPassword != null) {
+      httpRequest.getHeaders().setBasicAuthentication(userPassword.getUsername(),
+          userPassword.getPassword_BeCareful());
+    }
+    return httpRequest.execute();
+  }
+
+  private interface RequestBuilder {
+    HttpRequest build(@Nullable UserPassword userPassword) throws IOException;
+  }
+
+  private static boolean sameCredentials(@Nullable UserPassword a, @Nullable UserPassword b) {
+    if (a == null || b == null) {
+      return a == b;
+    }
+    return a.getUsername().equals(b.getUsername())
+        && a.getPassword_BeCareful().equals(b.getPassword_BeCareful());
+  }
+
   /**
    * Credentials for API should be optional for any read operation (GET).
    */
@@ -85,37 +267,36 @@ public class GitHubApiTransportImpl implements GitHubApiTransport {
     }
   }
 
-  @SuppressWarnings("unchecked")
-  @Override
-  public <T> T post(String path, Object request, Type responseType)
-      throws RepoException, ValidationException {
-    HttpRequestFactory requestFactory = getHttpRequestFactory(getCredentials());
-
-    GenericUrl url = new GenericUrl(URI.create(API_URL + "/" + path));
-    try {
-      HttpRequest httpRequest = requestFactory.buildPostRequest(url,
-          new JsonHttpContent(JSON_FACTORY, request));
-      HttpResponse response = httpRequest.execute();
-      return (T) response.parseAs(responseType);
-    } catch (IOException e) {
-      throw new RepoException("Error running GitHub API operation " + path, e);
+  /**
+   * Returns the cached credentials, reading them from the credential helper if they are not
+   * cached or they expired.
+   */
+  private synchronized UserPassword getCredentials() throws RepoException, ValidationException {
+    if (!credentialsLoaded
+        || ticker.read() - credentialsLoadedNanos >= credentialsExpiration.toNanos()) {
+      credentials = null;
+      credentialsError = null;
+      try {
+        credentials = readCredentials();
+      } catch (ValidationException e) {
+        credentialsError = e;
+      }
+      credentialsLoaded = true;
+      credentialsLoadedNanos = ticker.read();
     }
+    if (credentialsError != null) {
+      throw credentialsError;
+    }
+    return credentials;
   }
 
-  private HttpRequestFactory getHttpRequestFactory(@Nullable UserPassword userPassword)
-      throws RepoException, ValidationException {
-    return httpTransport.createRequestFactory(
-        request -> {
-          request.setConnectTimeout((int) Duration.ofSeconds(60).toMillis());
-          request.setReadTimeout((int) Duration.ofSeconds(60).toMillis());
-          HttpHeaders httpHeaders = new HttpHeaders();
-          if (userPassword != null) {
-            httpHeaders.setBasicAuthentication(userPassword.getUsername(),
-                userPassword.getPassword_BeCareful());
-          }
-          request.setHeaders(httpHeaders);
-          request.setParser(new JsonObjectParser(JSON_FACTORY));
-        });
+  /**
+   * Forgets the cached credentials if they are still {@code rejected}.
+   */
+  private synchronized void invalidateCredentials(@Nullable UserPassword rejected) {
+    if (credentials == rejected) {
+      credentialsLoaded = false;
+    }
   }
 
   /**
@@ -123,7 +304,7 @@ public class GitHubApiTransportImpl implements GitHubApiTransport {
    * to get it for the api.github.com host, just in case the user has an specific token for that
    * url, otherwise we use the github.com host one.
    */
-  private UserPassword getCredentials() throws RepoException, ValidationException {
+  private UserPassword readCredentials() throws RepoException, ValidationException {
     try {
       return repo.credentialFill(API_URL);
     } catch (ValidationException e) {
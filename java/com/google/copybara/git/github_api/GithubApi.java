@@ -30,6 +30,9 @@ import java.util.List;
  */
 public class GithubApi {
 
+  // Maximum page size allowed by GitHub
+  private static final int MAX_PER_PAGE = 100;
+
   private final GitHubApiTransport transport;
   private final Profiler profiler;
 
@@ -44,14 +47,23 @@ public class GithubApi {
    */
   public ImmutableList<PullRequest> getPullRequests(String projectId)
       throws RepoException, ValidationException {
-    try (ProfilerTask ignore = profiler.start("github_api_list_pulls")) {
-      List<PullRequest> result =
-          transport.get(String.format("repos/%s/pulls", projectId),
-              new TypeToken<List<PullRequest>>() {
-              }.getType());
-
-      return ImmutableList.copyOf(result);
+    ImmutableList.Builder<PullRequest> result = ImmutableList.builder();
+    PageIterator<PullRequest> pullRequests = listPullRequests(projectId);
+    for (PullRequest pr = pullRequests.next(); pr != null; pr = pullRequests.next()) {
+      result.add(pr);
     }
+    return result.build();
+  }
+
+  /**
+   * Iterate over the pull requests for a project, requesting the pages lazily. Use this method
+   * instead of {@link #getPullRequests(String)} when the caller can stop early.
+   * @param projectId a project in the form of "google/copybara"
+   */
+  public PageIterator<PullRequest> listPullRequests(String projectId) {
+    return new PageIterator<>(transport, profiler, "github_api_list_pulls",
+        String.format("repos/%s/pulls?per_page=%d", projectId, MAX_PER_PAGE),
+        new TypeToken<List<PullRequest>>() {}.getType());
   }
 
   /**
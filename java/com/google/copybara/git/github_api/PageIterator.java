@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.git.github_api;
+
+import com.google.common.base.Preconditions;
+import com.google.copybara.RepoException;
+import com.google.copybara.ValidationException;
+import com.google.copybara.git.github_api.GitHubApiTransport.Page;
+import com.google.copybara.profiler.Profiler;
+import com.google.copybara.profiler.Profiler.ProfilerTask;
+import java.lang.reflect.Type;
+import java.util.Iterator;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * Iterates over the elements of a paginated GitHub API list, requesting each page only when
+ * the previous one has been consumed. Callers that stop early don't pay for the rest of the
+ * pages.
+ */
+public final class PageIterator<T> {
+
+  private final GitHubApiTransport transport;
+  private final Profiler profiler;
+  private final String profilerTask;
+  private final Type pageType;
+  @Nullable private String nextPath;
+  private Iterator<T> current;
+
+  PageIterator(GitHubApiTransport transport, Profiler profiler, String profilerTask,
+      String path, Type pageType) {
+    this.transport = Preconditions.checkNotNull(transport);
+    this.profiler = Preconditions.checkNotNull(profiler);
+    this.profilerTask = Preconditions.checkNotNull(profilerTask);
+    this.nextPath = Preconditions.checkNotNull(path);
+    this.pageType = Preconditions.checkNotNull(pageType);
+  }
+
+  /**
+   * Returns the next element, requesting the next page if needed, or null if there are no more
+   * elements.
+   */
+  @Nullable
+  public T next() throws RepoException, ValidationException {
+    while (current == null || !current.hasNext()) {
+      if (nextPath == null) {
+        return null;
+      }
+      Page<T> page;
+      try (ProfilerTask ignore = profiler.start(profilerTask)) {
+        page = transport.getPage(nextPath, pageType);
+      }
+      List<T> elements = page.getElements();
+      current = elements == null ? null : elements.iterator();
+      nextPath = page.getNextPath();
+    }
+    return current.next();
+  }
+}
@@ -60,7 +60,7 @@ public abstract class AbstractGithubApiTest {
 
   @Test
   public void testGetPulls() throws Exception {
-    trainMockGet("/repos/example/project/pulls", getResource("pulls_testdata.json"));
+    trainMockGet("/repos/example/project/pulls?per_page=100", getResource("pulls_testdata.json"));
     ImmutableList<PullRequest> pullRequests = api.getPullRequests("example/project");
 
     assertThat(pullRequests).hasSize(2);
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.profiler;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+
+/**
+ * A listener that writes the tasks in the Chrome Trace Event Format, that can be loaded in
+ * chrome://tracing or any other trace viewer.
+ *
+ * <p>Each task is written as a begin and an end event in the thread that ran it, so that nested
+ * and concurrent tasks are shown as such. The last component of the task description is used as
+ * the event name, the task type as the category and the task fields as arguments. The file is
+ * completed when the root task finishes.
+ */
+public class ChromeTraceProfilerListener implements Listener {
+
+  private static final Logger logger =
+      Logger.getLogger(ChromeTraceProfilerListener.class.getName());
+
+  private final Path output;
+  @Nullable private Writer writer;
+  private final Set<Long> knownThreads = new HashSet<>();
+  private boolean firstEvent = true;
+  private long originNanos;
+
+  public ChromeTraceProfilerListener(Path output) throws IOException {
+    this.output = output;
+    Path parent = output.toAbsolutePath().getParent();
+    if (parent != null) {
+      Files.createDirectories(parent);
+    }
+    this.writer = Files.newBufferedWriter(output, UTF_8);
+    writer.write("[");
+  }
+
+  @Override
+  public synchronized void taskStarted(Task task) {
+    writeEvent(task, "B", task.getStartNanos());
+  }
+
+  @Override
+  public synchronized void taskFinished(Task task) {
+    writeEvent(task, "E", task.getFinishNanos());
+    if (task.getDescription().equals(Profiler.ROOT_NAME)) {
+      close();
+    }
+  }
+
+  private void writeEvent(Task task, String phase, long nanos) {
+    if (writer == null) {
+      return;
+    }
+    Thread thread = Thread.currentThread();
+    try {
+      if (firstEvent) {
+        originNanos = task.getStartNanos();
+      }
+      if (knownThreads.add(thread.getId())) {
+        write(ImmutableMap.<String, Object>of("name", "thread_name", "ph", "M", "pid", 1,
+            "tid", thread.getId(), "args", ImmutableMap.of("name", thread.getName())));
+      }
+      String description = task.getDescription();
+      ImmutableMap.Builder<String, Object> args = ImmutableMap.builder();
+      args.put("path", description);
+      args.putAll(task.getFields());
+      String type = task.getFields().get(Profiler.TYPE);
+      write(ImmutableMap.<String, Object>builder()
+          .put("name", description.substring(description.lastIndexOf('/') + 1))
+          .put("cat", type != null ? type : "task")
+          .put("ph", phase)
+          .put("ts", (nanos - originNanos) / 1000)
+          .put("pid", 1)
+          .put("tid", thread.getId())
+          .put("args", args.build())
+          .build());
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Cannot write the trace profile to " + output, e);
+      close();
+    }
+  }
+
+  private void write(Map<String, Object> event) throws IOException {
+    writer.write(firstEvent ? "\n" : ",\n");
+    firstEvent = false;
+    StringBuilder sb = new StringBuilder();
+    appendJson(sb, event);
+    writer.write(sb.toString());
+  }
+
+  private static void appendJson(StringBuilder sb, Object value) {
+    if (value instanceof Map) {
+      sb.append('{');
+      boolean first = true;
+      for (Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        if (!first) {
+          sb.append(',');
+        }
+        first = false;
+        appendJson(sb, entry.getKey().toString());
+        sb.append(':');
+        appendJson(sb, entry.getValue());
+      }
+      sb.append('}');
+    } else if (value instanceof Number) {
+      sb.append(value);
+    } else {
+      sb.append('"');
+      for (char c : value.toString().toCharArray()) {
+        switch (c) {
+          case '"':
+            sb.append("\\\"");
+            break;
+          case '\\':
+            sb.append("\\\\");
+            break;
+          case '\n':
+            sb.append("\\n");
+            break;
+          case '\t':
+            sb.append("\\t");
+            break;
+          default:
+            if (c < 0x20) {
+              sb.append(String.format("\\u%04x", (int) c));
+            } else {
+              sb.append(c);
+            }
+        }
+      }
+      sb.append('"');
+    }
+  }
+
+  private void close() {
+    if (writer == null) {
+      return;
+    }
+    try {
+      writer.write("\n]\n");
+      writer.close();
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Cannot close the trace profile " + output, e);
+    }
+    writer = null;
+  }
+}
@@ -76,6 +76,22 @@ public final class Task {
     return fields;
   }
 
+  /**
+   * Ticker time when the task started.
+   */
+  public long getStartNanos() {
+    return startNanos;
+  }
+
+  /**
+   * Ticker time when the task finished. Should only be called if {@link #isFinished()} returns
+   * true.
+   */
+  public long getFinishNanos() {
+    Preconditions.checkState(finishNanos != NOT_FINISHED, "Not finished!");
+    return finishNanos;
+  }
+
   /**
    * Time elapsedNanos running the task. Should only be called if {@link #isFinished()}
    * returns true.
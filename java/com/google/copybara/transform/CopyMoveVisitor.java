@@ -26,10 +26,14 @@ import java.nio.file.PathMatcher;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
 import javax.annotation.Nullable;
 
 /**
- * A visitor which copy or moves files recursively from the path it is visiting.
+ * A visitor which copy or moves files recursively from the path it is visiting. It records the
+ * files created and deleted, so that the {@link com.google.copybara.treestate.TreeState} can be
+ * updated without reading the directories again.
  */
 final class CopyMoveVisitor extends SimpleFileVisitor<Path> {
   private final Path before;
@@ -38,6 +42,8 @@ final class CopyMoveVisitor extends SimpleFileVisitor<Path> {
   private final PathMatcher pathMatcher;
   private final boolean isCopy;
   private final CopyOption[] moveMode;
+  private final List<Path> added = new ArrayList<>();
+  private final List<Path> deleted = new ArrayList<>();
 
   CopyMoveVisitor(Path before, Path after, @Nullable PathMatcher pathMatcher, boolean overwrite, boolean isCopy) {
     this.before = before;
@@ -68,8 +74,24 @@ final class CopyMoveVisitor extends SimpleFileVisitor<Path> {
         Files.copy(source, dest, moveMode);
       } else {
         Files.move(source, dest, moveMode);
+        deleted.add(source);
       }
+      added.add(dest);
     }
     return FileVisitResult.CONTINUE;
   }
+
+  /**
+   * Files created or replaced in the destination.
+   */
+  List<Path> getAdded() {
+    return added;
+  }
+
+  /**
+   * Files moved away from the source. Always empty for copies.
+   */
+  List<Path> getDeleted() {
+    return deleted;
+  }
 }
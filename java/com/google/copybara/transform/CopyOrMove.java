@@ -103,6 +103,7 @@ public class CopyOrMove implements Transformation {
         workflowOptions.reportNoop(
             work.getConsole(),
             String.format("Error moving '%s'. It doesn't exist in the workdir", this.before));
+        work.getTreeState().notifyNoChange();
         return;
       }
     Path after = work.getCheckoutDir().resolve(this.after).normalize();
@@ -120,9 +121,11 @@ public class CopyOrMove implements Transformation {
               "Cannot use user defined 'paths' filter when the 'before' is not a directory: "
                   + paths);
         }
-        Files.walkFileTree(before,
-            new CopyMoveVisitor(before, after, beforeIsDir ? paths.relativeTo(before) : null,
-                overwrite, isCopy));
+        CopyMoveVisitor visitor = new CopyMoveVisitor(before, after,
+            beforeIsDir ? paths.relativeTo(before) : null, overwrite, isCopy);
+        Files.walkFileTree(before, visitor);
+        work.getTreeState().notifyDelete(visitor.getDeleted());
+        work.getTreeState().notifyAdd(visitor.getAdded());
       } catch (FileAlreadyExistsException e) {
         throw new ValidationException(
             String.format("Cannot move file to '%s' because it already exists", e.getFile()));
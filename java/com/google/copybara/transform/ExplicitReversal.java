@@ -95,6 +95,11 @@ public final class ExplicitReversal implements Transformation {
     return forward.describe();
   }
 
+  @Override
+  public boolean isIncremental() {
+    return forward.isIncremental();
+  }
+
   @Override
   public String toString() {
     return MoreObjects.toStringHelper(this)
@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.transform;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import com.google.copybara.NonReversibleValidationException;
+import com.google.copybara.TransformWork;
+import com.google.copybara.Transformation;
+import com.google.copybara.ValidationException;
+import com.google.copybara.WorkflowOptions;
+import com.google.copybara.profiler.Profiler;
+import com.google.copybara.transform.TemplateTokens.Replacer;
+import com.google.copybara.treestate.TreeState.FileState;
+import com.google.copybara.util.FileUtil;
+import com.google.copybara.util.Glob;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs a group of adjacent {@link Replace} and {@link VerifyMatch} transformations in a single
+ * pass over the files: Each file is read once, every rule that applies to it is run in order in
+ * memory and the result is written once.
+ *
+ * <p>Every rule keeps its own semantics: It only applies to the files matched by its glob and
+ * no-ops and validation errors are reported rule by rule, in the order of the sequence. Each file
+ * is written as soon as all its rules have run, so only one file per thread is kept in memory.
+ *
+ * <p>The only observable difference is the state of the files when a rule fails: they also
+ * contain the changes of the rules after the failing one. The migration fails anyway in that
+ * case.
+ */
+final class FusedFileTransformation implements Transformation {
+
+  private enum RuleResult {
+    NOT_APPLIED, SYMLINK, UNCHANGED, MODIFIED, VALID, INVALID
+  }
+
+  private static final class FileResult {
+    private final RuleResult[] ruleResults;
+    private final boolean modified;
+
+    private FileResult(RuleResult[] ruleResults, boolean modified) {
+      this.ruleResults = ruleResults;
+      this.modified = modified;
+    }
+  }
+
+  private final Profiler profiler;
+  private final ImmutableList<Transformation> rules;
+  private final WorkflowOptions workflowOptions;
+
+  FusedFileTransformation(Profiler profiler, List<Transformation> rules) {
+    Preconditions.checkArgument(rules.size() > 1, "Nothing to fuse: %s", rules);
+    for (Transformation rule : rules) {
+      Preconditions.checkArgument(canFuse(rule), "Cannot fuse %s", rule);
+    }
+    this.profiler = Preconditions.checkNotNull(profiler);
+    this.rules = ImmutableList.copyOf(rules);
+    this.workflowOptions = workflowOptions(rules.get(0));
+  }
+
+  /**
+   * Returns true if {@code transformation} only rewrites or verifies the content of existing files
+   * and can be part of a {@link FusedFileTransformation}.
+   */
+  static boolean canFuse(Transformation transformation) {
+    return transformation instanceof Replace || transformation instanceof VerifyMatch;
+  }
+
+  @Override
+  public void transform(TransformWork work) throws IOException, ValidationException {
+    Path checkoutDir = work.getCheckoutDir();
+    // Replace and VerifyMatch don't add or remove files, so the files that each rule applies to
+    // can be computed upfront.
+    Map<FileState, BitSet> rulesPerFile = new LinkedHashMap<>();
+    int[] matchingFiles = new int[rules.size()];
+    List<FileState> verifiedFiles = new ArrayList<>();
+    for (int i = 0; i < rules.size(); i++) {
+      Transformation rule = rules.get(i);
+      for (FileState file : work.getTreeState().find(paths(rule).relativeTo(checkoutDir))) {
+        rulesPerFile.computeIfAbsent(file, f -> new BitSet()).set(i);
+        matchingFiles[i]++;
+        if (rule instanceof VerifyMatch) {
+          verifiedFiles.add(file);
+        }
+      }
+    }
+    ParallelFileProcessor processor =
+        new ParallelFileProcessor(workflowOptions.getTransformPool());
+
+    // VerifyMatch reads symlinks' targets, whose content might depend on rules that are not
+    // applied yet in a fused pass. Those (rare) trees are transformed rule by rule.
+    if (processor.process(verifiedFiles, f -> Files.isSymbolicLink(f.getPath())).contains(true)) {
+      transformUnfused(work);
+      return;
+    }
+
+    List<Replacer> replacers = new ArrayList<>();
+    for (Transformation rule : rules) {
+      replacers.add(rule instanceof Replace ? ((Replace) rule).newReplacer() : null);
+    }
+    List<FileState> files = ImmutableList.copyOf(rulesPerFile.keySet());
+    List<FileResult> results = processor.process(files,
+        file -> processFile(file, rulesPerFile.get(file), replacers));
+
+    List<FileState> changed = new ArrayList<>();
+    for (int i = 0; i < files.size(); i++) {
+      if (results.get(i).modified) {
+        changed.add(files.get(i));
+      }
+    }
+    work.getTreeState().notifyModify(changed);
+
+    for (int i = 0; i < rules.size(); i++) {
+      Transformation rule = rules.get(i);
+      if (rule instanceof Replace) {
+        int changedFiles = 0;
+        boolean matchedFile = false;
+        for (FileResult result : results) {
+          RuleResult ruleResult = result.ruleResults[i];
+          if (ruleResult == RuleResult.UNCHANGED || ruleResult == RuleResult.MODIFIED) {
+            matchedFile = true;
+          }
+          if (ruleResult == RuleResult.MODIFIED) {
+            changedFiles++;
+          }
+        }
+        // Reports no-ops through WorkflowOptions.reportNoop, like the rule does on its own
+        ((Replace) rule).reportResult(work, matchingFiles[i], changedFiles, matchedFile);
+      } else {
+        List<String> errors = new ArrayList<>();
+        for (int f = 0; f < files.size(); f++) {
+          if (results.get(f).ruleResults[i] == RuleResult.INVALID) {
+            errors.add(files.get(f).getPath().toString());
+          }
+        }
+        ((VerifyMatch) rule).reportErrors(work, errors);
+      }
+    }
+  }
+
+  private void transformUnfused(TransformWork work) throws IOException, ValidationException {
+    for (Transformation rule : rules) {
+      rule.transform(work);
+    }
+  }
+
+  private FileResult processFile(FileState file, BitSet applicableRules, List<Replacer> replacers)
+      throws IOException {
+    RuleResult[] ruleResults = new RuleResult[rules.size()];
+    Arrays.fill(ruleResults, RuleResult.NOT_APPLIED);
+    if (Files.isSymbolicLink(file.getPath())) {
+      // Only Replace rules apply to symlinks at this point, and they skip them.
+      for (int i = applicableRules.nextSetBit(0); i >= 0; i = applicableRules.nextSetBit(i + 1)) {
+        ruleResults[i] = RuleResult.SYMLINK;
+      }
+      return new FileResult(ruleResults, /*modified=*/false);
+    }
+    HashCode hash = file.getCachedContentHash();
+    if (hash != null && resolveFromMemo(hash, applicableRules, ruleResults)) {
+      return new FileResult(ruleResults, /*modified=*/false);
+    }
+    byte[] bytes = Files.readAllBytes(file.getPath());
+    if (hash == null) {
+      hash = file.hashContent(bytes);
+    }
+    String content = new String(bytes, UTF_8);
+    // Memoized results are only valid while the content is the original one.
+    boolean modified = false;
+    for (int i = applicableRules.nextSetBit(0); i >= 0; i = applicableRules.nextSetBit(i + 1)) {
+      Transformation rule = rules.get(i);
+      if (rule instanceof VerifyMatch) {
+        VerifyMatch verifyMatch = (VerifyMatch) rule;
+        Boolean valid = modified ? null : verifyMatch.knownValidity(hash);
+        if (valid == null) {
+          valid = verifyMatch.isValid(content);
+          if (!modified) {
+            verifyMatch.recordValidity(hash, valid);
+          }
+        }
+        ruleResults[i] = valid ? RuleResult.VALID : RuleResult.INVALID;
+        continue;
+      }
+      Replace replace = (Replace) rule;
+      if (!modified && replace.isKnownUnchanged(hash)) {
+        ruleResults[i] = RuleResult.UNCHANGED;
+        continue;
+      }
+      String transformed = replacers.get(i).replace(content);
+      if (transformed.equals(content)) {
+        ruleResults[i] = RuleResult.UNCHANGED;
+        if (!modified) {
+          replace.recordUnchanged(hash);
+        }
+      } else {
+        ruleResults[i] = RuleResult.MODIFIED;
+        modified = true;
+        content = transformed;
+      }
+    }
+    if (modified) {
+      FileUtil.write(file.getPath(), content.getBytes(UTF_8));
+    }
+    return new FileResult(ruleResults, modified);
+  }
+
+  /**
+   * Fills {@code ruleResults} from the memoized results of the rules for the content hash. Returns
+   * false if any of the applicable rules doesn't know the result.
+   */
+  private boolean resolveFromMemo(HashCode hash, BitSet applicableRules,
+      RuleResult[] ruleResults) {
+    for (int i = applicableRules.nextSetBit(0); i >= 0; i = applicableRules.nextSetBit(i + 1)) {
+      Transformation rule = rules.get(i);
+      if (rule instanceof Replace) {
+        if (!((Replace) rule).isKnownUnchanged(hash)) {
+          return false;
+        }
+        ruleResults[i] = RuleResult.UNCHANGED;
+      } else {
+        Boolean valid = ((VerifyMatch) rule).knownValidity(hash);
+        if (valid == null) {
+          return false;
+        }
+        ruleResults[i] = valid ? RuleResult.VALID : RuleResult.INVALID;
+      }
+    }
+    return true;
+  }
+
+  private static Glob paths(Transformation rule) {
+    return rule instanceof Replace
+        ? ((Replace) rule).getPaths()
+        : ((VerifyMatch) rule).getPaths();
+  }
+
+  private static WorkflowOptions workflowOptions(Transformation rule) {
+    return rule instanceof Replace
+        ? ((Replace) rule).getWorkflowOptions()
+        : ((VerifyMatch) rule).getWorkflowOptions();
+  }
+
+  @Override
+  public Transformation reverse() throws NonReversibleValidationException {
+    ImmutableList.Builder<Transformation> reversed = ImmutableList.builder();
+    for (Transformation rule : rules.reverse()) {
+      reversed.add(rule.reverse());
+    }
+    return new Sequence(profiler, reversed.build());
+  }
+
+  @Override
+  public String describe() {
+    return String.format("%s (fused with %d more)", rules.get(0).describe(), rules.size() - 1);
+  }
+
+  @Override
+  public boolean isIncremental() {
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    return "Fused" + rules;
+  }
+}
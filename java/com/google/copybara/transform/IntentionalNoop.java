@@ -38,4 +38,9 @@ public enum IntentionalNoop implements Transformation {
   public String describe() {
     return "no-op";
   }
+
+  @Override
+  public boolean isIncremental() {
+    return true;
+  }
 }
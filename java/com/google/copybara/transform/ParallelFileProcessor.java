@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.transform;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.copybara.treestate.TreeState.FileState;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Applies a per-file computation to a list of {@link FileState}s using a {@link ForkJoinPool}.
+ *
+ * <p>The list is recursively split in chunks that are processed concurrently (idle workers steal
+ * pending chunks), but results are always returned in the same order as the input, so callers can
+ * report modifications deterministically.
+ */
+final class ParallelFileProcessor {
+
+  /**
+   * Lists smaller than this are processed in the calling thread.
+   */
+  private static final int MIN_CHUNK_SIZE = 32;
+
+  /**
+   * Computation to run for each file. Implementations must be thread-safe and return non-null
+   * values.
+   */
+  interface FileProcessor<T> {
+    T process(FileState file) throws IOException;
+  }
+
+  private final ForkJoinPool pool;
+
+  ParallelFileProcessor(ForkJoinPool pool) {
+    this.pool = Preconditions.checkNotNull(pool);
+  }
+
+  /**
+   * Runs {@code processor} for every file and returns the results in the same order as
+   * {@code files}.
+   */
+  <T> ImmutableList<T> process(List<FileState> files, FileProcessor<T> processor)
+      throws IOException {
+    Object[] results = new Object[files.size()];
+    if (pool.getParallelism() <= 1 || files.size() <= MIN_CHUNK_SIZE) {
+      for (int i = 0; i < files.size(); i++) {
+        results[i] = processor.process(files.get(i));
+      }
+    } else {
+      int chunkSize = Math.max(MIN_CHUNK_SIZE, files.size() / (pool.getParallelism() * 4));
+      try {
+        pool.invoke(new ChunkAction<>(files, processor, results, 0, files.size(), chunkSize));
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      }
+    }
+    @SuppressWarnings("unchecked")
+    ImmutableList<T> typed = (ImmutableList<T>) (ImmutableList<?>) ImmutableList.copyOf(results);
+    return typed;
+  }
+
+  private static final class ChunkAction<T> extends RecursiveAction {
+
+    private final List<FileState> files;
+    private final FileProcessor<T> processor;
+    private final Object[] results;
+    private final int from;
+    private final int to;
+    private final int chunkSize;
+
+    private ChunkAction(List<FileState> files, FileProcessor<T> processor, Object[] results,
+        int from, int to, int chunkSize) {
+      this.files = files;
+      this.processor = processor;
+      this.results = results;
+      this.from = from;
+      this.to = to;
+      this.chunkSize = chunkSize;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= chunkSize) {
+        for (int i = from; i < to; i++) {
+          try {
+            results[i] = processor.process(files.get(i));
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        }
+        return;
+      }
+      int middle = (from + to) >>> 1;
+      invokeAll(new ChunkAction<>(files, processor, results, from, middle, chunkSize),
+          new ChunkAction<>(files, processor, results, middle, to, chunkSize));
+    }
+  }
+}
@@ -17,15 +17,20 @@
 package com.google.copybara.transform;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.copybara.NonReversibleValidationException;
 import com.google.copybara.TransformWork;
 import com.google.copybara.Transformation;
 import com.google.copybara.ValidationException;
 import com.google.copybara.WorkflowOptions;
-import com.google.copybara.util.FileUtil;
+import com.google.copybara.treestate.TreeState.FileState;
 import com.google.copybara.util.Glob;
 import com.google.devtools.build.lib.events.Location;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Logger;
 
 /**
@@ -54,8 +59,16 @@ public class Remove implements Transformation {
             + " transformations like core.copy(). Please use origin_files exclude for"
             + " filtering out files.");
 
-    int numDeletes = FileUtil.deleteFilesRecursively(work.getCheckoutDir(),
-        glob.relativeTo(work.getCheckoutDir()));
+    // Looked up in the tree state so that the index of files is kept for the next transformations
+    List<Path> deleted = new ArrayList<>();
+    for (FileState file : ImmutableList.copyOf(
+        work.getTreeState().find(glob.relativeTo(work.getCheckoutDir())))) {
+      if (Files.deleteIfExists(file.getPath())) {
+        deleted.add(file.getPath());
+      }
+    }
+    work.getTreeState().notifyDelete(deleted);
+    int numDeletes = deleted.size();
     logger.info(String.format("Deleted %d files for glob: %s", numDeletes, glob));
     if (numDeletes  == 0) {
       workflowOptions.reportNoop(work.getConsole(), glob + " didn't delete any file");
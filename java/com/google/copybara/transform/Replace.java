@@ -20,9 +20,11 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.Iterables;
+import com.google.common.hash.HashCode;
 import com.google.copybara.NonReversibleValidationException;
 import com.google.copybara.TransformWork;
 import com.google.copybara.Transformation;
@@ -30,6 +32,7 @@ import com.google.copybara.ValidationException;
 import com.google.copybara.WorkflowOptions;
 import com.google.copybara.transform.TemplateTokens.Replacer;
 import com.google.copybara.treestate.TreeState.FileState;
+import com.google.copybara.util.FileUtil;
 import com.google.copybara.util.Glob;
 import com.google.devtools.build.lib.events.Location;
 import com.google.devtools.build.lib.syntax.EvalException;
@@ -68,6 +71,8 @@ public final class Replace implements Transformation {
 
   private static final Logger logger = Logger.getLogger(Replace.class.getName());
 
+  private static final int MAX_MEMOIZED_CONTENTS = 50_000;
+
   private final TemplateTokens before;
   private final TemplateTokens after;
   private final ImmutableMap<String, Pattern> regexGroups;
@@ -78,6 +83,14 @@ public final class Replace implements Transformation {
   private final ImmutableList<Pattern> patternsToIgnore;
   private final WorkflowOptions workflowOptions;
 
+  /**
+   * Hashes of the contents that this transformation doesn't change. Kept for the whole run, so
+   * that the same content is not transformed again by later migrations or the
+   * check_last_rev_state validation.
+   */
+  private final Cache<HashCode, Boolean> unchangedContent =
+      CacheBuilder.newBuilder().maximumSize(MAX_MEMOIZED_CONTENTS).build();
+
   private Replace(TemplateTokens before, TemplateTokens after,
       Map<String, Pattern> regexGroups, boolean firstOnly, boolean multiline,
       boolean repeatedGroups,
@@ -113,30 +126,41 @@ public final class Replace implements Transformation {
       throws IOException, ValidationException {
     Path checkoutDir = work.getCheckoutDir();
 
-    Iterable<FileState> files = work.getTreeState().find(
-        fileMatcherBuilder.relativeTo(checkoutDir));
-    Replacer replacer = before.replacer(after, firstOnly, multiline, patternsToIgnore);
+    List<FileState> files = ImmutableList.copyOf(work.getTreeState().find(
+        fileMatcherBuilder.relativeTo(checkoutDir)));
+    Replacer replacer = newReplacer();
+    // Files are processed concurrently, but results are returned in order, so the notified
+    // modifications are deterministic.
+    List<FileResult> results = new ParallelFileProcessor(workflowOptions.getTransformPool())
+        .process(files, file -> replaceFile(file, replacer));
     List<FileState> changed = new ArrayList<>();
     boolean matchedFile = false;
-    for (FileState file : files) {
-      if (Files.isSymbolicLink(file.getPath())) {
-        continue;
+    for (int i = 0; i < files.size(); i++) {
+      FileResult result = results.get(i);
+      if (result != FileResult.SYMLINK) {
+        matchedFile = true;
       }
-      matchedFile = true;
-      String originalFileContent = new String(Files.readAllBytes(file.getPath()), UTF_8);
-      String transformed = replacer.replace(originalFileContent);
-      if (!originalFileContent.equals(transformed)) {
-        changed.add(file);
-        Files.write(file.getPath(), transformed.getBytes(UTF_8));
+      if (result == FileResult.MODIFIED) {
+        changed.add(files.get(i));
       }
     }
+    work.getTreeState().notifyModify(changed);
+    reportResult(work, files.size(), changed.size(), matchedFile);
+  }
+
+  /**
+   * Logs the result of applying the transformation and reports it as a no-op if no file changed.
+   */
+  void reportResult(TransformWork work, int matchingFiles, int changedFiles, boolean matchedFile)
+      throws ValidationException {
     logger.info(String.format("Applied %s to %s files. %s changed.",
                               this,
-                              Iterables.size(files),
-                              changed.size()));
+                              matchingFiles,
+                              changedFiles));
 
-    work.getTreeState().notifyModify(changed);
-    if (changed.isEmpty()) {
+    // A partial tree only contains the files that changed since a previous run that already
+    // applied this transformation to the rest.
+    if (changedFiles == 0 && !work.getTreeState().isPartial()) {
       workflowOptions.reportNoop(
           work.getConsole(),
           "Transformation '" + toString() + "' was a no-op because it didn't "
@@ -146,6 +170,61 @@ public final class Replace implements Transformation {
     }
   }
 
+  Replacer newReplacer() {
+    return before.replacer(after, firstOnly, multiline, patternsToIgnore);
+  }
+
+  /**
+   * Files that this transformation applies to.
+   */
+  Glob getPaths() {
+    return fileMatcherBuilder;
+  }
+
+  WorkflowOptions getWorkflowOptions() {
+    return workflowOptions;
+  }
+
+  private enum FileResult {
+    SYMLINK, UNCHANGED, MODIFIED
+  }
+
+  private FileResult replaceFile(FileState file, Replacer replacer) throws IOException {
+    if (Files.isSymbolicLink(file.getPath())) {
+      return FileResult.SYMLINK;
+    }
+    HashCode hash = file.getCachedContentHash();
+    if (hash != null && isKnownUnchanged(hash)) {
+      return FileResult.UNCHANGED;
+    }
+    byte[] content = Files.readAllBytes(file.getPath());
+    if (hash == null) {
+      hash = file.hashContent(content);
+      if (isKnownUnchanged(hash)) {
+        return FileResult.UNCHANGED;
+      }
+    }
+    String originalFileContent = new String(content, UTF_8);
+    String transformed = replacer.replace(originalFileContent);
+    if (originalFileContent.equals(transformed)) {
+      recordUnchanged(hash);
+      return FileResult.UNCHANGED;
+    }
+    FileUtil.write(file.getPath(), transformed.getBytes(UTF_8));
+    return FileResult.MODIFIED;
+  }
+
+  /**
+   * Returns true if this transformation is known not to change a content with this hash.
+   */
+  boolean isKnownUnchanged(HashCode contentHash) {
+    return unchangedContent.getIfPresent(contentHash) != null;
+  }
+
+  void recordUnchanged(HashCode contentHash) {
+    unchangedContent.put(contentHash, Boolean.TRUE);
+  }
+
   @Override
   public String describe() {
     // before should be almost always unique so it is good enough for identifying the
@@ -153,6 +232,11 @@ public final class Replace implements Transformation {
     return "Replace " + before;
   }
 
+  @Override
+  public boolean isIncremental() {
+    return true;
+  }
+
   @Override
   public Replace reverse() throws NonReversibleValidationException {
     try {
@@ -64,16 +64,33 @@ public class Sequence implements Transformation {
     // Force to create a new fresh copy of the tree state to leave the
     // old one untouched so that a upper level call would return a fs based implementation.
     TransformWork localWork = work.withUpdatedTreeState();
-    for (int i = 0; i < sequence.size(); i++) {
-      Transformation transformation = sequence.get(i);
-      String transformMsg = String.format(
-          "[%2d/%d] Transform %s", i + 1, sequence.size(),
-          transformation.describe());
+    int i = 0;
+    while (i < sequence.size()) {
+      // Adjacent transformations that only rewrite file contents are run in a single pass.
+      int end = i + 1;
+      while (end < sequence.size() && FusedFileTransformation.canFuse(sequence.get(i))
+          && FusedFileTransformation.canFuse(sequence.get(end))) {
+        end++;
+      }
+      Transformation transformation;
+      String transformMsg;
+      if (end - i > 1) {
+        transformation = new FusedFileTransformation(profiler, sequence.subList(i, end));
+        transformMsg = String.format(
+            "[%2d-%d/%d] Transform %s", i + 1, end, sequence.size(),
+            transformation.describe());
+      } else {
+        transformation = sequence.get(i);
+        transformMsg = String.format(
+            "[%2d/%d] Transform %s", i + 1, sequence.size(),
+            transformation.describe());
+      }
       logger.log(Level.INFO, transformMsg);
 
       localWork.getConsole().progress(transformMsg);
       runOneTransform(localWork, transformation);
       localWork = localWork.withUpdatedTreeState();
+      i = end;
     }
     // Update parent work with potentially modified metadata.
     work.updateFrom(localWork);
@@ -113,6 +130,11 @@ public class Sequence implements Transformation {
     return "sequence";
   }
 
+  @Override
+  public boolean isIncremental() {
+    return sequence.stream().allMatch(Transformation::isIncremental);
+  }
+
   /**
    * Create a sequence from a list of native and Skylark transforms.
    * @param description a description of the argument being converted, such as its name
@@ -16,11 +16,19 @@
 
 package com.google.copybara.transform;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
 import com.google.copybara.TransformWork;
 import com.google.copybara.Transformation;
 import com.google.copybara.ValidationException;
+import com.google.copybara.WorkflowOptions;
+import com.google.copybara.treestate.TreeState.FileState;
 import com.google.copybara.util.Glob;
 import com.google.devtools.build.lib.events.Location;
 import com.google.devtools.build.lib.syntax.EvalException;
@@ -29,7 +37,9 @@ import com.google.re2j.PatternSyntaxException;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
+import javax.annotation.Nullable;
 
 /**
  * A source code pseudo-transformation which verifies that all specified files satisfy a RegEx.
@@ -37,14 +47,26 @@ import java.util.List;
  */
 public final class VerifyMatch implements Transformation {
 
+  private static final int MAX_MEMOIZED_CONTENTS = 50_000;
+
   private final Pattern pattern;
   private final boolean verifyNoMatch;
   private final Glob fileMatcherBuilder;
+  private final WorkflowOptions workflowOptions;
+
+  /**
+   * Results of the validation by content hash. Kept for the whole run, so that content already
+   * validated is not validated again by later migrations or the check_last_rev_state validation.
+   */
+  private final Cache<HashCode, Boolean> validityByContent =
+      CacheBuilder.newBuilder().maximumSize(MAX_MEMOIZED_CONTENTS).build();
 
-  private VerifyMatch(Pattern pattern, boolean verifyNoMatch, Glob fileMatcherBuilder) {
+  private VerifyMatch(Pattern pattern, boolean verifyNoMatch, Glob fileMatcherBuilder,
+      WorkflowOptions workflowOptions) {
     this.pattern = Preconditions.checkNotNull(pattern);
     this.verifyNoMatch = verifyNoMatch;
     this.fileMatcherBuilder = Preconditions.checkNotNull(fileMatcherBuilder);
+    this.workflowOptions = Preconditions.checkNotNull(workflowOptions);
   }
 
   @Override
@@ -60,10 +82,47 @@ public final class VerifyMatch implements Transformation {
   public void transform(TransformWork work)
       throws IOException, ValidationException {
     Path checkoutDir = work.getCheckoutDir();
-    VerifyMatchVisitor visitor = new VerifyMatchVisitor(pattern,
-        fileMatcherBuilder.relativeTo(checkoutDir), verifyNoMatch);
-    Files.walkFileTree(checkoutDir, visitor);
-    List<String> errors = visitor.getErrors();
+    List<FileState> files = ImmutableList.copyOf(work.getTreeState().find(
+        fileMatcherBuilder.relativeTo(checkoutDir)));
+    List<Boolean> valid = new ParallelFileProcessor(workflowOptions.getTransformPool())
+        .process(files, this::verifyFile);
+    work.getTreeState().notifyNoChange();
+    List<String> errors = new ArrayList<>();
+    for (int i = 0; i < files.size(); i++) {
+      if (!valid.get(i)) {
+        errors.add(files.get(i).getPath().toString());
+      }
+    }
+    reportErrors(work, errors);
+  }
+
+  private boolean verifyFile(FileState file) throws IOException {
+    if (Files.isSymbolicLink(file.getPath())) {
+      // The target might be modified independently, so we cannot memoize symlinks.
+      return isValid(new String(Files.readAllBytes(file.getPath()), UTF_8));
+    }
+    HashCode hash = file.getCachedContentHash();
+    Boolean known = hash == null ? null : knownValidity(hash);
+    if (known != null) {
+      return known;
+    }
+    byte[] content = Files.readAllBytes(file.getPath());
+    if (hash == null) {
+      hash = file.hashContent(content);
+      known = knownValidity(hash);
+      if (known != null) {
+        return known;
+      }
+    }
+    boolean result = isValid(new String(content, UTF_8));
+    recordValidity(hash, result);
+    return result;
+  }
+
+  /**
+   * Reports the files that failed the validation and throws if there is any.
+   */
+  void reportErrors(TransformWork work, List<String> errors) throws ValidationException {
     for (String error : errors) {
       work.getConsole().error(String.format("File '%s' failed validation '%s'.", error,
           describe()));
@@ -74,24 +133,59 @@ public final class VerifyMatch implements Transformation {
     }
   }
 
+  /**
+   * Returns true if {@code content} satisfies the validation.
+   */
+  boolean isValid(String content) {
+    return verifyNoMatch != pattern.matcher(content).find();
+  }
+
+  /**
+   * Returns the memoized result of the validation for a content hash, or null if unknown.
+   */
+  @Nullable
+  Boolean knownValidity(HashCode contentHash) {
+    return validityByContent.getIfPresent(contentHash);
+  }
+
+  void recordValidity(HashCode contentHash, boolean valid) {
+    validityByContent.put(contentHash, valid);
+  }
+
+  /**
+   * Files that this transformation applies to.
+   */
+  Glob getPaths() {
+    return fileMatcherBuilder;
+  }
+
+  WorkflowOptions getWorkflowOptions() {
+    return workflowOptions;
+  }
+
   @Override
   public String describe() {
     return String.format("Verify match '%s'", pattern);
   }
 
+  @Override
+  public boolean isIncremental() {
+    return true;
+  }
+
   @Override
   public Transformation reverse() {
     return new ExplicitReversal(IntentionalNoop.INSTANCE, this);
   }
 
   public static VerifyMatch create(Location location, String regEx, Glob paths,
-      boolean verifyNoMatch) throws EvalException {
+      boolean verifyNoMatch, WorkflowOptions workflowOptions) throws EvalException {
     Pattern parsed;
     try {
       parsed = Pattern.compile(regEx, Pattern.MULTILINE);
     } catch (PatternSyntaxException e) {
       throw new EvalException(location, String.format("Regex '%s' is invalid.", regEx), e);
     }
-    return new VerifyMatch(parsed, verifyNoMatch, paths);
+    return new VerifyMatch(parsed, verifyNoMatch, paths, workflowOptions);
   }
 }
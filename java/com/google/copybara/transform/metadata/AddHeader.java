@@ -92,4 +92,9 @@ public class AddHeader implements Transformation {
   public String describe() {
     return "Adding header to the message";
   }
+
+  @Override
+  public boolean isIncremental() {
+    return true;
+  }
 }
@@ -79,4 +79,9 @@ public class ExposeLabelInMessage implements Transformation {
   public String describe() {
     return String.format("Exposing label %s as %s", label, newLabelName);
   }
+
+  @Override
+  public boolean isIncremental() {
+    return true;
+  }
 }
@@ -139,6 +139,11 @@ public class MapAuthor implements Transformation {
     return "Mapping authors";
   }
 
+  @Override
+  public boolean isIncremental() {
+    return true;
+  }
+
   @Override
   public String toString() {
     return MoreObjects.toStringHelper(this)
@@ -128,4 +128,9 @@ public class MetadataSquashNotes implements Transformation {
   public String describe() {
     return "squash_notes";
   }
+
+  @Override
+  public boolean isIncremental() {
+    return true;
+  }
 }
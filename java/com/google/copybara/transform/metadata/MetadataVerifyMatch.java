@@ -65,4 +65,9 @@ public class MetadataVerifyMatch implements Transformation {
         (verifyNoMatch ? "does not match" : "matches"),
         pattern);
   }
+
+  @Override
+  public boolean isIncremental() {
+    return true;
+  }
 }
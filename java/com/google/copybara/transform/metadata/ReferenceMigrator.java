@@ -23,6 +23,7 @@ import com.google.common.base.Objects;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.copybara.ChangeVisitable;
+import com.google.copybara.ChangeVisitable.LabelValueIndex;
 import com.google.copybara.ChangeVisitable.VisitResult;
 import com.google.copybara.RepoException;
 import com.google.copybara.TransformWork;
@@ -129,6 +130,11 @@ public class ReferenceMigrator implements Transformation {
     return "map_references: " + before + " to " + after;
   }
 
+  @Override
+  public boolean isIncremental() {
+    return true;
+  }
+
   @Nullable
   private String findChange(final String refBeingMigrated,
       final String originLabel,
@@ -143,6 +149,14 @@ public class ReferenceMigrator implements Transformation {
       return knownChanges.get(refBeingMigrated);
     } else {
       try {
+        LabelValueIndex index = destinationReader.labelValueIndex(originLabels);
+        if (index != null) {
+          String found = index.findChange(refBeingMigrated);
+          if (found != null) {
+            knownChanges.put(refBeingMigrated, found);
+          }
+          return checkReversePattern(found);
+        }
         destinationReader.visitChangesWithAnyLabel(null, originLabels, (input, labels) -> {
           for (String labelValue : labels.values()) {
               knownChanges.putIfAbsent(labelValue, input.refAsString());
@@ -156,18 +170,22 @@ public class ReferenceMigrator implements Transformation {
             return VisitResult.CONTINUE;
           }
         });
-        String retVal = knownChanges.get(refBeingMigrated);
-        if (reversePattern != null && retVal != null && !reversePattern.matches(retVal)) {
-          throw new ValidationException(
-              String.format("Reference %s does not match regex '%s'", retVal, reversePattern));
-        }
-        return retVal;
+        return checkReversePattern(knownChanges.get(refBeingMigrated));
       } catch (RepoException exception) {
         throw new ValidationException("Exception finding reference.", exception);
       }
     }
   }
 
+  @Nullable
+  private String checkReversePattern(@Nullable String retVal) throws ValidationException {
+    if (reversePattern != null && retVal != null && !reversePattern.matches(retVal)) {
+      throw new ValidationException(
+          String.format("Reference %s does not match regex '%s'", retVal, reversePattern));
+    }
+    return retVal;
+  }
+
   @Override
   public String toString() {
     return MoreObjects.toStringHelper(this)
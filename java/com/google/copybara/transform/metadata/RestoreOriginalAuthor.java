@@ -71,4 +71,9 @@ public class RestoreOriginalAuthor implements Transformation {
   public String describe() {
     return "Restoring original author";
   }
+
+  @Override
+  public boolean isIncremental() {
+    return true;
+  }
 }
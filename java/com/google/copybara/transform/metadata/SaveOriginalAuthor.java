@@ -48,4 +48,9 @@ public class SaveOriginalAuthor implements Transformation {
   public String describe() {
     return "Saving original author";
   }
+
+  @Override
+  public boolean isIncremental() {
+    return true;
+  }
 }
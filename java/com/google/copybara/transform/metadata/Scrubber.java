@@ -62,4 +62,9 @@ public class Scrubber implements Transformation {
   public String describe() {
     return "Description scrubber";
   }
+
+  @Override
+  public boolean isIncremental() {
+    return true;
+  }
 }
@@ -68,4 +68,9 @@ public class UseLastChange implements Transformation {
   public String describe() {
     return "Use last change metadata";
   }
+
+  @Override
+  public boolean isIncremental() {
+    return true;
+  }
 }
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.treestate;
+
+import com.google.common.base.Preconditions;
+import com.google.copybara.treestate.TreeState.FileState;
+import com.google.copybara.util.FileUtil;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import javax.annotation.Nullable;
+
+/**
+ * The files of the checkout dir read so far, indexed by the directory walked for reading them.
+ *
+ * <p>Only the roots of the globs looked up are walked (See {@link FileUtil#walkRoots}), so that a
+ * lookup for {@code third_party/foo/**} doesn't read the whole checkout dir. Later lookups reuse
+ * the directories already walked.
+ */
+final class FileIndex {
+
+  private final Path checkoutDir;
+  // Walked directory to the files under it. None of the directories contains another one.
+  private final Map<Path, Map<Path, FileState>> roots = new HashMap<>();
+
+  FileIndex(Path checkoutDir) {
+    this.checkoutDir = Preconditions.checkNotNull(checkoutDir);
+  }
+
+  /**
+   * Creates a copy of {@code other} that shares the {@link FileState}s.
+   */
+  FileIndex(FileIndex other) {
+    this.checkoutDir = other.checkoutDir;
+    for (Entry<Path, Map<Path, FileState>> entry : other.roots.entrySet()) {
+      roots.put(entry.getKey(), new HashMap<>(entry.getValue()));
+    }
+  }
+
+  /**
+   * Returns true if no directory was walked.
+   */
+  boolean isEmpty() {
+    return roots.isEmpty();
+  }
+
+  /**
+   * Walks the roots of {@code pathMatcher} that were not walked yet.
+   */
+  void walk(PathMatcher pathMatcher) throws IOException {
+    for (Path root : FileUtil.walkRoots(checkoutDir, pathMatcher)) {
+      if (findRoot(root) != null) {
+        continue;
+      }
+      Map<Path, FileState> files = new HashMap<>();
+      // Directories walked under the new root are merged, keeping their file states
+      Iterator<Entry<Path, Map<Path, FileState>>> walked = roots.entrySet().iterator();
+      while (walked.hasNext()) {
+        Entry<Path, Map<Path, FileState>> entry = walked.next();
+        if (entry.getKey().startsWith(root)) {
+          files.putAll(entry.getValue());
+          walked.remove();
+        }
+      }
+      Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+          files.computeIfAbsent(file, k -> new FileState(file, attrs));
+          return FileVisitResult.CONTINUE;
+        }
+      });
+      roots.put(root, files);
+    }
+  }
+
+  /**
+   * Returns the files that match {@code pathMatcher}. Only looks at the directories walked by
+   * {@link #walk(PathMatcher)}.
+   */
+  List<FileState> find(PathMatcher pathMatcher) {
+    List<FileState> result = new ArrayList<>();
+    for (Path root : FileUtil.walkRoots(checkoutDir, pathMatcher)) {
+      Path walked = findRoot(root);
+      if (walked == null) {
+        continue;
+      }
+      for (FileState file : roots.get(walked).values()) {
+        if ((walked.equals(root) || file.getPath().startsWith(root))
+            && pathMatcher.matches(file.getPath())) {
+          result.add(file);
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Records {@code file}, if it is under a walked directory. Replaces the previous
+   * {@link FileState} of the same path, if any.
+   */
+  void put(FileState file) {
+    Path root = findRoot(file.getPath());
+    if (root != null) {
+      roots.get(root).put(file.getPath(), file);
+    }
+  }
+
+  /**
+   * Forgets the file in {@code path}, if it was recorded.
+   */
+  void remove(Path path) {
+    Path root = findRoot(path);
+    if (root != null) {
+      roots.get(root).remove(path);
+    }
+  }
+
+  /**
+   * Returns the walked directory that contains {@code path}, or null if there is none.
+   */
+  @Nullable
+  private Path findRoot(Path path) {
+    for (Path root : roots.keySet()) {
+      if (path.startsWith(root)) {
+        return root;
+      }
+    }
+    return null;
+  }
+}
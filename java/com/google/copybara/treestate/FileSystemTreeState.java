@@ -16,84 +16,74 @@
 
 package com.google.copybara.treestate;
 
-import static com.google.copybara.treestate.TreeStateUtil.filter;
-
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import java.io.IOException;
-import java.nio.file.FileVisitResult;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
-import java.nio.file.SimpleFileVisitor;
-import java.nio.file.attribute.BasicFileAttributes;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 /**
  * A {@link TreeState} imlementation that uses the {@code checkoutDir} filesystem for
  * looking for files.
+ *
+ * <p>Only the roots of the globs looked up are read, see {@link FileIndex}.
  */
 public class FileSystemTreeState implements TreeState {
 
   private final Path checkoutDir;
   private boolean fsRead = false;
   private boolean notified;
-  private Map<Path, FileState> files = new HashMap<>();
+  private final FileIndex files;
 
   private final LoadingCache<PathMatcher, List<FileState>> cachedMatches =
       CacheBuilder.newBuilder().maximumSize(5).build(
           new CacheLoader<PathMatcher, List<FileState>>() {
             @Override
             public List<FileState> load(PathMatcher pathMatcher) throws Exception {
-              return filter(pathMatcher, FileSystemTreeState.this.files.values());
+              return files.find(pathMatcher);
             }
           });
 
   public FileSystemTreeState(Path checkoutDir) {
     this.checkoutDir = checkoutDir;
+    this.files = new FileIndex(checkoutDir);
   }
 
   @Override
   public Iterable<FileState> find(PathMatcher pathMatcher) throws IOException {
-    if (!fsRead) {
-      files = readFileSystem();
-      fsRead = true;
-    }
+    files.walk(pathMatcher);
+    fsRead = true;
     return cachedMatches.getUnchecked(pathMatcher);
   }
 
-  private Map<Path, FileState> readFileSystem() throws IOException {
-    Map<Path, FileState> result = new HashMap<>();
-    Files.walkFileTree(checkoutDir, new SimpleFileVisitor<Path>() {
-      @Override
-      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
-          throws IOException {
-        result.put(file, new FileState(file));
-        return FileVisitResult.CONTINUE;
-      }
-    });
-    return result;
-  }
-
   @Override
   public void notifyModify(Iterable<FileState> paths) {
     notified = true;
     for (FileState path : paths) {
-      files.put(path.getPath(), path);
+      path.modified();
+      files.put(path);
     }
   }
 
   @Override
-  public void notifyAdd(Iterable<FileState> path) {
-    throw new UnsupportedOperationException("Not supported. Don't notify!");
+  public void notifyAdd(Iterable<Path> paths) {
+    notified = true;
+    for (Path path : paths) {
+      files.put(new FileState(path));
+    }
+    // The cached matches don't contain the new files
+    cachedMatches.invalidateAll();
   }
 
   @Override
-  public void notifyDelete(Iterable<FileState> path) {
-    throw new UnsupportedOperationException("Not supported. Don't notify!");
+  public void notifyDelete(Iterable<Path> paths) {
+    notified = true;
+    for (Path path : paths) {
+      files.remove(path);
+    }
+    cachedMatches.invalidateAll();
   }
 
   @Override
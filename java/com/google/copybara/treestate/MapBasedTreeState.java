@@ -16,46 +16,43 @@
 
 package com.google.copybara.treestate;
 
-import static com.google.copybara.treestate.TreeStateUtil.filter;
-
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 /**
  * A {@link TreeState} that uses a cached version of the filesystem for doing
- * lookups.
+ * lookups. Directories that were not read yet are read from the filesystem.
  */
 public class MapBasedTreeState implements TreeState {
 
   private boolean notified = false;
   private final Path checkoutDir;
-  private final Map<Path, FileState> files;
+  private final FileIndex files;
 
   private final LoadingCache<PathMatcher, List<FileState>> cachedMatches =
       CacheBuilder.newBuilder().maximumSize(10).build(
           new CacheLoader<PathMatcher, List<FileState>>() {
             @Override
             public List<FileState> load(PathMatcher pathMatcher) throws Exception {
-              return filter(pathMatcher, files.values());
+              return files.find(pathMatcher);
             }
           });
 
-  MapBasedTreeState(Path checkoutDir, Map<Path, FileState> files,
+  MapBasedTreeState(Path checkoutDir, FileIndex files,
       LoadingCache<PathMatcher, List<FileState>> cachedMatches) {
     this.checkoutDir = checkoutDir;
-    this.files = new HashMap<>(files);
+    this.files = new FileIndex(files);
     this.cachedMatches.putAll(cachedMatches.asMap());
   }
 
   @Override
   public Iterable<FileState> find(PathMatcher pathMatcher) throws IOException {
+    files.walk(pathMatcher);
     return cachedMatches.getUnchecked(pathMatcher);
   }
 
@@ -63,18 +60,28 @@ public class MapBasedTreeState implements TreeState {
   public void notifyModify(Iterable<FileState> paths) {
     notified = true;
     for (FileState fileState : paths) {
-      files.put(fileState.getPath(), fileState);
+      fileState.modified();
+      files.put(fileState);
     }
   }
 
   @Override
-  public void notifyAdd(Iterable<FileState> path) {
-    throw new UnsupportedOperationException("Not supported. Don't notify!");
+  public void notifyAdd(Iterable<Path> paths) {
+    notified = true;
+    for (Path path : paths) {
+      files.put(new FileState(path));
+    }
+    // The cached matches don't contain the new files
+    cachedMatches.invalidateAll();
   }
 
   @Override
-  public void notifyDelete(Iterable<FileState> path) {
-    throw new UnsupportedOperationException("Not supported. Don't notify!");
+  public void notifyDelete(Iterable<Path> paths) {
+    notified = true;
+    for (Path path : paths) {
+      files.remove(path);
+    }
+    cachedMatches.invalidateAll();
   }
 
   @Override
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.treestate;
+
+import static com.google.copybara.treestate.TreeStateUtil.filter;
+
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A {@link TreeState} that only contains a fixed set of files of the checkout dir: the ones that
+ * changed since a previous migration whose transformed tree is being reused.
+ *
+ * <p>The same instance is used for all the transformations, since the rest of the files already
+ * contain the transformed content and must not be transformed again.
+ */
+public class PartialTreeState implements TreeState {
+
+  private final Map<Path, FileState> files = new LinkedHashMap<>();
+
+  /**
+   * Creates a {@link TreeState} for {@code files}, that need to be absolute paths to existing
+   * files.
+   */
+  public PartialTreeState(Iterable<Path> files) {
+    for (Path file : files) {
+      this.files.put(file, new FileState(file));
+    }
+  }
+
+  @Override
+  public Iterable<FileState> find(PathMatcher pathMatcher) {
+    return filter(pathMatcher, files.values());
+  }
+
+  @Override
+  public void notifyModify(Iterable<FileState> paths) {
+    for (FileState fileState : paths) {
+      fileState.modified();
+    }
+  }
+
+  /**
+   * Transformations that add or delete files are not incremental, so workflows that use them never
+   * get a partial tree. If one still does, the files it adds come from the files being transformed
+   * and are transformed by the rest of transformations too.
+   */
+  @Override
+  public void notifyAdd(Iterable<Path> paths) {
+    for (Path path : paths) {
+      files.put(path, new FileState(path));
+    }
+  }
+
+  @Override
+  public void notifyDelete(Iterable<Path> paths) {
+    for (Path path : paths) {
+      files.remove(path);
+    }
+  }
+
+  @Override
+  public void notifyNoChange() {
+  }
+
+  @Override
+  public TreeState newTreeState() {
+    return this;
+  }
+
+  @Override
+  public boolean isPartial() {
+    return true;
+  }
+}
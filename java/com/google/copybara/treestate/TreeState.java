@@ -17,9 +17,17 @@
 package com.google.copybara.treestate;
 
 import com.google.common.base.Preconditions;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import javax.annotation.Nullable;
 
 /**
  * An object that allows to do potentially cached filesystem lookups.
@@ -32,19 +40,93 @@ public interface TreeState {
   /**
    * An object that contains a path found in the {@link TreeState}.
    *
-   * <p>Wrapped so that we can include things like the hash of the file in the future.
+   * <p>It records the size and last modified time of the file when it was found, and lazily
+   * computes a hash of its content. The hash is kept while the {@link TreeState} is reused by later
+   * transformations, so that they can skip work for content they have already processed, and it
+   * is discarded when the file is notified as modified.
    */
   class FileState {
+    private static final HashFunction CONTENT_HASH = Hashing.sha256();
+
     private final Path path;
+    @Nullable
+    private volatile BasicFileAttributes attributes;
+    @Nullable
+    private volatile HashCode contentHash;
 
     FileState(Path path) {
+      this(path, /*attributes=*/null);
+    }
+
+    FileState(Path path, @Nullable BasicFileAttributes attributes) {
       this.path = Preconditions.checkNotNull(path);
+      this.attributes = attributes;
     }
 
     public Path getPath() {
       return path;
     }
 
+    /**
+     * Size of the file, as recorded when found or after the last modification.
+     */
+    public long getSize() throws IOException {
+      return attributes().size();
+    }
+
+    /**
+     * Last modified time of the file, as recorded when found or after the last modification.
+     */
+    public FileTime getLastModifiedTime() throws IOException {
+      return attributes().lastModifiedTime();
+    }
+
+    private BasicFileAttributes attributes() throws IOException {
+      BasicFileAttributes result = attributes;
+      if (result == null) {
+        result = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        attributes = result;
+      }
+      return result;
+    }
+
+    /**
+     * Returns the hash of the content of the file if it is already known, or null otherwise.
+     */
+    @Nullable
+    public HashCode getCachedContentHash() {
+      return contentHash;
+    }
+
+    /**
+     * Returns the hash of the content of the file, reading the file if it is not known.
+     */
+    public HashCode getContentHash() throws IOException {
+      HashCode result = contentHash;
+      if (result == null) {
+        result = hashContent(Files.readAllBytes(path));
+      }
+      return result;
+    }
+
+    /**
+     * Records the hash of {@code content}, that has to be the current content of the file. Useful
+     * for avoiding reading the file twice when the caller already has the content.
+     */
+    public HashCode hashContent(byte[] content) {
+      HashCode result = CONTENT_HASH.hashBytes(content);
+      contentHash = result;
+      return result;
+    }
+
+    /**
+     * Discards the recorded attributes and hash because the file was modified.
+     */
+    void modified() {
+      attributes = null;
+      contentHash = null;
+    }
+
     @Override
     public boolean equals(Object o) {
       if (this == o) {
@@ -69,19 +151,21 @@ public interface TreeState {
   Iterable<FileState> find(PathMatcher pathMatcher) throws IOException;
 
   /**
-   * Notify the {@link TreeState} that {@code paths} have been modified.
+   * Notify the {@link TreeState} that {@code paths} have been modified. Any recorded attribute or
+   * hash for those files is discarded.
    */
   void notifyModify(Iterable<FileState> paths);
 
   /**
-   * Not implemented for now.
+   * Notify the {@link TreeState} that the files in {@code paths} have been created, or replaced if
+   * they already existed.
    */
-  void notifyAdd(Iterable<FileState> path);
+  void notifyAdd(Iterable<Path> paths);
 
   /**
-   * Not implemented for now.
+   * Notify the {@link TreeState} that the files in {@code paths} have been deleted.
    */
-  void notifyDelete(Iterable<FileState> path);
+  void notifyDelete(Iterable<Path> paths);
 
   void notifyNoChange();
 
@@ -91,4 +175,13 @@ public interface TreeState {
    * FileSystem based TreeState.
    */
   TreeState newTreeState();
+
+  /**
+   * Returns true if this {@link TreeState} only contains a subset of the files of the checkout dir,
+   * like the ones that changed since a previous migration. Transformations shouldn't consider that
+   * not finding or not modifying any file is a no-op in that case.
+   */
+  default boolean isPartial() {
+    return false;
+  }
 }
@@ -27,7 +27,6 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -43,6 +42,12 @@ public final class CommandUtil {
    */
   public static final byte[] NO_INPUT = new byte[]{};
 
+  /**
+   * Maximum number of bytes of each output of a command that are logged, and kept when the output
+   * is streamed.
+   */
+  public static final int MAX_KEPT_OUTPUT_BYTES = 64 * 1024;
+
   private CommandUtil() {}
 
   /**
@@ -60,6 +65,46 @@ public final class CommandUtil {
    */
   public static CommandOutputWithStatus executeCommand(
       Command cmd, byte[] input, boolean verbose) throws CommandException {
+    ByteArrayOutputStream stdoutCollector = new ByteArrayOutputStream();
+    ByteArrayOutputStream stderrCollector = new ByteArrayOutputStream();
+    try {
+      TerminationStatus exitStatus =
+          execute(cmd, input, verbose, stdoutCollector, stderrCollector, new OutputTail());
+      return new CommandOutputWithStatus(
+          exitStatus,
+          stdoutCollector.toByteArray(),
+          stderrCollector.toByteArray());
+    } catch (BadExitStatusException e) {
+      throw new BadExitStatusWithOutputException(e.getCommand(), e.getResult(), e.getMessage(),
+          stdoutCollector.toByteArray(),
+          stderrCollector.toByteArray());
+    }
+  }
+
+  /**
+   * Executes a {@link Command} with the given input, writing its output to {@code stdout} and
+   * {@code stderr} while the command produces it instead of collecting it in memory. The output
+   * streams are not closed.
+   *
+   * <p>Only the last {@link #MAX_KEPT_OUTPUT_BYTES} bytes of each output are kept, for logging and
+   * for the returned {@link CommandOutputWithStatus}, or the
+   * {@link BadExitStatusWithOutputException} thrown if the command fails.
+   */
+  public static CommandOutputWithStatus executeCommandStreaming(Command cmd, byte[] input,
+      boolean verbose, OutputStream stdout, OutputStream stderr) throws CommandException {
+    OutputTail tail = new OutputTail();
+    try {
+      TerminationStatus exitStatus = execute(cmd, input, verbose, stdout, stderr, tail);
+      return new CommandOutputWithStatus(
+          exitStatus, tail.stdout.toByteArray(), tail.stderr.toByteArray());
+    } catch (BadExitStatusException e) {
+      throw new BadExitStatusWithOutputException(e.getCommand(), e.getResult(), e.getMessage(),
+          tail.stdout.toByteArray(), tail.stderr.toByteArray());
+    }
+  }
+
+  private static TerminationStatus execute(Command cmd, byte[] input, boolean verbose,
+      OutputStream stdout, OutputStream stderr, OutputTail tail) throws CommandException {
     Stopwatch stopwatch = Stopwatch.createStarted();
     String startMsg = "Executing ["
         + ShellUtils.prettyPrintArgv(Arrays.asList(cmd.getCommandLineElements())) + "]";
@@ -67,33 +112,26 @@ public final class CommandUtil {
     if (verbose) {
       System.err.println(startMsg);
     }
-    ByteArrayOutputStream stdoutCollector = new ByteArrayOutputStream();
-    ByteArrayOutputStream stderrCollector = new ByteArrayOutputStream();
-
-    FutureCommandResult cmdResult;
+    OutputStream stdoutSink = new DemultiplexOutputStream(stdout, tail.stdout);
+    OutputStream stderrSink = new DemultiplexOutputStream(stderr, tail.stderr);
 
     TerminationStatus exitStatus = null;
     try {
-      cmdResult = cmd.executeAsync(new ByteArrayInputStream(input),
-          verbose ? new DemultiplexOutputStream(System.err, stdoutCollector) : stdoutCollector,
-          verbose ? new DemultiplexOutputStream(System.err, stderrCollector) : stderrCollector,
+      FutureCommandResult cmdResult = cmd.executeAsync(new ByteArrayInputStream(input),
+          verbose ? new DemultiplexOutputStream(System.err, stdoutSink) : stdoutSink,
+          verbose ? new DemultiplexOutputStream(System.err, stderrSink) : stderrSink,
           /*killSubprocessOnInterrupt*/ true);
       exitStatus = cmdResult.get().getTerminationStatus();
-      return new CommandOutputWithStatus(
-          exitStatus,
-          stdoutCollector.toByteArray(),
-          stderrCollector.toByteArray());
+      return exitStatus;
     } catch (BadExitStatusException e) {
       exitStatus = e.getResult().getTerminationStatus();
-      throw new BadExitStatusWithOutputException(e.getCommand(), e.getResult(), e.getMessage(),
-          stdoutCollector.toByteArray(),
-          stderrCollector.toByteArray());
+      throw e;
     } finally {
       String finishMsg = "Command '" + cmd.getCommandLineElements()[0] + "' finished in "
           + stopwatch + ". " + (exitStatus != null ? exitStatus.toString() : "(No exit status)");
 
-      logOutput(Level.INFO, cmd, "STDOUT", stdoutCollector);
-      logOutput(Level.INFO, cmd, "STDERR", stderrCollector);
+      logOutput(Level.INFO, cmd, "STDOUT", tail.stdout);
+      logOutput(Level.INFO, cmd, "STDERR", tail.stderr);
       logger.log(Level.INFO, finishMsg);
 
       if (verbose) {
@@ -106,19 +144,29 @@ public final class CommandUtil {
    * Log to the appropiate log level the output of the command
    */
   private static void logOutput(Level level, Command cmd, final String outputType,
-      ByteArrayOutputStream outputBytes) {
+      RingBufferOutputStream output) {
 
-    String string = asString(outputBytes).trim();
+    String string = output.toString().trim();
     if (string.isEmpty()) {
       return;
     }
+    if (output.getDiscardedBytes() > 0) {
+      logger.log(level, "'" + cmd.getCommandLineElements()[0] + "' " + outputType + ": ("
+          + output.getDiscardedBytes() + " bytes not logged)");
+    }
     for (String line : string.split(System.lineSeparator())) {
       logger.log(level, "'" + cmd.getCommandLineElements()[0] + "' " + outputType + ": " + line);
     }
   }
 
-  private static String asString(ByteArrayOutputStream outputBytes) {
-    return new String(outputBytes.toByteArray(), StandardCharsets.UTF_8);
+  /**
+   * The last bytes of the output of a command.
+   */
+  private static final class OutputTail {
+    private final RingBufferOutputStream stdout =
+        new RingBufferOutputStream(MAX_KEPT_OUTPUT_BYTES);
+    private final RingBufferOutputStream stderr =
+        new RingBufferOutputStream(MAX_KEPT_OUTPUT_BYTES);
   }
 
   /**
@@ -0,0 +1,306 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.util;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableSet;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * A {@link GlobPathMatcher} for a list of include globs and an optional exclude matcher.
+ *
+ * <p>The leading literal segments of the include globs are stored in a trie, so that globs with
+ * a common prefix share the lookups. The rest of each glob is classified so that the common
+ * cases (an exact path, {@code dir/**}, {@code dir/*.ext} and {@code dir/**}{@code /*.ext}) are
+ * matched with string comparisons. Any other glob falls back to the {@link PathMatcher} of the
+ * file system.
+ */
+final class CompiledGlobMatcher extends GlobPathMatcher {
+
+  private static final CharMatcher META = CharMatcher.anyOf("*?[]{}\\");
+
+  private final Path base;
+  private final ImmutableSet<Path> roots;
+  private final String baseString;
+  // The prefix of the paths under base
+  private final String root;
+  private final Node trie = new Node();
+  @Nullable private final GlobPathMatcher exclude;
+  private final String toString;
+
+  CompiledGlobMatcher(Path base, Iterable<String> include, Iterable<String> roots,
+      @Nullable GlobPathMatcher exclude, String toString) {
+    super(base.normalize());
+    this.base = base.normalize();
+    this.roots = resolveRoots(this.base, roots);
+    this.baseString = this.base.toString();
+    String separator = base.getFileSystem().getSeparator();
+    this.root = baseString.endsWith(separator) ? baseString : baseString + separator;
+    this.exclude = exclude;
+    this.toString = Preconditions.checkNotNull(toString);
+    // Other separators are matched only by the file system PathMatcher
+    boolean compile = separator.equals("/");
+    for (String glob : include) {
+      add(glob, compile);
+    }
+  }
+
+  private void add(String glob, boolean compile) {
+    List<String> segments = Splitter.on('/').splitToList(glob);
+    Node node = trie;
+    int literal = 0;
+    if (compile) {
+      while (literal < segments.size() && isLiteral(segments.get(literal))) {
+        node = node.children.computeIfAbsent(segments.get(literal), k -> new Node());
+        literal++;
+      }
+    }
+    if (literal == segments.size()) {
+      node.rules.add(new Rule(Kind.EXACT, /*suffix=*/null, /*fallback=*/null));
+      return;
+    }
+    String rest = Joiner.on('/').join(segments.subList(literal, segments.size()));
+    if (compile && rest.equals("**")) {
+      node.rules.add(new Rule(Kind.ANY, /*suffix=*/null, /*fallback=*/null));
+    } else if (compile && rest.startsWith("**/*") && isLiteralSuffix(rest.substring(4))) {
+      node.rules.add(new Rule(Kind.DEEP_SUFFIX, rest.substring(4), /*fallback=*/null));
+    } else if (compile && rest.startsWith("*") && isLiteralSuffix(rest.substring(1))) {
+      node.rules.add(new Rule(Kind.CHILD_SUFFIX, rest.substring(1), /*fallback=*/null));
+    } else {
+      node.rules.add(new Rule(Kind.OTHER, rest, ReadablePathMatcher.relativeGlob(base, glob)));
+    }
+  }
+
+  private static boolean isLiteral(String segment) {
+    return !segment.isEmpty() && META.matchesNoneOf(segment);
+  }
+
+  private static boolean isLiteralSuffix(String suffix) {
+    return META.matchesNoneOf(suffix) && suffix.indexOf('/') == -1;
+  }
+
+  @Override
+  public boolean matches(Path path) {
+    String relative = relativize(path);
+    if (relative == null) {
+      return false;
+    }
+    return includes(relative, path) && (exclude == null || !exclude.matches(path));
+  }
+
+  private boolean includes(String relative, Path path) {
+    Node node = trie;
+    String rest = relative;
+    while (true) {
+      for (Rule rule : node.rules) {
+        if (rule.matches(rest, path)) {
+          return true;
+        }
+      }
+      if (rest.isEmpty()) {
+        return false;
+      }
+      int slash = rest.indexOf('/');
+      node = node.children.get(slash == -1 ? rest : rest.substring(0, slash));
+      if (node == null) {
+        return false;
+      }
+      rest = slash == -1 ? "" : rest.substring(slash + 1);
+    }
+  }
+
+  @Override
+  public boolean mayMatchUnder(Path dir) {
+    String relative = relativize(dir);
+    if (relative == null) {
+      // Only a directory containing base can have matching files
+      return base.startsWith(dir);
+    }
+    return mayIncludeUnder(relative) && (exclude == null || !exclude.matchesAllUnder(dir));
+  }
+
+  private boolean mayIncludeUnder(String relative) {
+    Node node = trie;
+    String rest = relative;
+    while (true) {
+      if (rest.isEmpty()) {
+        // Some glob continues under this node
+        if (!node.children.isEmpty()) {
+          return true;
+        }
+        for (Rule rule : node.rules) {
+          if (rule.kind != Kind.EXACT) {
+            return true;
+          }
+        }
+        return false;
+      }
+      for (Rule rule : node.rules) {
+        if (rule.mayMatchBelow(rest)) {
+          return true;
+        }
+      }
+      int slash = rest.indexOf('/');
+      node = node.children.get(slash == -1 ? rest : rest.substring(0, slash));
+      if (node == null) {
+        return false;
+      }
+      rest = slash == -1 ? "" : rest.substring(slash + 1);
+    }
+  }
+
+  @Override
+  public boolean matchesAllUnder(Path dir) {
+    String relative = relativize(dir);
+    if (relative == null) {
+      return false;
+    }
+    return includesAllUnder(relative) && (exclude == null || !exclude.mayMatchUnder(dir));
+  }
+
+  private boolean includesAllUnder(String relative) {
+    Node node = trie;
+    String rest = relative;
+    while (true) {
+      for (Rule rule : node.rules) {
+        if (rule.kind == Kind.ANY
+            // 'dir/**/*' matches everything at least two levels under 'dir'
+            || (rule.kind == Kind.DEEP_SUFFIX && rule.suffix.isEmpty() && !rest.isEmpty())) {
+          return true;
+        }
+      }
+      if (rest.isEmpty()) {
+        return false;
+      }
+      int slash = rest.indexOf('/');
+      node = node.children.get(slash == -1 ? rest : rest.substring(0, slash));
+      if (node == null) {
+        return false;
+      }
+      rest = slash == -1 ? "" : rest.substring(slash + 1);
+    }
+  }
+
+  @Override
+  public ImmutableSet<Path> roots() {
+    return roots;
+  }
+
+  /**
+   * Returns the path relative to base, using the same string comparison as the file system
+   * {@link PathMatcher}, or null if the path is not under base.
+   */
+  @Nullable
+  private String relativize(Path path) {
+    String str = path.toString();
+    if (str.equals(baseString)) {
+      return "";
+    }
+    return str.startsWith(root) ? str.substring(root.length()) : null;
+  }
+
+  @Override
+  public String toString() {
+    return toString;
+  }
+
+  private static final class Node {
+
+    private final Map<String, Node> children = new HashMap<>();
+    private final List<Rule> rules = new ArrayList<>();
+  }
+
+  private enum Kind {
+    /** The literal prefix is the whole glob. */
+    EXACT,
+    /** {@code **}: anything under the prefix. */
+    ANY,
+    /** {@code *suffix}: a direct child of the prefix. */
+    CHILD_SUFFIX,
+    /** <code>**&#47;*suffix</code>: a file at least two levels under the prefix. */
+    DEEP_SUFFIX,
+    /** Anything else, matched by the file system {@link PathMatcher}. */
+    OTHER,
+  }
+
+  private static final class Rule {
+
+    private final Kind kind;
+    // The literal suffix, or the rest of the glob for OTHER
+    @Nullable private final String suffix;
+    @Nullable private final PathMatcher fallback;
+    // Maximum number of segments matched by an OTHER glob, or -1 if unbounded
+    private final int maxSegments;
+
+    private Rule(Kind kind, @Nullable String suffix, @Nullable PathMatcher fallback) {
+      this.kind = kind;
+      this.suffix = suffix;
+      this.fallback = fallback;
+      this.maxSegments = kind != Kind.OTHER || suffix.contains("**") || suffix.contains("{")
+          || suffix.contains("[")
+          ? -1
+          : CharMatcher.is('/').countIn(suffix) + 1;
+    }
+
+    /**
+     * Returns true if {@code rest}, the path relative to the node of the rule, matches.
+     */
+    private boolean matches(String rest, Path path) {
+      switch (kind) {
+        case EXACT:
+          return rest.isEmpty();
+        case ANY:
+          return !rest.isEmpty();
+        case CHILD_SUFFIX:
+          return !rest.isEmpty() && rest.indexOf('/') == -1 && rest.endsWith(suffix);
+        case DEEP_SUFFIX:
+          return rest.indexOf('/') != -1 && rest.endsWith(suffix);
+        case OTHER:
+          return fallback.matches(path);
+      }
+      throw new IllegalStateException(kind.toString());
+    }
+
+    /**
+     * Returns false if no file under {@code rest}, a directory strictly under the node of the
+     * rule, can match.
+     */
+    private boolean mayMatchBelow(String rest) {
+      switch (kind) {
+        case EXACT:
+        case CHILD_SUFFIX:
+          return false;
+        case ANY:
+        case DEEP_SUFFIX:
+          return true;
+        case OTHER:
+          // The files under rest have at least one more segment
+          return maxSegments == -1 || CharMatcher.is('/').countIn(rest) + 2 <= maxSegments;
+      }
+      throw new IllegalStateException(kind.toString());
+    }
+  }
+}
@@ -20,12 +20,19 @@ import com.google.common.base.Preconditions;
 import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.io.ByteStreams;
 import com.google.copybara.util.console.AnsiColor;
 import com.google.copybara.util.console.Console;
 import com.google.devtools.build.lib.shell.Command;
 import com.google.devtools.build.lib.shell.CommandException;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+import javax.annotation.Nullable;
 
 /**
  * Diff utilities that are repository-agnostic.
@@ -34,6 +41,11 @@ public class DiffUtil {
 
   private static final byte[] EMPTY_DIFF = new byte[]{};
 
+  /**
+   * When more files differ, the whole trees are diffed with a single 'git diff'.
+   */
+  private static final int MAX_FILES_TO_DIFF_SEPARATELY = 100;
+
   /**
    * Calculates the diff between two sibling directory trees.
    *
@@ -41,17 +53,62 @@ public class DiffUtil {
    * fed directly into {@link DiffUtil#patch}.
    */
   public static byte[] diff(Path one, Path other, boolean verbose) throws IOException {
+    checkSiblings(one, other);
+    Path root = one.getParent();
+    return gitDiff(root, root.relativize(one).toString(), root.relativize(other).toString(),
+        verbose);
+  }
+
+  /**
+   * Like {@link #diff(Path, Path, boolean)}, but the trees are compared in the JVM first, in
+   * parallel using {@code pool} or sequentially if it is null. 'git diff' is only run for the
+   * files that differ, so no process is started for identical trees.
+   */
+  public static byte[] diff(Path one, Path other, boolean verbose, @Nullable ForkJoinPool pool)
+      throws IOException {
+    checkSiblings(one, other);
+    ImmutableSortedSet<String> changed = TreeComparator.changedFiles(one, other, pool);
+    if (changed.isEmpty()) {
+      return EMPTY_DIFF;
+    }
+    if (changed.size() > MAX_FILES_TO_DIFF_SEPARATELY) {
+      return diff(one, other, verbose);
+    }
+    Path root = one.getParent();
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    for (String file : changed) {
+      result.write(gitDiff(root, diffPath(root, one, file), diffPath(root, other, file), verbose));
+    }
+    return result.toByteArray();
+  }
+
+  private static void checkSiblings(Path one, Path other) {
     Preconditions.checkArgument(one.getParent().equals(other.getParent()),
         "Paths 'one' and 'other' must be sibling directories.");
-    Path root = one.getParent();
-    String[] params = new String[] {
-        "git", "diff", "--no-color", "--",
-        root.relativize(one).toString(),
-        root.relativize(other).toString()
-    };
+  }
+
+  /**
+   * Returns the path of {@code file} in {@code tree} relative to {@code root}, or /dev/null if
+   * the file doesn't exist in the tree (or it is a directory).
+   */
+  private static String diffPath(Path root, Path tree, String file) {
+    Path path = tree.resolve(file);
+    if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)
+        || Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+      return "/dev/null";
+    }
+    return root.relativize(path).toString();
+  }
+
+  private static byte[] gitDiff(Path root, String one, String other, boolean verbose)
+      throws IOException {
+    String[] params = new String[] {"git", "diff", "--no-color", "--", one, other};
     Command cmd = new Command(params, /*envVars*/ null, root.toFile());
+    // Only the returned diff is kept in memory
+    ByteArrayOutputStream stdout = new ByteArrayOutputStream();
     try {
-      CommandUtil.executeCommand(cmd, verbose);
+      CommandUtil.executeCommandStreaming(
+          cmd, CommandUtil.NO_INPUT, verbose, stdout, ByteStreams.nullOutputStream());
       return EMPTY_DIFF;
     } catch (BadExitStatusWithOutputException e) {
       CommandOutput output = e.getOutput();
@@ -60,7 +117,7 @@ public class DiffUtil {
         throw new IOException(String.format(
             "Error executing 'git diff': %s. Stderr: \n%s", e.getMessage(), output.getStderr()), e);
       }
-      return output.getStdoutBytes();
+      return stdout.toByteArray();
     } catch (CommandException e) {
       throw new IOException("Error executing 'patch'", e);
     }
@@ -92,7 +149,8 @@ public class DiffUtil {
     Command cmd =
         new Command(params.build().toArray(new String[0]), /*envVars*/ null, rootDir.toFile());
     try {
-      CommandUtil.executeCommand(cmd, diffContents, verbose);
+      CommandUtil.executeCommandStreaming(cmd, diffContents, verbose,
+          ByteStreams.nullOutputStream(), ByteStreams.nullOutputStream());
     } catch (BadExitStatusWithOutputException e) {
       throw new IOException(
           "Error executing 'git apply': " + e.getMessage()
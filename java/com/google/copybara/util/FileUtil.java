@@ -28,21 +28,22 @@ import com.google.common.io.MoreFiles;
 import com.google.common.io.RecursiveDeleteOption;
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.FileVisitResult;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
-import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.PosixFilePermission;
 import java.util.LinkedHashSet;
-import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
+import javax.annotation.Nullable;
 
 /**
  * Utility methods for files
@@ -97,6 +98,11 @@ public final class FileUtil {
     copyFilesRecursively(from, to, symlinkStrategy, Glob.ALL_FILES);
   }
 
+  public static void copyFilesRecursively(final Path from, final Path to,
+      CopySymlinkStrategy symlinkStrategy, Glob glob) throws IOException {
+    copyFilesRecursively(from, to, symlinkStrategy, glob, /*pool=*/null);
+  }
+
   /**
    * Copies files from {@code from} directory to {@code to} directory. If any file exist in the
    * destination it fails instead of overwriting.
@@ -109,39 +115,151 @@ public final class FileUtil {
    *
    * <p>Symlinks that escape the {@code from} directory or that target absolute paths are treated
    * according to {@code symlinkStrategy}.
+   *
+   * <p>The files are copied in parallel using {@code pool}, or sequentially if it is null.
    */
   public static void copyFilesRecursively(final Path from, final Path to,
-      CopySymlinkStrategy symlinkStrategy, Glob glob) throws IOException {
+      CopySymlinkStrategy symlinkStrategy, Glob glob, @Nullable ForkJoinPool pool)
+      throws IOException {
+    copyFilesRecursively(from, to, symlinkStrategy, glob, pool, CopyMode.COPY);
+  }
+
+  /**
+   * Like {@link #copyFilesRecursively(Path, Path, CopySymlinkStrategy, Glob, ForkJoinPool)}, but
+   * the regular files are created as specified by {@code copyMode}.
+   */
+  public static void copyFilesRecursively(final Path from, final Path to,
+      CopySymlinkStrategy symlinkStrategy, Glob glob, @Nullable ForkJoinPool pool,
+      CopyMode copyMode) throws IOException {
     checkArgument(Files.isDirectory(from), "%s (from) is not a directory");
     checkArgument(Files.isDirectory(to), "%s (to) is not a directory");
 
     // Optimization to skip folders that will be skipped. This works well for huge file trees
     // where we have a very specific Glob ( foo/bar/**).
     for (String root : glob.roots()) {
-      Files.walkFileTree(from.resolve(root),
+      ParallelFileWalker.walk(from.resolve(root),
           new CopyVisitor(from.resolve(root), to.resolve(root), symlinkStrategy,
               // The PathMatcher matches destination files so that it can work with
               // absolute symlink materialization (We create a new CopyVisitor with the
               // resolved symlink as origin.
-              glob.relativeTo(to)));
+              glob.relativeTo(to), pool,
+              copyMode == CopyMode.HARDLINK && canDetectHardLinks(to)), pool);
+    }
+  }
+
+  /**
+   * Writes {@code content} to {@code file}. If the file is a hard link shared with other paths,
+   * like the ones created by {@link CopyMode#HARDLINK}, the file is replaced with a new one with
+   * the same permissions instead of modifying the content of the other paths.
+   */
+  public static void write(Path file, byte[] content) throws IOException {
+    if (!isSharedHardLink(file)) {
+      Files.write(file, content);
+      return;
+    }
+    Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(file);
+    Files.delete(file);
+    Files.write(file, content);
+    Files.setPosixFilePermissions(file, permissions);
+  }
+
+  private static boolean isSharedHardLink(Path file) throws IOException {
+    return canDetectHardLinks(file)
+        && (Integer) Files.getAttribute(file, "unix:nlink", LinkOption.NOFOLLOW_LINKS) > 1;
+  }
+
+  private static boolean canDetectHardLinks(Path path) {
+    return path.getFileSystem().supportedFileAttributeViews().contains("unix");
+  }
+
+  /**
+   * Returns the directories under {@code path} where the files matching {@code pathMatcher} can
+   * be: the roots of a {@link GlobPathMatcher} that exist, or {@code path} itself for any other
+   * matcher, if a root contains it or if a root is under a symlink. None of the returned
+   * directories contains another one.
+   */
+  public static ImmutableList<Path> walkRoots(Path path, PathMatcher pathMatcher) {
+    if (!(pathMatcher instanceof GlobPathMatcher)) {
+      return ImmutableList.of(path);
+    }
+    ImmutableList.Builder<Path> result = ImmutableList.builder();
+    for (Path root : ((GlobPathMatcher) pathMatcher).roots()) {
+      if (path.startsWith(root)) {
+        return ImmutableList.of(path);
+      }
+      if (root.startsWith(path) && Files.exists(root, LinkOption.NOFOLLOW_LINKS)) {
+        if (!isUnderRealDirectories(path, root)) {
+          // Walking the root would follow the symlink, like a full walk from path never does
+          return ImmutableList.of(path);
+        }
+        result.add(root);
+      }
+    }
+    return result.build();
+  }
+
+  /**
+   * Returns true if all the parents of {@code root} under {@code path} are directories and not
+   * symlinks.
+   */
+  private static boolean isUnderRealDirectories(Path path, Path root) {
+    for (Path dir = root.getParent(); dir != null && !dir.equals(path); dir = dir.getParent()) {
+      if (!Files.isDirectory(dir, LinkOption.NOFOLLOW_LINKS)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Walks the file tree under {@code path}, but only the directories returned by
+   * {@link #walkRoots(Path, PathMatcher)}. The directories where {@code pathMatcher} cannot
+   * match are skipped.
+   */
+  private static void walkFileTree(Path path, PathMatcher pathMatcher,
+      MatchingFileVisitor visitor,
+      @Nullable ForkJoinPool pool) throws IOException {
+    for (Path root : walkRoots(path, pathMatcher)) {
+      ParallelFileWalker.walk(root, new ParallelFileWalker.Visitor() {
+        @Override
+        public boolean preVisitDirectory(Path dir) {
+          return mayMatchUnder(pathMatcher, dir);
+        }
+
+        @Override
+        public void visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+          if (pathMatcher.matches(file)) {
+            visitor.visit(file);
+          }
+        }
+      }, pool);
     }
   }
 
+  /**
+   * A visitor of the files that match a {@link PathMatcher}.
+   */
+  private interface MatchingFileVisitor {
+    void visit(Path file) throws IOException;
+  }
+
   /**
    * Adds the given permissions to the matching files under the given path.
    */
   public static void addPermissionsRecursively(
       Path path, Set<PosixFilePermission> permissionsToAdd, final PathMatcher pathMatcher)
       throws IOException {
-    Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
-      @Override
-      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-        if (pathMatcher.matches(file)) {
-          addPermissions(file, permissionsToAdd);
-        }
-        return FileVisitResult.CONTINUE;
-      }
-    });
+    addPermissionsRecursively(path, permissionsToAdd, pathMatcher, /*pool=*/null);
+  }
+
+  /**
+   * Adds the given permissions to the matching files under the given path, in parallel using
+   * {@code pool}, or sequentially if it is null.
+   */
+  public static void addPermissionsRecursively(Path path,
+      Set<PosixFilePermission> permissionsToAdd, PathMatcher pathMatcher,
+      @Nullable ForkJoinPool pool) throws IOException {
+    walkFileTree(path, pathMatcher, file -> addPermissions(file, permissionsToAdd), pool);
   }
 
   /**
@@ -152,8 +270,14 @@ public final class FileUtil {
     addPermissionsRecursively(path, permissionsToAdd, ALL_FILES);
   }
 
+  public static int deleteFilesRecursively(Path path, final PathMatcher pathMatcher)
+      throws IOException {
+    return deleteFilesRecursively(path, pathMatcher, /*pool=*/null);
+  }
+
   /**
-   * Deletes the files that match the PathMatcher.
+   * Deletes the files that match the PathMatcher, in parallel using {@code pool}, or
+   * sequentially if it is null.
    *
    * <p> Note that this method doesn't delete the directories, only the files inside those
    * directories. This is fine for our use case since the majority of SCMs don't care about empty
@@ -161,20 +285,13 @@ public final class FileUtil {
    *
    * @throws IOException If it fails traversing or deleting the tree.
    */
-  public static int deleteFilesRecursively(Path path, final PathMatcher pathMatcher)
-      throws IOException {
+  public static int deleteFilesRecursively(Path path, PathMatcher pathMatcher,
+      @Nullable ForkJoinPool pool) throws IOException {
     final AtomicInteger counter = new AtomicInteger();
-    Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
-
-      @Override
-      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-        if (pathMatcher.matches(file)) {
-          Files.delete(file);
-          counter.incrementAndGet();
-        }
-        return FileVisitResult.CONTINUE;
-      }
-    });
+    walkFileTree(path, pathMatcher, file -> {
+      Files.delete(file);
+      counter.incrementAndGet();
+    }, pool);
     return counter.get();
   }
 
@@ -195,17 +312,48 @@ public final class FileUtil {
   }
 
   /**
-   * A {@link PathMatcher} that returns true if any of the delegate {@code pathMatchers} returns
-   * true.
+   * Delete all the contents of a path recursively, in parallel using {@code pool}. Symlinks are
+   * deleted, not followed. If {@code pool} is null, it is the same as
+   * {@link #deleteRecursively(Path)}.
+   *
+   * <p>Unlike {@link #deleteRecursively(Path)}, this doesn't use a secure directory stream, so it
+   * should only be used for directories owned by Copybara, like the workdir.
    */
-  static PathMatcher anyPathMatcher(final ImmutableList<PathMatcher> pathMatchers) {
-    return new AnyPathMatcher(pathMatchers);
+  public static void deleteRecursively(Path path, @Nullable ForkJoinPool pool)
+      throws IOException {
+    if (pool == null) {
+      deleteRecursively(path);
+      return;
+    }
+    ParallelFileWalker.walk(path, new ParallelFileWalker.Visitor() {
+      @Override
+      public void visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        Files.delete(file);
+      }
+
+      @Override
+      public void postVisitDirectory(Path dir) throws IOException {
+        Files.delete(dir);
+      }
+    }, pool);
+  }
+
+  /**
+   * Returns false if {@code pathMatcher} is a {@link GlobPathMatcher} that cannot match any file
+   * under {@code dir}.
+   */
+  private static boolean mayMatchUnder(PathMatcher pathMatcher, Path dir) {
+    return !(pathMatcher instanceof GlobPathMatcher)
+        || ((GlobPathMatcher) pathMatcher).mayMatchUnder(dir);
   }
 
   /**
    * Returns {@link PathMatcher} that negates {@code pathMatcher}
    */
   public static PathMatcher notPathMatcher(final PathMatcher pathMatcher) {
+    if (pathMatcher instanceof GlobPathMatcher) {
+      return ((GlobPathMatcher) pathMatcher).negate();
+    }
     return new PathMatcher() {
       @Override
       public boolean matches(Path path) {
@@ -234,29 +382,58 @@ public final class FileUtil {
     FAIL_OUTSIDE_SYMLINKS,
   }
 
+  /**
+   * How the regular files are created by {@link #copyFilesRecursively}.
+   */
+  public enum CopyMode {
+    /**
+     * Copy the content of the files.
+     */
+    COPY,
+    /**
+     * Create hard links to the files, so that their content is not copied. Copies the files if
+     * the file system doesn't support hard links. Materialized symlinks are always copied.
+     *
+     * <p>The files have to be modified using {@link #write(Path, byte[])} or replaced, so that
+     * the changes don't affect the other copy.
+     */
+    HARDLINK,
+  }
+
   /**
    * A visitor that copies files recursively. If symlinks are found, and are relative to 'from'
    * they symlink is maintained, unless forceCopySymlinks is set.
    */
-  private static class CopyVisitor extends SimpleFileVisitor<Path> {
+  private static class CopyVisitor implements ParallelFileWalker.Visitor {
 
     private final Path to;
     private final Path from;
     private final CopySymlinkStrategy symlinkStrategy;
     private final PathMatcher pathMatcher;
+    @Nullable private final ForkJoinPool pool;
+    // Set to false after the first failure to create a hard link
+    private volatile boolean hardLinks;
 
-    CopyVisitor(Path from, Path to, CopySymlinkStrategy symlinkStrategy, PathMatcher pathMatcher) {
+    CopyVisitor(Path from, Path to, CopySymlinkStrategy symlinkStrategy, PathMatcher pathMatcher,
+        @Nullable ForkJoinPool pool, boolean hardLinks) {
       this.to = to;
       this.from = from;
       this.symlinkStrategy = symlinkStrategy;
       this.pathMatcher = pathMatcher;
+      this.pool = pool;
+      this.hardLinks = hardLinks;
     }
 
     @Override
-    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+    public boolean preVisitDirectory(Path dir) {
+      return mayMatchUnder(pathMatcher, to.resolve(from.relativize(dir)));
+    }
+
+    @Override
+    public void visitFile(Path file, BasicFileAttributes attrs) throws IOException {
       Path destFile = to.resolve(from.relativize(file));
       if (!pathMatcher.matches(destFile)) {
-        return FileVisitResult.CONTINUE;
+        return;
       }
       Files.createDirectories(destFile.getParent());
 
@@ -281,15 +458,18 @@ public final class FileUtil {
             // A symlink to a directory outside 'from'. Copy all the files recursively as regular
             // files
             Files.createDirectory(destFile);
-            Files.walkFileTree(resolvedSymlink.regularFile,
+            ParallelFileWalker.walk(resolvedSymlink.regularFile,
                 new CopyVisitor(resolvedSymlink.regularFile, destFile,
-                    CopySymlinkStrategy.MATERIALIZE_ALL, pathMatcher));
-            return FileVisitResult.CONTINUE;
+                    CopySymlinkStrategy.MATERIALIZE_ALL, pathMatcher, pool, /*hardLinks=*/false),
+                pool);
+            return;
           }
         } else {
           Files.createSymbolicLink(destFile, Files.readSymbolicLink(file));
-          return FileVisitResult.CONTINUE;
+          return;
         }
+      } else if (hardLinks && createLink(file, destFile)) {
+        return;
       }
       Files.copy(file, destFile, StandardCopyOption.COPY_ATTRIBUTES);
       // Make writable any symlink that we materialize. This is safe since we have already
@@ -297,7 +477,24 @@ public final class FileUtil {
       if (symlink) {
         addPermissions(destFile, ImmutableSet.of(PosixFilePermission.OWNER_WRITE));
       }
-      return FileVisitResult.CONTINUE;
+    }
+
+    /**
+     * Creates {@code destFile} as a hard link of {@code file}. Returns false if the file system
+     * doesn't support it, like for links across file systems.
+     */
+    private boolean createLink(Path file, Path destFile) throws IOException {
+      try {
+        Files.createLink(destFile, file);
+        return true;
+      } catch (FileAlreadyExistsException e) {
+        throw e;
+      } catch (IOException | UnsupportedOperationException e) {
+        logger.log(Level.INFO,
+            String.format("Cannot create hard link '%s'. Copying the files instead.", destFile), e);
+        hardLinks = false;
+        return false;
+      }
     }
 
     /**
@@ -397,45 +594,4 @@ public final class FileUtil {
       }
     }
   }
-
-  private static class AnyPathMatcher implements PathMatcher {
-
-    private final ImmutableList<PathMatcher> pathMatchers;
-
-    AnyPathMatcher(ImmutableList<PathMatcher> pathMatchers) {
-      this.pathMatchers = pathMatchers;
-    }
-
-    @Override
-    public boolean matches(Path path) {
-      for (PathMatcher pathMatcher : pathMatchers) {
-        if (pathMatcher.matches(path)) {
-          return true;
-        }
-      }
-      return false;
-    }
-
-    @Override
-    public boolean equals(Object o) {
-      if (this == o) {
-        return true;
-      }
-      if (o == null || getClass() != o.getClass()) {
-        return false;
-      }
-      AnyPathMatcher that = (AnyPathMatcher) o;
-      return Objects.equals(pathMatchers, that.pathMatchers);
-    }
-
-    @Override
-    public int hashCode() {
-      return Objects.hashCode(pathMatchers);
-    }
-
-    @Override
-    public String toString() {
-      return "anyOf[" + Joiner.on(", ").join(pathMatchers) + "]";
-    }
-  }
 }
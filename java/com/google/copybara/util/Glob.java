@@ -64,7 +64,7 @@ public abstract class Glob implements Concatable {
         + " can be concatenated to a glob");
   };
 
-  public abstract PathMatcher relativeTo(Path path);
+  public abstract GlobPathMatcher relativeTo(Path path);
 
   /**
    * Creates a function {@link Glob} that when a {@link Path} is passed it returns a
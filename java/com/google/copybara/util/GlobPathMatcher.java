@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.util;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+
+/**
+ * A {@link PathMatcher} created by a {@link Glob} that can also answer questions about all the
+ * files under a directory, so that tree walkers can skip whole subtrees.
+ *
+ * <p>The answers are conservative: {@link #mayMatchUnder(Path)} can return true even if no file
+ * matches and {@link #matchesAllUnder(Path)} can return false even if all the files match.
+ */
+public abstract class GlobPathMatcher implements PathMatcher {
+
+  private final Path base;
+
+  GlobPathMatcher(Path base) {
+    this.base = Preconditions.checkNotNull(base);
+  }
+
+  /**
+   * Returns false if no file under {@code dir} can match.
+   */
+  public abstract boolean mayMatchUnder(Path dir);
+
+  /**
+   * Returns true if every file under {@code dir} matches.
+   */
+  public abstract boolean matchesAllUnder(Path dir);
+
+  /**
+   * Returns the directories that contain all the files that can match. None of them contains
+   * another one. See {@link Glob#roots()}.
+   */
+  public abstract ImmutableSet<Path> roots();
+
+  /**
+   * Returns a matcher that matches the files under the base path that this one doesn't match.
+   */
+  public GlobPathMatcher negate() {
+    GlobPathMatcher matcher = this;
+    return new GlobPathMatcher(base) {
+      @Override
+      public boolean matches(Path path) {
+        return path.startsWith(base) && !matcher.matches(path);
+      }
+
+      @Override
+      public boolean mayMatchUnder(Path dir) {
+        return !matcher.matchesAllUnder(dir);
+      }
+
+      @Override
+      public boolean matchesAllUnder(Path dir) {
+        return dir.startsWith(base) && !matcher.mayMatchUnder(dir);
+      }
+
+      @Override
+      public ImmutableSet<Path> roots() {
+        return ImmutableSet.of(base);
+      }
+
+      @Override
+      public String toString() {
+        return "not(" + matcher + ")";
+      }
+    };
+  }
+
+  /**
+   * Resolves the roots of a {@link Glob} against {@code base}.
+   */
+  static ImmutableSet<Path> resolveRoots(Path base, Iterable<String> roots) {
+    ImmutableSet.Builder<Path> result = ImmutableSet.builder();
+    for (String root : roots) {
+      result.add(root.isEmpty() ? base : base.resolve(root));
+    }
+    return result.build();
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.util;
+
+import com.google.common.base.Preconditions;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.function.Consumer;
+
+/**
+ * An {@link OutputStream} that splits the bytes written to it in lines, decoded as UTF-8, and
+ * passes each one to a consumer as soon as it is complete. Only the current line is kept in
+ * memory.
+ *
+ * <p>The separator is not included in the lines. An unterminated last line is passed on
+ * {@link #close()}.
+ *
+ * <p>When used as the output of a {@link CommandUtil} command, the consumer is called while the
+ * output is read and shouldn't throw: failing to read the output could block the command.
+ */
+public final class LineOutputStream extends OutputStream {
+
+  private final byte separator;
+  private final Consumer<String> consumer;
+  private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+  public LineOutputStream(Consumer<String> consumer) {
+    this('\n', consumer);
+  }
+
+  public LineOutputStream(char separator, Consumer<String> consumer) {
+    Preconditions.checkArgument(separator < 0x80, "Separator must be an ASCII character");
+    this.separator = (byte) separator;
+    this.consumer = Preconditions.checkNotNull(consumer);
+  }
+
+  @Override
+  public synchronized void write(int b) {
+    if ((byte) b == separator) {
+      emit();
+    } else {
+      line.write(b);
+    }
+  }
+
+  @Override
+  public synchronized void write(byte[] b, int off, int len) {
+    Preconditions.checkPositionIndexes(off, off + len, b.length);
+    int start = off;
+    for (int i = off; i < off + len; i++) {
+      if (b[i] == separator) {
+        line.write(b, start, i - start);
+        emit();
+        start = i + 1;
+      }
+    }
+    line.write(b, start, off + len - start);
+  }
+
+  @Override
+  public synchronized void close() {
+    if (line.size() > 0) {
+      emit();
+    }
+  }
+
+  private void emit() {
+    String value;
+    try {
+      value = line.toString("UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new AssertionError(e);
+    }
+    line.reset();
+    consumer.accept(value);
+  }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.util;
+
+import com.google.common.base.Preconditions;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import javax.annotation.Nullable;
+
+/**
+ * Walks a file tree visiting the files of different directories in parallel, using a
+ * {@link ForkJoinPool}. Each directory is listed by its own task, and its files are visited in
+ * batches so that directories with many files are also processed in parallel.
+ *
+ * <p>Like {@link Files#walkFileTree(Path, java.nio.file.FileVisitor)}, symlinks are not followed:
+ * they are visited as files. Errors reading the tree or thrown by the visitor stop the walk.
+ */
+public final class ParallelFileWalker {
+
+  private static final int FILES_PER_TASK = 64;
+
+  private ParallelFileWalker() {}
+
+  /**
+   * A visitor of the file tree. The methods are called concurrently from the threads of the pool.
+   */
+  public interface Visitor {
+
+    /**
+     * Called before listing {@code dir}. Returns false for skipping it.
+     */
+    default boolean preVisitDirectory(Path dir) throws IOException {
+      return true;
+    }
+
+    void visitFile(Path file, BasicFileAttributes attrs) throws IOException;
+
+    /**
+     * Called after all the entries of {@code dir} have been visited.
+     */
+    default void postVisitDirectory(Path dir) throws IOException {}
+  }
+
+  /**
+   * Walks the file tree of {@code start}. If {@code pool} is null, the tree is walked
+   * sequentially in the current thread.
+   */
+  public static void walk(Path start, Visitor visitor, @Nullable ForkJoinPool pool)
+      throws IOException {
+    Preconditions.checkNotNull(visitor);
+    try {
+      if (pool == null) {
+        new VisitTask(start, visitor, /*parallel=*/false).compute();
+      } else if (ForkJoinTask.getPool() == pool) {
+        // Nested walk, like a copy of a symlinked directory
+        new VisitTask(start, visitor, /*parallel=*/true).invoke();
+      } else {
+        pool.invoke(new VisitTask(start, visitor, /*parallel=*/true));
+      }
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  /**
+   * Visits a path, and everything under it if it is a directory.
+   */
+  private static final class VisitTask extends RecursiveAction {
+
+    private final Path path;
+    private final Visitor visitor;
+    private final boolean parallel;
+
+    private VisitTask(Path path, Visitor visitor, boolean parallel) {
+      this.path = path;
+      this.visitor = visitor;
+      this.parallel = parallel;
+    }
+
+    @Override
+    protected void compute() {
+      try {
+        BasicFileAttributes attrs =
+            Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        if (attrs.isDirectory()) {
+          visitDirectory();
+        } else {
+          visitor.visitFile(path, attrs);
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    private void visitDirectory() throws IOException {
+      if (!visitor.preVisitDirectory(path)) {
+        return;
+      }
+      List<ForkJoinTask<?>> tasks = new ArrayList<>();
+      List<Path> files = new ArrayList<>();
+      List<BasicFileAttributes> fileAttrs = new ArrayList<>();
+      try (DirectoryStream<Path> entries = Files.newDirectoryStream(path)) {
+        for (Path entry : entries) {
+          BasicFileAttributes attrs =
+              Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+          if (attrs.isDirectory()) {
+            tasks.add(new VisitTask(entry, visitor, parallel));
+          } else {
+            files.add(entry);
+            fileAttrs.add(attrs);
+          }
+          if (files.size() == FILES_PER_TASK) {
+            tasks.add(new VisitFilesTask(files, fileAttrs, visitor));
+            files = new ArrayList<>();
+            fileAttrs = new ArrayList<>();
+          }
+        }
+      }
+      if (!files.isEmpty()) {
+        tasks.add(new VisitFilesTask(files, fileAttrs, visitor));
+      }
+      if (parallel) {
+        invokeAll(tasks);
+      } else {
+        for (ForkJoinTask<?> task : tasks) {
+          ((RecursiveAction) task).invoke();
+        }
+      }
+      visitor.postVisitDirectory(path);
+    }
+  }
+
+  /**
+   * Visits a batch of files of the same directory.
+   */
+  private static final class VisitFilesTask extends RecursiveAction {
+
+    private final List<Path> files;
+    private final List<BasicFileAttributes> attrs;
+    private final Visitor visitor;
+
+    private VisitFilesTask(List<Path> files, List<BasicFileAttributes> attrs, Visitor visitor) {
+      this.files = files;
+      this.attrs = attrs;
+      this.visitor = visitor;
+    }
+
+    @Override
+    protected void compute() {
+      try {
+        for (int i = 0; i < files.size(); i++) {
+          visitor.visitFile(files.get(i), attrs.get(i));
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.util;
+
+import com.google.common.base.Preconditions;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An {@link OutputStream} that only keeps the last {@code capacity} bytes written to it.
+ */
+public final class RingBufferOutputStream extends OutputStream {
+
+  private static final int INITIAL_SIZE = 256;
+
+  private final int capacity;
+  // Grows up to capacity, so that small outputs don't allocate the whole buffer
+  private byte[] buffer;
+  private long written;
+
+  public RingBufferOutputStream(int capacity) {
+    Preconditions.checkArgument(capacity > 0, "Capacity must be positive: %s", capacity);
+    this.capacity = capacity;
+    this.buffer = new byte[Math.min(capacity, INITIAL_SIZE)];
+  }
+
+  @Override
+  public synchronized void write(int b) {
+    ensureCapacity(1);
+    buffer[(int) (written % capacity)] = (byte) b;
+    written++;
+  }
+
+  @Override
+  public synchronized void write(byte[] b, int off, int len) {
+    Preconditions.checkPositionIndexes(off, off + len, b.length);
+    if (len > capacity) {
+      // Only the last bytes would be kept
+      int skipped = len - capacity;
+      off += skipped;
+      len -= skipped;
+      written += skipped;
+    }
+    ensureCapacity(len);
+    int pos = (int) (written % capacity);
+    int first = Math.min(len, capacity - pos);
+    System.arraycopy(b, off, buffer, pos, first);
+    System.arraycopy(b, off + first, buffer, 0, len - first);
+    written += len;
+  }
+
+  private void ensureCapacity(int len) {
+    if (buffer.length == capacity) {
+      return;
+    }
+    long needed = written + len;
+    if (needed <= buffer.length) {
+      return;
+    }
+    // Nothing was discarded yet, so the content starts at 0
+    byte[] grown = new byte[(int) Math.min(capacity, Math.max(needed, 2L * buffer.length))];
+    System.arraycopy(buffer, 0, grown, 0, (int) Math.min(written, buffer.length));
+    buffer = grown;
+  }
+
+  /**
+   * Returns the number of bytes written that were not kept.
+   */
+  public synchronized long getDiscardedBytes() {
+    return Math.max(0, written - capacity);
+  }
+
+  /**
+   * Returns the bytes kept, oldest first.
+   */
+  public synchronized byte[] toByteArray() {
+    int size = (int) Math.min(written, capacity);
+    byte[] result = new byte[size];
+    int start = (int) ((written - size) % capacity);
+    int first = Math.min(size, capacity - start);
+    System.arraycopy(buffer, start, result, 0, first);
+    System.arraycopy(buffer, 0, result, first, size - first);
+    return result;
+  }
+
+  /**
+   * Returns the bytes kept, decoded as UTF-8.
+   */
+  @Override
+  public String toString() {
+    return new String(toByteArray(), StandardCharsets.UTF_8);
+  }
+}
@@ -19,13 +19,11 @@ package com.google.copybara.util;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableList.Builder;
 import com.google.common.collect.ImmutableSet;
 import com.google.devtools.build.lib.skylarkinterface.SkylarkPrinter;
 import com.google.devtools.build.lib.skylarkinterface.SkylarkValue;
 import java.nio.file.FileSystems;
 import java.nio.file.Path;
-import java.nio.file.PathMatcher;
 import java.util.Objects;
 import javax.annotation.Nullable;
 
@@ -51,17 +49,9 @@ final class SimpleGlob extends Glob implements SkylarkValue {
   }
 
   @Override
-  public PathMatcher relativeTo(Path path) {
-    Builder<PathMatcher> includeList = ImmutableList.builder();
-    for (String path1 : include) {
-      includeList.add(ReadablePathMatcher.relativeGlob(path, path1));
-    }
-    PathMatcher excludeMatcher = (exclude == null)
-        ? FileUtil.anyPathMatcher(ImmutableList.of())
-        : exclude.relativeTo(path);
-    return new GlobPathMatcher(
-        FileUtil.anyPathMatcher(includeList.build()),
-        excludeMatcher);
+  public GlobPathMatcher relativeTo(Path path) {
+    return new CompiledGlobMatcher(path, include, roots(),
+        exclude == null ? null : exclude.relativeTo(path), toString());
   }
 
   @Override
@@ -96,27 +86,6 @@ final class SimpleGlob extends Glob implements SkylarkValue {
     printer.append(toString());
   }
 
-  private class GlobPathMatcher implements PathMatcher {
-
-    private final PathMatcher includeMatcher;
-    private final PathMatcher excludeMatcher;
-
-    GlobPathMatcher(PathMatcher includeMatcher, PathMatcher excludeMatcher) {
-      this.includeMatcher = includeMatcher;
-      this.excludeMatcher = excludeMatcher;
-    }
-
-    @Override
-    public boolean matches(Path path) {
-      return includeMatcher.matches(path) && !excludeMatcher.matches(path);
-    }
-
-    @Override
-    public String toString() {
-      return SimpleGlob.this.toString();
-    }
-  }
-
   @Override
   public boolean equals(Object o) {
     if (this == o) {
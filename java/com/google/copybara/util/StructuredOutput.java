@@ -24,9 +24,12 @@ import javax.annotation.Nullable;
 
 /**
  * Simple struct to provide a sidechannel for return values.
+ *
+ * <p>Thread-safe: Each thread has its own current line, so that migrations running concurrently
+ * can share the same summary.
  */
 public class StructuredOutput {
-  @Nullable private SummaryLine.Builder currentLine = null;
+  private final ThreadLocal<SummaryLine.Builder> currentLine = new ThreadLocal<>();
 
   private final List<SummaryLine> summaryLines = new ArrayList<>();
 
@@ -34,21 +37,26 @@ public class StructuredOutput {
    * Appends the current builder to the summary, resetting the builder.
    */
   public void appendSummaryLine() {
-    if (currentLine == null) {
+    SummaryLine.Builder line = currentLine.get();
+    if (line == null) {
       return;
     }
-    summaryLines.add(currentLine.build());
-    currentLine = null;
+    synchronized (summaryLines) {
+      summaryLines.add(line.build());
+    }
+    currentLine.remove();
   }
 
   /**
    * Returns a reference to the builder for the latest entry to amend.
    */
   public SummaryLine.Builder getCurrentSummaryLineBuilder() {
-    if (currentLine == null) {
-      currentLine = new AutoValue_StructuredOutput_SummaryLine.Builder();
+    SummaryLine.Builder line = currentLine.get();
+    if (line == null) {
+      line = new AutoValue_StructuredOutput_SummaryLine.Builder();
+      currentLine.set(line);
     }
-    return currentLine;
+    return line;
   }
 
   /**
@@ -57,13 +65,15 @@ public class StructuredOutput {
    * <p>Note that it's up to the caller to interpret the meaning of the references on each line.
    */
   public List<SummaryLine> getSummaryLines() {
-    return ImmutableList.copyOf(summaryLines);
+    synchronized (summaryLines) {
+      return ImmutableList.copyOf(summaryLines);
+    }
   }
 
   @Override
   public String toString() {
     StringBuilder summary = new StringBuilder();
-    for (SummaryLine summaryLine : summaryLines) {
+    for (SummaryLine summaryLine : getSummaryLines()) {
       summary.append(summaryLine);
       summary.append('\n');
     }
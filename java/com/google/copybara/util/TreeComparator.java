@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.util;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.io.MoreFiles;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import javax.annotation.Nullable;
+
+/**
+ * Finds the files that differ between two directory trees without running external commands.
+ *
+ * <p>Files are compared by the attributes first (type, size and executable bit). The content is
+ * only read if the attributes are equal and the files are not hard links of each other, and the
+ * comparison stops at the first different byte.
+ */
+final class TreeComparator {
+
+  private TreeComparator() {}
+
+  /**
+   * Returns the paths, relative to the trees, of the files that exist only in one of the trees or
+   * that are different in each tree. Directories are not compared, only the files under them.
+   *
+   * <p>Both trees are walked at the same time using {@code pool}, or sequentially if it is null.
+   */
+  static ImmutableSortedSet<String> changedFiles(Path one, Path other,
+      @Nullable ForkJoinPool pool) throws IOException {
+    // Files found so far in only one of the trees
+    Map<String, FileEntry> unmatched = new ConcurrentHashMap<>();
+    Set<String> changed = ConcurrentHashMap.newKeySet();
+    ParallelFileWalker.Visitor oneVisitor = new MatchingVisitor(one, unmatched, changed);
+    ParallelFileWalker.Visitor otherVisitor = new MatchingVisitor(other, unmatched, changed);
+    if (pool == null) {
+      ParallelFileWalker.walk(one, oneVisitor, /*pool=*/null);
+      ParallelFileWalker.walk(other, otherVisitor, /*pool=*/null);
+    } else {
+      ForkJoinTask<Void> walkOne = pool.submit(() -> {
+        ParallelFileWalker.walk(one, oneVisitor, pool);
+        return null;
+      });
+      ParallelFileWalker.walk(other, otherVisitor, pool);
+      try {
+        walkOne.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while comparing " + one + " and " + other);
+      } catch (ExecutionException e) {
+        Throwables.propagateIfPossible(e.getCause(), IOException.class);
+        throw new IOException("Error comparing " + one + " and " + other, e.getCause());
+      }
+    }
+    changed.addAll(unmatched.keySet());
+    return ImmutableSortedSet.copyOf(changed);
+  }
+
+  /**
+   * Visits the files of one of the trees. The file is compared by the visitor of the tree where
+   * it is found last.
+   */
+  private static final class MatchingVisitor implements ParallelFileWalker.Visitor {
+
+    private final Path root;
+    private final Map<String, FileEntry> unmatched;
+    private final Set<String> changed;
+
+    private MatchingVisitor(Path root, Map<String, FileEntry> unmatched, Set<String> changed) {
+      this.root = root;
+      this.unmatched = unmatched;
+      this.changed = changed;
+    }
+
+    @Override
+    public void visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+      String path = root.relativize(file).toString();
+      FileEntry entry = new FileEntry(file, attrs);
+      FileEntry[] found = new FileEntry[1];
+      unmatched.compute(path, (p, existing) -> {
+        found[0] = existing;
+        return existing == null ? entry : null;
+      });
+      if (found[0] != null && !equal(found[0].path, found[0].attrs, file, attrs)) {
+        changed.add(path);
+      }
+    }
+  }
+
+  private static boolean equal(Path one, BasicFileAttributes oneAttrs,
+      Path other, BasicFileAttributes otherAttrs) throws IOException {
+    if (oneAttrs.isSymbolicLink() || otherAttrs.isSymbolicLink()) {
+      return oneAttrs.isSymbolicLink() && otherAttrs.isSymbolicLink()
+          && Files.readSymbolicLink(one).equals(Files.readSymbolicLink(other));
+    }
+    if (oneAttrs.size() != otherAttrs.size()) {
+      return false;
+    }
+    // Hard links, like the ones created by FileUtil.CopyMode.HARDLINK
+    if (oneAttrs.fileKey() != null && oneAttrs.fileKey().equals(otherAttrs.fileKey())) {
+      return true;
+    }
+    return Files.isExecutable(one) == Files.isExecutable(other)
+        && MoreFiles.asByteSource(one).contentEquals(MoreFiles.asByteSource(other));
+  }
+
+  private static final class FileEntry {
+
+    private final Path path;
+    private final BasicFileAttributes attrs;
+
+    private FileEntry(Path path, BasicFileAttributes attrs) {
+      this.path = path;
+      this.attrs = attrs;
+    }
+  }
+}
@@ -20,7 +20,6 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import java.nio.file.Path;
-import java.nio.file.PathMatcher;
 import java.util.Objects;
 
 /**
@@ -37,10 +36,36 @@ public class UnionGlob extends Glob {
   }
 
   @Override
-  public PathMatcher relativeTo(Path base) {
-    PathMatcher leftMatcher = lval.relativeTo(base);
-    PathMatcher rightMatcher = rval.relativeTo(base);
-    return path -> leftMatcher.matches(path) || rightMatcher.matches(path);
+  public GlobPathMatcher relativeTo(Path base) {
+    GlobPathMatcher leftMatcher = lval.relativeTo(base);
+    GlobPathMatcher rightMatcher = rval.relativeTo(base);
+    ImmutableSet<Path> roots = GlobPathMatcher.resolveRoots(base.normalize(), roots());
+    return new GlobPathMatcher(base.normalize()) {
+      @Override
+      public boolean matches(Path path) {
+        return leftMatcher.matches(path) || rightMatcher.matches(path);
+      }
+
+      @Override
+      public boolean mayMatchUnder(Path dir) {
+        return leftMatcher.mayMatchUnder(dir) || rightMatcher.mayMatchUnder(dir);
+      }
+
+      @Override
+      public boolean matchesAllUnder(Path dir) {
+        return leftMatcher.matchesAllUnder(dir) || rightMatcher.matchesAllUnder(dir);
+      }
+
+      @Override
+      public ImmutableSet<Path> roots() {
+        return roots;
+      }
+
+      @Override
+      public String toString() {
+        return UnionGlob.this.toString();
+      }
+    };
   }
 
   @Override
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.copybara.util.ExitCode;
+import com.google.copybara.util.console.testing.TestingConsole;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class CopybaraDaemonTest {
+
+  private static final long START_TIMEOUT_MS = 10_000;
+
+  private Path tmpDir;
+  private Path stateFile;
+  private ImmutableMap<String, String> environment;
+  private CopybaraDaemon daemon;
+  private Thread daemonThread;
+
+  @Before
+  public void setup() throws Exception {
+    tmpDir = Files.createTempDirectory("CopybaraDaemonTest");
+    stateFile = tmpDir.resolve("state/daemon");
+    Path home = Files.createDirectories(tmpDir.resolve("home"));
+    environment = ImmutableMap.of("HOME", home.toString());
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (daemon != null) {
+      daemon.stop();
+      daemonThread.join();
+    }
+  }
+
+  @Test
+  public void testExitCodeAndOutput() throws Exception {
+    startDaemon();
+
+    ClientResult result = runClient("--version");
+    assertThat(result.exitCode).isEqualTo(ExitCode.SUCCESS);
+    assertThat(result.err).contains("Copybara source mover (Version: Unknown version)");
+    assertThat(result.err).doesNotContain("Try 'copybara --help'");
+
+    result = runClient(/*no arguments*/);
+    assertThat(result.exitCode).isEqualTo(ExitCode.COMMAND_LINE_ERROR);
+    assertThat(result.err).contains("Expected at least a configuration file");
+    assertThat(result.err).contains("Try 'copybara --help'");
+  }
+
+  @Test
+  public void testFailingRequestDoesNotStopTheDaemon() throws Exception {
+    startDaemon();
+
+    // Gets to start the profiler before failing
+    ClientResult result = runClient(tmpDir.resolve("copy.bara.sky").toString());
+    assertThat(result.exitCode).isEqualTo(ExitCode.COMMAND_LINE_ERROR);
+    assertThat(result.err).contains("Configuration file not found");
+
+    // Fails before starting the profiler
+    assertThat(runClient(/*no arguments*/).exitCode).isEqualTo(ExitCode.COMMAND_LINE_ERROR);
+
+    assertThat(runClient("--version").exitCode).isEqualTo(ExitCode.SUCCESS);
+  }
+
+  @Test
+  public void testWrongToken() throws Exception {
+    startDaemon();
+    String port = CopybaraDaemon.readStateFile(stateFile).get(0);
+    Files.write(stateFile, (port + " wrong_token\n").getBytes(UTF_8));
+
+    assertThat(runClient("--version").exitCode).isEqualTo(ExitCode.COMMAND_LINE_ERROR);
+  }
+
+  @Test
+  public void testNoDaemonRunning() throws Exception {
+    ClientResult result = runClient("--version");
+    assertThat(result.exitCode).isEqualTo(ExitCode.ENVIRONMENT_ERROR);
+    assertThat(result.err).contains("No Copybara daemon is running");
+  }
+
+  @Test
+  public void testStoppedDaemon() throws Exception {
+    startDaemon();
+    // A daemon that was killed leaves a state file behind
+    byte[] state = Files.readAllBytes(stateFile);
+    daemon.stop();
+    daemonThread.join();
+    daemon = null;
+    assertThat(Files.exists(stateFile)).isFalse();
+    Files.write(stateFile, state);
+
+    ClientResult result = runClient("--version");
+    assertThat(result.exitCode).isEqualTo(ExitCode.ENVIRONMENT_ERROR);
+    assertThat(result.err).contains("Cannot connect to the Copybara daemon");
+  }
+
+  private void startDaemon() throws Exception {
+    daemon = new CopybaraDaemon(new Main(environment), stateFile);
+    daemonThread = new Thread(() -> {
+      try {
+        daemon.serve(new TestingConsole());
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    });
+    daemonThread.start();
+    long deadline = System.currentTimeMillis() + START_TIMEOUT_MS;
+    while (true) {
+      try {
+        CopybaraDaemon.readStateFile(stateFile);
+        return;
+      } catch (IOException e) {
+        if (System.currentTimeMillis() > deadline) {
+          fail("Daemon didn't start: " + e);
+        }
+        Thread.sleep(10);
+      }
+    }
+  }
+
+  private ClientResult runClient(String... args) throws IOException {
+    ByteArrayOutputStream err = new ByteArrayOutputStream();
+    ExitCode exitCode;
+    try (PrintStream errStream = new PrintStream(err, /*autoFlush=*/true, "UTF-8")) {
+      exitCode = DaemonClient.run(args, stateFile, environment, errStream);
+    }
+    return new ClientResult(exitCode, new String(err.toByteArray(), UTF_8));
+  }
+
+  private static final class ClientResult {
+
+    private final ExitCode exitCode;
+    private final String err;
+
+    private ClientResult(ExitCode exitCode, String err) {
+      this.exitCode = exitCode;
+      this.err = err;
+    }
+  }
+}
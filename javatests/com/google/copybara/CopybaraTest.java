@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.copybara.config.ConfigFile;
+import com.google.copybara.config.ConfigLoader;
+import com.google.copybara.config.MapConfigFile;
+import com.google.copybara.testing.OptionsBuilder;
+import com.google.copybara.util.ExitCode;
+import com.google.copybara.util.console.Message.MessageType;
+import com.google.copybara.util.console.testing.TestingConsole;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class CopybaraTest {
+
+  @Rule
+  public final ExpectedException thrown = ExpectedException.none();
+
+  private OptionsBuilder options;
+  private TestingConsole console;
+  private Map<String, Migration> migrations;
+  private List<String> ran;
+  private ConfigLoader<String> configLoader;
+
+  @Before
+  public void setup() throws IOException {
+    options = new OptionsBuilder();
+    options.setOutputRootToTmpDir();
+    console = new TestingConsole();
+    options.setConsole(console);
+    migrations = new LinkedHashMap<>();
+    ran = Collections.synchronizedList(new ArrayList<>());
+    MapConfigFile configFile = new MapConfigFile(
+        ImmutableMap.of("copy.bara.sky", new byte[0]), "copy.bara.sky");
+    configLoader = new ConfigLoader<String>(new ModuleSupplier(), configFile) {
+      @Override
+      public Config loadConfig(Options options) {
+        return new Config(migrations, "copy.bara.sky");
+      }
+    };
+  }
+
+  @Test
+  public void testBatchSelectsInConfigOrder() throws Exception {
+    addMigration("import_foo", () -> {});
+    addMigration("export_foo", () -> {});
+    addMigration("import_bar", () -> {});
+    addMigration("other", () -> {});
+
+    assertThat(runBatch("other,import_*", /*jobs=*/1)).isEqualTo(ExitCode.SUCCESS);
+
+    // Sequential, so they run in config order too
+    assertThat(ran).containsExactly("import_foo", "import_bar", "other").inOrder();
+    console.assertThat()
+        .onceInLog(MessageType.INFO, "Running 3 migrations with up to 1 jobs: "
+            + "import_foo, import_bar, other");
+  }
+
+  @Test
+  public void testBatchMigrationsAreNotRepeated() throws Exception {
+    addMigration("import_foo", () -> {});
+    addMigration("import_bar", () -> {});
+
+    assertThat(runBatch("import_foo,import_*,*", /*jobs=*/2)).isEqualTo(ExitCode.SUCCESS);
+
+    assertThat(ran).containsExactly("import_foo", "import_bar");
+  }
+
+  @Test
+  public void testBatchNoMigrationMatches() throws Exception {
+    addMigration("import_foo", () -> {});
+
+    thrown.expect(ValidationException.class);
+    thrown.expectMessage("No migration matches 'export_*'");
+    runBatch("import_foo,export_*", /*jobs=*/1);
+  }
+
+  @Test
+  public void testBatchNoMigrationNames() throws Exception {
+    addMigration("import_foo", () -> {});
+
+    thrown.expect(ValidationException.class);
+    thrown.expectMessage("No migration names were passed");
+    runBatch(" , ", /*jobs=*/1);
+  }
+
+  @Test
+  public void testBatchFailureDoesNotStopTheRest() throws Exception {
+    addMigration("first", () -> {});
+    addMigration("repo_error", () -> {
+      throw new RepoException("Cannot fetch");
+    });
+    addMigration("noop", () -> {
+      throw new EmptyChangeException("Nothing to migrate");
+    });
+    addMigration("config_error", () -> {
+      throw new ValidationException("Bad config");
+    });
+    addMigration("last", () -> {});
+
+    // The first failure in config order, whatever order they finish in
+    assertThat(runBatch("*", /*jobs=*/3)).isEqualTo(ExitCode.REPOSITORY_ERROR);
+
+    assertThat(ran).containsExactly("first", "repo_error", "noop", "config_error", "last");
+    console.assertThat()
+        .onceInLog(MessageType.ERROR, "Migration 'repo_error' failed: Cannot fetch")
+        .onceInLog(MessageType.WARNING, "Migration 'noop': Nothing to migrate")
+        .onceInLog(MessageType.ERROR, "Migration 'config_error' failed: Bad config")
+        .onceInLog(MessageType.INFO, "Migration 'last': SUCCESS");
+  }
+
+  @Test
+  public void testBatchUnexpectedError() throws Exception {
+    addMigration("bug", () -> {
+      throw new IllegalStateException("Oops");
+    });
+    addMigration("other", () -> {});
+
+    assertThat(runBatch("*", /*jobs=*/2)).isEqualTo(ExitCode.INTERNAL_ERROR);
+    assertThat(ran).containsExactly("bug", "other");
+  }
+
+  @Test
+  public void testBatchNoOp() throws Exception {
+    addMigration("noop1", () -> {
+      throw new EmptyChangeException("Nothing to migrate");
+    });
+    addMigration("noop2", () -> {
+      throw new EmptyChangeException("Nothing to migrate");
+    });
+    assertThat(runBatch("*", /*jobs=*/2)).isEqualTo(ExitCode.NO_OP);
+
+    addMigration("migrated", () -> {});
+    assertThat(runBatch("*", /*jobs=*/2)).isEqualTo(ExitCode.SUCCESS);
+  }
+
+  private ExitCode runBatch(String migrationNames, int jobs)
+      throws ValidationException, IOException {
+    return new Copybara().runBatch(options.build(), configLoader, migrationNames, jobs);
+  }
+
+  private void addMigration(String name, MigrationRun run) {
+    migrations.put(name, new FakeMigration(name, run));
+  }
+
+  private interface MigrationRun {
+    void run() throws RepoException, IOException, ValidationException;
+  }
+
+  private class FakeMigration implements Migration {
+
+    private final String name;
+    private final MigrationRun run;
+
+    private FakeMigration(String name, MigrationRun run) {
+      this.name = name;
+      this.run = run;
+    }
+
+    @Override
+    public void run(Path workdir, @Nullable String sourceRef)
+        throws RepoException, IOException, ValidationException {
+      ran.add(name);
+      run.run();
+    }
+
+    @Override
+    public String getName() {
+      return name;
+    }
+
+    @Override
+    public String getModeString() {
+      return "FAKE";
+    }
+
+    @Override
+    public ConfigFile<?> getMainConfigFile() {
+      return null;
+    }
+
+    @Override
+    public ImmutableSetMultimap<String, String> getOriginDescription() {
+      return ImmutableSetMultimap.of();
+    }
+
+    @Override
+    public ImmutableSetMultimap<String, String> getDestinationDescription() {
+      return ImmutableSetMultimap.of();
+    }
+  }
+}
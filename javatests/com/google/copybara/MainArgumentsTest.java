@@ -160,9 +160,44 @@ public class MainArgumentsTest {
     checkParsing(ImmutableList.of("info", "copy.bara.sky", "import_wf", "some_ref"));
   }
 
+  /**
+   * Subcommand 'daemon' doesn't take a config file.
+   */
+  @Test
+  public void testArgumentParsingDaemon() throws Exception {
+    checkParsing(
+        ImmutableList.of("daemon"),
+        Subcommand.DAEMON,
+        /* expectedConfigPath= */ null,
+        /* expectedWorkflowName= */ null,
+        /* expectedSourceRef= */ null);
+
+    thrown.expect(CommandLineException.class);
+    thrown.expectMessage("Too many arguments for subcommand 'daemon'");
+    checkParsing(ImmutableList.of("daemon", "copy.bara.sky"));
+  }
+
+  /**
+   * Subcommand 'batch' takes a list of workflow names but not sourceRef.
+   */
+  @Test
+  public void testArgumentParsingBatch() throws Exception {
+    checkParsing(
+        ImmutableList.of("batch", "copy.bara.sky", "import_*,export_foo"),
+        Subcommand.BATCH,
+        "copy.bara.sky",
+        "import_*,export_foo",
+        /* expectedSourceRef= */ null);
+
+    thrown.expect(CommandLineException.class);
+    thrown.expectMessage("Too many arguments for subcommand 'batch'");
+    checkParsing(ImmutableList.of("batch", "copy.bara.sky", "import_*", "some_ref"));
+  }
+
   private void checkParsing(
-      List<String> args, Subcommand expectedSubcommand, String expectedConfigPath,
-      String expectedWorkflowName, @Nullable String expectedSourceRef) throws CommandLineException {
+      List<String> args, Subcommand expectedSubcommand, @Nullable String expectedConfigPath,
+      @Nullable String expectedWorkflowName, @Nullable String expectedSourceRef)
+      throws CommandLineException {
     checkParsing(args);
     assertThat(mainArguments.getSubcommand()).isEqualTo(expectedSubcommand);
     assertThat(mainArguments.getConfigPath()).isEqualTo(expectedConfigPath);
@@ -395,6 +395,38 @@ public class TransformWorkTest {
             "prefix_file3.txt", "bbb"));
   }
 
+  @Test
+  public void testRunGlobAfterTransforms() throws IOException, ValidationException, RepoException {
+    FileSystem fileSystem = Jimfs.newFileSystem();
+    Path base = fileSystem.getPath("testRunGlobAfterTransforms");
+    touchFile(base, "folder/file1.txt");
+    touchFile(base, "folder/file2.txt");
+    touchFile(base, "other/file3.txt");
+
+    Files.createDirectories(workdir.resolve("folder"));
+    origin.addChange(0, base, "message", /*matchesGlob=*/true);
+
+    runWorkflow("test", ""
+        + "def test(ctx):\n"
+        + "    message = ''\n"
+        + "    for f in ctx.run(glob(['folder/**'])):\n"
+        + "        message += f.path +'\\n'\n"
+        + "    ctx.run(core.move('folder/file1.txt', 'other/file1.txt'))\n"
+        + "    for f in ctx.run(glob(['other/**'])):\n"
+        + "        message += f.path +'\\n'\n"
+        + "    for f in ctx.run(glob(['folder/**'])):\n"
+        + "        message += f.path +'\\n'\n"
+        + "    ctx.set_message(message)");
+
+    assertThat(destination.processed.get(0).getChangesSummary()).isEqualTo(""
+        + "folder/file1.txt\n"
+        + "folder/file2.txt\n"
+        + "other/file1.txt\n"
+        + "other/file3.txt\n"
+        + "folder/file2.txt\n"
+    );
+  }
+
   @Test
   public void testRunFileOps() throws IOException, ValidationException, RepoException {
     checkPathOperations("folder/file.txt", ""
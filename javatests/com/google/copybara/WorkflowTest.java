@@ -1483,6 +1483,65 @@ public class WorkflowTest {
     assertThat(commitMessages).containsExactly("change1\n");
   }
 
+  @Test
+  public void testIterativeIncremental() throws Exception {
+    Path originPath = Files.createTempDirectory("origin");
+    GitRepository origin = GitRepository.newRepo(true, originPath, getGitEnv()).init();
+    GitRepository destinationBare = newBareRepo(Files.createTempDirectory("destination"),
+        getGitEnv(), /*verbose=*/true);
+    destinationBare.init();
+
+    String config = "core.workflow("
+        + "    name = 'default',"
+        + "    origin = git.origin( url = 'file://" + origin.getWorkTree() + "'),\n"
+        + "    destination = git.destination( url = 'file://" + destinationBare.getGitDir() + "'),"
+        + "    origin_files = glob(['**'], exclude = ['excluded.txt']),"
+        + "    authoring = " + authoring + ","
+        + "    transformations = [core.replace('foo', 'bar')],"
+        + "    mode = '" + WorkflowMode.ITERATIVE + "',"
+        + ")\n";
+
+    Files.write(originPath.resolve("a.txt"), "foo".getBytes(UTF_8));
+    Files.write(originPath.resolve("b.txt"), "foo".getBytes(UTF_8));
+    Files.write(originPath.resolve("excluded.txt"), "foo".getBytes(UTF_8));
+    origin.add().all().run();
+    origin.commit("Foo <foo@bara.com>", ZonedDateTime.now(), "first");
+    String firstCommit = origin.parseRef("HEAD");
+
+    Files.write(originPath.resolve("a.txt"), "foo foo".getBytes(UTF_8));
+    origin.add().all().run();
+    origin.commit("Foo <foo@bara.com>", ZonedDateTime.now(), "change1");
+
+    Files.delete(originPath.resolve("b.txt"));
+    Files.write(originPath.resolve("c.txt"), "foo".getBytes(UTF_8));
+    Files.write(originPath.resolve("excluded.txt"), "foo foo".getBytes(UTF_8));
+    origin.add().all().run();
+    origin.commit("Foo <foo@bara.com>", ZonedDateTime.now(), "change2");
+
+    options.setWorkdirToRealTempDir();
+    options.setEnvironment(GitTestUtil.getGitEnv());
+    options.setHomeDir(Files.createTempDirectory("home").toString());
+    options.gitDestination.committerName = "Foo";
+    options.gitDestination.committerEmail = "foo@foo.com";
+    options.workflowOptions.iterativeIncremental = true;
+    options.setLastRevision(firstCommit);
+
+    loadConfig(config).getMigration("default").run(workdir, /*sourceRef=*/"HEAD");
+
+    console().assertThat()
+        .onceInLog(MessageType.PROGRESS, ".*Checking out the files changed since.*");
+    assertThat(destinationBare.simpleCommand("show", "HEAD~1:a.txt").getStdout())
+        .isEqualTo("bar bar");
+    assertThat(destinationBare.simpleCommand("show", "HEAD~1:b.txt").getStdout())
+        .isEqualTo("bar");
+    assertThat(destinationBare.simpleCommand("ls-tree", "--name-only", "HEAD").getStdout())
+        .isEqualTo("a.txt\nc.txt\n");
+    assertThat(destinationBare.simpleCommand("show", "HEAD:a.txt").getStdout())
+        .isEqualTo("bar bar");
+    assertThat(destinationBare.simpleCommand("show", "HEAD:c.txt").getStdout())
+        .isEqualTo("bar");
+  }
+
   private void checkLastRevStatus(WorkflowMode mode)
       throws IOException, RepoException, ValidationException {
     Path originPath = Files.createTempDirectory("origin");
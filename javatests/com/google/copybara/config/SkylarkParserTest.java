@@ -22,8 +22,10 @@ import static org.junit.Assert.fail;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.copybara.Config;
 import com.google.copybara.Destination;
+import com.google.copybara.Options;
 import com.google.copybara.Origin;
 import com.google.copybara.RepoException;
 import com.google.copybara.Revision;
@@ -179,6 +181,49 @@ public class SkylarkParserTest {
     assertThat(derivedContentMap).isEqualTo(stringContentMap);
   }
 
+  @Test
+  public void testConfigIsReusedUntilAnImportChanges() throws Exception {
+    SkylarkParser skylarkParser =
+        new SkylarkParser(ImmutableSet.of(Mock.class, MockLabelsAwareModule.class));
+    Options sameOptions = options.build();
+    String configContent = ""
+        + "load('//foo/name', 'name')\n"
+        + "core.workflow(\n"
+        + "   name = name,\n"
+        + "   origin = mock.origin(\n"
+        + "      url = 'some_url',\n"
+        + "      branch = 'master',\n"
+        + "   ),\n"
+        + "   destination = mock.destination(\n"
+        + "      folder = 'some folder'\n"
+        + "   ),\n"
+        + "   authoring = authoring.overwrite('Copybara <no-reply@google.com>'),\n"
+        + ")\n";
+
+    Config config = skylarkParser.loadConfig(
+        mapConfigFile(configContent, "name = 'foo'\n"), sameOptions);
+    assertThat(getWorkflow(config, "foo").getName()).isEqualTo("foo");
+    assertThat(skylarkParser.loadConfig(
+        mapConfigFile(configContent, "name = 'foo'\n"), sameOptions)).isSameAs(config);
+
+    Config changed = skylarkParser.loadConfig(
+        mapConfigFile(configContent, "name = 'bar'\n"), sameOptions);
+    assertThat(changed).isNotSameAs(config);
+    assertThat(getWorkflow(changed, "bar").getName()).isEqualTo("bar");
+
+    // Configs are bound to the options, so they are not shared with other Options
+    assertThat(skylarkParser.loadConfig(
+        mapConfigFile(configContent, "name = 'bar'\n"), options.build())).isNotSameAs(changed);
+  }
+
+  private static ConfigFile<String> mapConfigFile(String configContent, String nameContent) {
+    return new MapConfigFile(
+        ImmutableMap.of(
+            "copy.bara.sky", configContent.getBytes(UTF_8),
+            "foo/name.bara.sky", nameContent.getBytes(UTF_8)),
+        "copy.bara.sky");
+  }
+
   private Workflow<?, ?> getWorkflow(Config config, String name) throws ValidationException {
     return (Workflow<?, ?>) config.getMigration(name);
   }
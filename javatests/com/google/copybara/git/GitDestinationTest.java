@@ -23,6 +23,7 @@ import static com.google.copybara.testing.git.GitTestUtil.getGitEnv;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.truth.Truth;
 import com.google.copybara.Change;
 import com.google.copybara.ChangeMessage;
@@ -762,6 +763,87 @@ public class GitDestinationTest {
         .containsNoMoreFiles();
   }
 
+  @Test
+  public void stagesOnlyChangedPathsWhenReusingTheWorkdir() throws Exception {
+    fetch = "master";
+    push = "master";
+
+    Path scratchTree = Files.createTempDirectory("GitDestinationTest-scratchTree");
+    Files.write(scratchTree.resolve("excluded.txt"), "some content".getBytes(UTF_8));
+    repo().withWorkTree(scratchTree)
+        .add().files("excluded.txt").run();
+    repo().withWorkTree(scratchTree)
+        .simpleCommand("commit", "-m", "message");
+
+    Files.write(workdir.resolve("modified.txt"), "foo".getBytes(UTF_8));
+    Files.write(workdir.resolve("deleted.txt"), "foo".getBytes(UTF_8));
+    Files.write(workdir.resolve("unchanged.txt"), "foo".getBytes(UTF_8));
+    destinationFiles = Glob.createGlob(ImmutableList.of("**"), ImmutableList.of("excluded.txt"));
+    Writer<GitRevision> writer = newWriter();
+    process(writer, new DummyRevision("ref1"));
+
+    Files.write(workdir.resolve("modified.txt"), "bar".getBytes(UTF_8));
+    Files.delete(workdir.resolve("deleted.txt"));
+    Files.createDirectories(workdir.resolve("dir"));
+    Files.write(workdir.resolve("dir/added.txt"), "bar".getBytes(UTF_8));
+    // Not reported as changed, so it shouldn't be staged
+    Files.write(workdir.resolve("unchanged.txt"), "bar".getBytes(UTF_8));
+    TransformResult result = TransformResults.of(workdir, new DummyRevision("ref2"))
+        .withChangedPaths(ImmutableSet.of("modified.txt", "deleted.txt", "dir/added.txt"));
+    assertThat(writer.write(result, console)).isEqualTo(WriterResult.OK);
+
+    GitTesting.assertThatCheckout(repo(), "master")
+        .containsFile("excluded.txt", "some content")
+        .containsFile("modified.txt", "bar")
+        .containsFile("dir/added.txt", "bar")
+        .containsFile("unchanged.txt", "foo")
+        .containsNoMoreFiles();
+    assertCommitCount(3, "master");
+  }
+
+  @Test
+  public void localRepoPathIsLockedForAllUrls() throws Exception {
+    assertThat(options.gitDestination.localGitRepoLock("https://example.com/foo"))
+        .isNotSameAs(options.gitDestination.localGitRepoLock("https://example.com/bar"));
+
+    options.gitDestination.localRepoPath =
+        Files.createTempDirectory("GitDestinationTest-localRepo").toString();
+    assertThat(options.gitDestination.localGitRepoLock("https://example.com/foo"))
+        .isSameAs(options.gitDestination.localGitRepoLock("https://example.com/bar"));
+  }
+
+  @Test
+  public void stagingChangedPathsKeepsExcludedFiles() throws Exception {
+    fetch = "master";
+    push = "master";
+
+    Path scratchTree = Files.createTempDirectory("GitDestinationTest-scratchTree");
+    Files.write(scratchTree.resolve("excluded.txt"), "some content".getBytes(UTF_8));
+    repo().withWorkTree(scratchTree)
+        .add().files("excluded.txt").run();
+    repo().withWorkTree(scratchTree)
+        .simpleCommand("commit", "-m", "message");
+
+    Files.write(workdir.resolve("excluded.txt"), "origin content".getBytes(UTF_8));
+    Files.write(workdir.resolve("modified.txt"), "foo".getBytes(UTF_8));
+    destinationFiles = Glob.createGlob(ImmutableList.of("**"), ImmutableList.of("excluded.txt"));
+    Writer<GitRevision> writer = newWriter();
+    process(writer, new DummyRevision("ref1"));
+
+    // The origin deletes a file that is excluded in the destination
+    Files.delete(workdir.resolve("excluded.txt"));
+    Files.write(workdir.resolve("modified.txt"), "bar".getBytes(UTF_8));
+    TransformResult result = TransformResults.of(workdir, new DummyRevision("ref2"))
+        .withChangedPaths(ImmutableSet.of("excluded.txt", "modified.txt"));
+    assertThat(writer.write(result, console)).isEqualTo(WriterResult.OK);
+
+    GitTesting.assertThatCheckout(repo(), "master")
+        .containsFile("excluded.txt", "some content")
+        .containsFile("modified.txt", "bar")
+        .containsNoMoreFiles();
+    assertCommitCount(3, "master");
+  }
+
   @Test
   public void excludedDestinationPathsIgnoreGitTreeFiles() throws Exception {
     fetch = "master";
@@ -16,9 +16,12 @@
 
 package com.google.copybara.git;
 
+import static com.google.common.truth.Truth.assertThat;
 import static com.google.copybara.testing.git.GitTestUtil.getGitEnv;
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.fail;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.copybara.RepoException;
@@ -30,6 +33,7 @@ import com.google.copybara.testing.FileSubjects;
 import com.google.copybara.testing.OptionsBuilder;
 import com.google.copybara.testing.SkylarkTestExecutor;
 import com.google.copybara.util.Glob;
+import com.google.copybara.util.console.Message.MessageType;
 import com.google.copybara.util.console.testing.TestingConsole;
 import java.io.IOException;
 import java.nio.file.Files;
@@ -56,10 +60,12 @@ public class GitOriginSubmodulesTest {
   public final ExpectedException thrown = ExpectedException.none();
 
   private SkylarkTestExecutor skylark;
+  private TestingConsole console;
 
   @Before
   public void setup() throws Exception {
-    OptionsBuilder options = new OptionsBuilder().setConsole(new TestingConsole());
+    console = new TestingConsole();
+    OptionsBuilder options = new OptionsBuilder().setConsole(console);
 
     Path reposDir = Files.createTempDirectory("repos_repo");
     options.git.repoStorage = reposDir.toString();
@@ -201,6 +207,66 @@ public class GitOriginSubmodulesTest {
         .containsNoMoreFiles();
   }
 
+  @Test
+  public void testManySubmodules() throws Exception {
+    Path base = Files.createTempDirectory("base");
+    GitRepository main = createRepoWithFoo(base, "main");
+    for (String name : ImmutableList.of("a", "b", "c", "r2")) {
+      GitRepository sub = createRepoWithFoo(base, name);
+      main.simpleCommand("submodule", "add", "-f", "--name", name,
+          "file://" + sub.getWorkTree(), name);
+    }
+    // Two submodules with the same url share the cached repository
+    main.simpleCommand("submodule", "add", "-f", "--name", "d",
+        "file://" + base.resolve("a"), "d");
+    commit(main, "adding submodules");
+
+    GitOrigin origin = origin("file://" + main.getGitDir(), "master");
+    GitRevision master = origin.resolve("master");
+    origin.newReader(Glob.ALL_FILES, authoring).checkout(master, checkoutDir);
+
+    FileSubjects.assertThatPath(checkoutDir)
+        .containsFiles(GITMODULES)
+        .containsFile("foo", "1")
+        .containsFile("a/foo", "1")
+        .containsFile("b/foo", "1")
+        .containsFile("c/foo", "1")
+        .containsFile("d/foo", "1")
+        .containsFile("r2/foo", "1")
+        .containsNoMoreFiles();
+  }
+
+  @Test
+  public void testErrorsReportedPerSubmodule() throws Exception {
+    Path base = Files.createTempDirectory("base");
+    GitRepository main = createRepoWithFoo(base, "main");
+    for (String name : ImmutableList.of("ok", "bad1", "bad2")) {
+      GitRepository sub = createRepoWithFoo(base, name);
+      main.simpleCommand("submodule", "add", "-f", "--branch", "master", "--name", name,
+          "file://" + sub.getWorkTree(), name);
+    }
+    Path moduleCfg = main.getWorkTree().resolve(GITMODULES);
+    Files.write(moduleCfg, new String(Files.readAllBytes(moduleCfg), UTF_8)
+        .replaceAll("(bad[12])\n(.*)\n(\\s*)branch = master", "$1\n$2\n$3branch = missing")
+        .getBytes(UTF_8));
+    main.add().files(GITMODULES).run();
+    commit(main, "adding submodules");
+
+    GitOrigin origin = origin("file://" + main.getGitDir(), "master");
+    GitRevision master = origin.resolve("master");
+    try {
+      origin.newReader(Glob.ALL_FILES, authoring).checkout(master, checkoutDir);
+      fail();
+    } catch (RepoException e) {
+      assertThat(e).hasMessageThat().contains("Cannot checkout 2 submodules");
+    }
+    console.assertThat()
+        .onceInLog(MessageType.ERROR, "Cannot checkout submodule bad1 .*")
+        .onceInLog(MessageType.ERROR, "Cannot checkout submodule bad2 .*");
+    FileSubjects.assertThatPath(checkoutDir)
+        .containsFile("ok/foo", "1");
+  }
+
   private void commitAdd(GitRepository repo, Map<String, String> files)
       throws IOException, RepoException, ValidationException {
     for (Entry<String, String> e : files.entrySet()) {
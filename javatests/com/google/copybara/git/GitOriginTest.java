@@ -548,6 +548,34 @@ public class GitOriginTest {
     assertThat(visited.get(1).firstLineMessage()).isEqualTo("two");
   }
 
+  @Test
+  public void testVisitMultiplePages() throws Exception {
+    options.git.historyPageSize = 2;
+    String author = "John Name <john@name.com>";
+    for (int i = 0; i < 5; i++) {
+      singleFileCommit(author, "change " + i, "test.txt", "some content" + i);
+    }
+    GitRevision lastCommitRef = getLastCommitRef();
+    List<String> visited = new ArrayList<>();
+    newReader().visitChanges(lastCommitRef,
+        input -> {
+          visited.add(input.firstLineMessage());
+          return VisitResult.CONTINUE;
+        });
+    assertThat(visited).containsExactly("change 4", "change 3", "change 2", "change 1",
+        "change 0", "first file").inOrder();
+
+    visited.clear();
+    newReader().visitChanges(lastCommitRef,
+        input -> {
+          visited.add(input.firstLineMessage());
+          return input.firstLineMessage().equals("change 2")
+              ? VisitResult.TERMINATE
+              : VisitResult.CONTINUE;
+        });
+    assertThat(visited).containsExactly("change 4", "change 3", "change 2").inOrder();
+  }
+
   @Test
   public void testVisitMerge() throws Exception {
     createBranchMerge("John Name <john@name.com>");
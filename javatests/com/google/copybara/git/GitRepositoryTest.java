@@ -29,11 +29,14 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.copybara.CannotResolveRevisionException;
 import com.google.copybara.RepoException;
 import com.google.copybara.ValidationException;
 import com.google.copybara.authoring.Author;
 import com.google.copybara.git.GitRepository.GitLogEntry;
 import com.google.copybara.git.GitRepository.GitObjectType;
+import com.google.copybara.git.GitRepository.LogStream;
 import com.google.copybara.git.GitRepository.StatusFile;
 import com.google.copybara.git.GitRepository.TreeElement;
 import com.google.copybara.testing.OptionsBuilder;
@@ -97,6 +100,31 @@ public class GitRepositoryTest {
     assertThat(ImmutableSet.of(after.values())).hasSize(1);
   }
 
+  @Test
+  public void testParseRefSeesNewReferences() throws Exception {
+    Files.write(workdir.resolve("foo.txt"), new byte[]{});
+    repository.add().files("foo.txt").run();
+    repository.simpleCommand("commit", "foo.txt", "-m", "message");
+    String first = repository.parseRef("HEAD");
+    assertThat(repository.refExists("bar")).isFalse();
+
+    // The reused git process needs to see the changes done by other commands
+    Files.write(workdir.resolve("foo.txt"), "change".getBytes(UTF_8));
+    repository.simpleCommand("commit", "foo.txt", "-m", "message");
+    repository.simpleCommand("branch", "bar");
+    repository.simpleCommand("pack-refs", "--all");
+
+    String second = repository.parseRef("bar");
+    assertThat(second).isNotEqualTo(first);
+    assertThat(repository.parseRef("HEAD")).isEqualTo(second);
+    assertThat(repository.parseRef("HEAD~1")).isEqualTo(first);
+    assertThat(repository.resolveReference(first, /*contextRef=*/null).getSha1())
+        .isEqualTo(first);
+
+    thrown.expect(CannotResolveRevisionException.class);
+    repository.parseRef("baz");
+  }
+
   @Test
   public void testStatus() throws RepoException, IOException {
     GitRepository dest = GitRepository.newBareRepo(Files.createTempDirectory("destDir"),
@@ -277,6 +305,42 @@ public class GitRepositoryTest {
     assertThat(entries.get(0).getAuthor()).isEqualTo(new Author("= Foo =", "bar@bara.com"));
   }
 
+  @Test
+  public void testLogBodyLooksLikeFormat() throws Exception {
+    Files.write(workdir.resolve("foo.txt"), "foo".getBytes(UTF_8));
+    repository.add().files("foo.txt").run();
+    ZonedDateTime date = ZonedDateTime.now(ZoneId.of("-07:00"))
+        .truncatedTo(ChronoUnit.SECONDS);
+    String message = "adding foo\n\n--\nend_body\ncommit=foo\n--\n";
+    repository.commit("Foo <bar@bara.com>", date, message);
+
+    ImmutableList<GitLogEntry> entries = repository.log("master").includeFiles(true).run();
+    assertThat(entries).hasSize(1);
+    assertThat(entries.get(0).getBody()).isEqualTo(message);
+    assertThat(entries.get(0).getFiles()).containsExactly("foo.txt");
+  }
+
+  @Test
+  public void testLogStream() throws Exception {
+    ZonedDateTime date = ZonedDateTime.now(ZoneId.of("-07:00"))
+        .truncatedTo(ChronoUnit.SECONDS);
+    for (int i = 0; i < 5; i++) {
+      Files.write(workdir.resolve("foo.txt"), ("foo" + i).getBytes(UTF_8));
+      repository.add().files("foo.txt").run();
+      repository.commit("Foo <bar@bara.com>", date, "change " + i);
+    }
+
+    try (LogStream stream = repository.log("master").stream()) {
+      assertThat(stream.next().getBody()).isEqualTo("change 4\n");
+      assertThat(Lists.transform(stream.nextPage(2), GitLogEntry::getBody))
+          .containsExactly("change 3\n", "change 2\n").inOrder();
+    }
+    try (LogStream stream = repository.log("master").stream()) {
+      assertThat(stream.nextPage(10)).hasSize(5);
+      assertThat(stream.next()).isNull();
+    }
+  }
+
   @Test
   public void testFetch() throws Exception {
     GitRepository dest = GitRepository.newBareRepo(Files.createTempDirectory("destDir"),
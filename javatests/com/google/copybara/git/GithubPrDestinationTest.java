@@ -123,7 +123,8 @@ public class GithubPrDestinationTest {
       protected byte[] getContent(String method, String url, MockLowLevelHttpRequest request)
           throws IOException {
         boolean isPulls = "https://api.github.com/repos/foo/pulls".equals(url);
-        if ("GET".equals(method) && isPulls) {
+        if ("GET".equals(method)
+            && "https://api.github.com/repos/foo/pulls?per_page=100".equals(url)) {
           return "[]".getBytes(UTF_8);
         } else if ("POST".equals(method) && isPulls) {
           assertThat(request.getContentAsString())
@@ -224,7 +225,8 @@ public class GithubPrDestinationTest {
       protected byte[] getContent(String method, String url, MockLowLevelHttpRequest request)
           throws IOException {
         boolean isPulls = "https://api.github.com/repos/foo/pulls".equals(url);
-        if ("GET".equals(method) && isPulls) {
+        if ("GET".equals(method)
+            && "https://api.github.com/repos/foo/pulls?per_page=100".equals(url)) {
           return "[]".getBytes(UTF_8);
         } else if ("POST".equals(method) && isPulls) {
           assertThat(request.getContentAsString())
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.git;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.copybara.testing.git.GitTestUtil.getGitEnv;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.copybara.git.LabelIndex.LabelParser;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class LabelIndexTest {
+
+  private static final String LABEL = "GitOrigin-RevId";
+
+  private GitRepository repository;
+  private Path indexDir;
+
+  @Before
+  public void setup() throws Exception {
+    repository = GitRepository
+        .newBareRepo(Files.createTempDirectory("gitdir"), getGitEnv(), /*verbose=*/true)
+        .withWorkTree(Files.createTempDirectory("workdir"));
+    repository.init();
+    indexDir = Files.createTempDirectory("index");
+  }
+
+  @Test
+  public void testIncrementalUpdate() throws Exception {
+    String first = commit("first\n\n" + LABEL + ": aaa");
+    commit("no label");
+    String third = commit("third\n\n" + LABEL + ": ccc");
+
+    LabelIndex index = open();
+    index.update(third);
+    assertThat(index.latestValue(LABEL)).isEqualTo("ccc");
+    assertThat(index.findCommit("aaa")).isEqualTo(first);
+    assertThat(index.findCommit("ccc")).isEqualTo(third);
+    assertThat(index.findCommit("bbb")).isNull();
+
+    String fourth = commit("fourth\n\n" + LABEL + ": ddd");
+    index.update(fourth);
+    assertThat(index.latestValue(LABEL)).isEqualTo("ddd");
+
+    // Loaded from disk, without reading the history
+    LabelIndex loaded = open();
+    assertThat(loaded.latestValue(LABEL)).isEqualTo("ddd");
+    assertThat(loaded.findCommit("aaa")).isEqualTo(first);
+    assertThat(loaded.findCommit("ddd")).isEqualTo(fourth);
+  }
+
+  @Test
+  public void testSeveralValuesOfTheSameLabel() throws Exception {
+    String first = commit("first\n\n" + LABEL + ": aaa");
+    String squashed = commit("squashed\n\n" + LABEL + ": bbb\n" + LABEL + ": ccc");
+
+    LabelIndex index = open();
+    index.update(squashed);
+    assertThat(index.findCommit("aaa")).isEqualTo(first);
+    assertThat(index.findCommit("bbb")).isEqualTo(squashed);
+    assertThat(index.findCommit("ccc")).isEqualTo(squashed);
+    assertThat(index.latestValue(LABEL)).isEqualTo("ccc");
+
+    LabelIndex loaded = open();
+    assertThat(loaded.findCommit("bbb")).isEqualTo(squashed);
+    assertThat(loaded.findCommit("ccc")).isEqualTo(squashed);
+    assertThat(loaded.latestValue(LABEL)).isEqualTo("ccc");
+  }
+
+  @Test
+  public void testRewrittenHistory() throws Exception {
+    String first = commit("first\n\n" + LABEL + ": aaa");
+    String second = commit("second\n\n" + LABEL + ": bbb");
+    LabelIndex index = open();
+    index.update(second);
+    assertThat(index.findCommit("bbb")).isEqualTo(second);
+
+    repository.simpleCommand("reset", "--hard", first);
+    String other = commit("other\n\n" + LABEL + ": zzz");
+    index.update(other);
+    assertThat(index.findCommit("bbb")).isNull();
+    assertThat(index.findCommit("aaa")).isEqualTo(first);
+    assertThat(index.latestValue(LABEL)).isEqualTo("zzz");
+    assertThat(open().findCommit("bbb")).isNull();
+  }
+
+  @Test
+  public void testPartiallyWrittenUpdateIsIgnored() throws Exception {
+    String first = commit("first\n\n" + LABEL + ": aaa");
+    open().update(first);
+    Path file = Iterables.getOnlyElement(Files.list(indexDir).collect(
+        ImmutableList.toImmutableList()));
+    Files.write(file, ("L " + first + " " + LABEL + " bogus\nL 12").getBytes(UTF_8),
+        StandardOpenOption.APPEND);
+
+    LabelIndex index = open();
+    assertThat(index.findCommit("bogus")).isNull();
+    assertThat(index.latestValue(LABEL)).isEqualTo("aaa");
+
+    String second = commit("second\n\n" + LABEL + ": bbb");
+    index.update(second);
+    LabelIndex loaded = open();
+    assertThat(loaded.findCommit("bogus")).isNull();
+    assertThat(loaded.findCommit("bbb")).isEqualTo(second);
+    assertThat(loaded.latestValue(LABEL)).isEqualTo("bbb");
+  }
+
+  @Test
+  public void testUpdateReloadsChangesFromOtherWriters() throws Exception {
+    String first = commit("first\n\n" + LABEL + ": aaa");
+    String second = commit("second\n\n" + LABEL + ": bbb");
+    open().update(first);
+    LabelIndex stale = open();
+    LabelIndex other = open();
+
+    // Rebuilds the file for a rewritten history
+    repository.simpleCommand("reset", "--hard", first);
+    String rewritten = commit("rewritten\n\n" + LABEL + ": zzz");
+    other.update(rewritten);
+
+    // Must not append to the file as it was loaded
+    stale.update(second);
+    assertThat(stale.findCommit("zzz")).isNull();
+    assertThat(stale.findCommit("bbb")).isEqualTo(second);
+
+    LabelIndex loaded = open();
+    assertThat(loaded.findCommit("aaa")).isEqualTo(first);
+    assertThat(loaded.findCommit("bbb")).isEqualTo(second);
+    assertThat(loaded.findCommit("zzz")).isNull();
+    assertThat(loaded.latestValue(LABEL)).isEqualTo("bbb");
+  }
+
+  private LabelIndex open() throws Exception {
+    return LabelIndex.open(indexDir, repository, "file:///some/repo", "master",
+        ImmutableList.of(LABEL), ImmutableList.of(), /*firstParent=*/true, LabelParser.MESSAGE);
+  }
+
+  private String commit(String message) throws Exception {
+    repository.simpleCommand("commit", "--allow-empty", "-m", message);
+    return repository.parseRef("HEAD");
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.git.github_api;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Strings;
+import com.google.copybara.git.github_api.GitHubApiCache.Response;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class GitHubApiCacheTest {
+
+  private Path dir;
+
+  @Before
+  public void setup() throws Exception {
+    dir = Files.createTempDirectory("cache");
+  }
+
+  @Test
+  public void testPutAndGet() throws Exception {
+    GitHubApiCache cache = GitHubApiCache.open(dir, 1024);
+    assertThat(cache.get("foo")).isNull();
+    cache.put("foo", "\"etag\"", /*lastModified=*/null, "<https://example.com>; rel=\"next\"",
+        "{\"a\": 1}".getBytes(UTF_8));
+
+    // Loaded from disk
+    Response response = GitHubApiCache.open(dir, 1024).get("foo");
+    assertThat(response.getEtag()).isEqualTo("\"etag\"");
+    assertThat(response.getLastModified()).isNull();
+    assertThat(response.getLink()).isEqualTo("<https://example.com>; rel=\"next\"");
+    assertThat(new String(response.getBody(), UTF_8)).isEqualTo("{\"a\": 1}");
+  }
+
+  @Test
+  public void testLeastRecentlyUsedAreEvicted() throws Exception {
+    GitHubApiCache cache = GitHubApiCache.open(dir, 1024);
+    byte[] body = Strings.repeat("x", 300).getBytes(UTF_8);
+    cache.put("one", "1", /*lastModified=*/null, /*link=*/null, body);
+    cache.put("two", "2", /*lastModified=*/null, /*link=*/null, body);
+    cache.put("three", "3", /*lastModified=*/null, /*link=*/null, body);
+    // Now 'two' is the least recently used
+    assertThat(cache.get("one")).isNotNull();
+    cache.put("four", "4", /*lastModified=*/null, /*link=*/null, body);
+
+    assertThat(cache.get("two")).isNull();
+    assertThat(cache.get("one")).isNotNull();
+    assertThat(cache.get("three")).isNotNull();
+    assertThat(cache.get("four")).isNotNull();
+
+    // A smaller maximum evicts when opening
+    cache = GitHubApiCache.open(dir, 700);
+    int cached = 0;
+    for (String key : new String[] {"one", "three", "four"}) {
+      if (cache.get(key) != null) {
+        cached++;
+      }
+    }
+    assertThat(cached).isEqualTo(2);
+  }
+}
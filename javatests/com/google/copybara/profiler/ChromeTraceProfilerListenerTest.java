@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.profiler;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.testing.FakeTicker;
+import com.google.copybara.profiler.Profiler.ProfilerTask;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ChromeTraceProfilerListenerTest {
+
+  @Test
+  public void testTrace() throws Exception {
+    Path trace = Files.createTempDirectory("trace").resolve("some/dir/trace.json");
+    FakeTicker ticker = new FakeTicker().setAutoIncrementStep(1, TimeUnit.MILLISECONDS);
+    Profiler profiler = new Profiler(ticker);
+    profiler.init(ImmutableList.of(new ChromeTraceProfilerListener(trace)));
+
+    try (ProfilerTask p1 = profiler.start("task1", profiler.taskType(String.class))) {
+      try (ProfilerTask p2 = profiler.start("task\"2\"")) {
+        profiler.simpleTask("task3", ticker.read(), ticker.read());
+      }
+      Thread thread = new Thread(() -> {
+        try (ProfilerTask p4 = profiler.start("task4")) {
+          ticker.read();
+        }
+      }, "other-thread");
+      thread.start();
+      thread.join();
+    }
+    profiler.stop();
+
+    String content = new String(Files.readAllBytes(trace), UTF_8);
+    assertThat(content).startsWith("[");
+    assertThat(content.trim()).endsWith("]");
+    assertThat(content).contains("\"name\":\"task1\",\"cat\":\"String\",\"ph\":\"B\"");
+    assertThat(content).contains("\"name\":\"task1\",\"cat\":\"String\",\"ph\":\"E\"");
+    assertThat(content).contains("\"name\":\"task\\\"2\\\"\",\"cat\":\"task\",\"ph\":\"B\"");
+    assertThat(content).contains("\"path\":\"//copybara/task1/task\\\"2\\\"/task3\"");
+    assertThat(content).contains("\"name\":\"copybara\",\"cat\":\"task\",\"ph\":\"E\"");
+    assertThat(content).contains("\"args\":{\"name\":\"other-thread\"}");
+    assertThat(content).contains("\"name\":\"task4\",\"cat\":\"task\",\"ph\":\"B\"");
+    // Root task starts at 0
+    assertThat(content).contains("\"name\":\"copybara\",\"cat\":\"task\",\"ph\":\"B\",\"ts\":0,");
+  }
+}
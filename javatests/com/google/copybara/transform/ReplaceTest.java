@@ -789,6 +789,26 @@ public final class ReplaceTest {
         .containsFile("i-exist", "abc");
   }
 
+  @Test
+  public void testParallelReplace() throws Exception {
+    options.workflowOptions.transformThreads = 4;
+    Replace replace = eval(""
+        + "core.replace("
+        + "  before = 'foo',"
+        + "  after = 'bar',"
+        + ")");
+    for (int i = 0; i < 500; i++) {
+      writeFile(checkoutDir.resolve("file" + i + ".txt"), i % 2 == 0 ? "foo\nfoo" : "baz");
+    }
+
+    transform(replace);
+
+    for (int i = 0; i < 500; i++) {
+      assertThatPath(checkoutDir)
+          .containsFile("file" + i + ".txt", i % 2 == 0 ? "bar\nbar" : "baz");
+    }
+  }
+
   private Replace eval(String replace) throws ValidationException {
     return skylark.eval("r", "r = " + replace);
   }
@@ -17,15 +17,21 @@
 package com.google.copybara.transform;
 
 import static com.google.common.truth.Truth.assertThat;
+import static com.google.copybara.testing.FileSubjects.assertThatPath;
 import static com.google.copybara.treestate.TreeStateUtil.isCachedTreeState;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.fail;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.jimfs.Jimfs;
 import com.google.common.truth.BooleanSubject;
+import com.google.copybara.Core;
 import com.google.copybara.TransformWork;
 import com.google.copybara.Transformation;
 import com.google.copybara.ValidationException;
+import com.google.copybara.VoidOperationException;
 import com.google.copybara.testing.OptionsBuilder;
+import com.google.copybara.testing.SkylarkTestExecutor;
 import com.google.copybara.testing.TransformWorks;
 import com.google.copybara.util.Glob;
 import com.google.copybara.util.console.testing.TestingConsole;
@@ -34,15 +40,22 @@ import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.ExpectedException;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
 @RunWith(JUnit4.class)
 public final class SequenceTest {
 
+  private OptionsBuilder options;
   private TestingConsole console;
   private Path checkoutDir;
+  private SkylarkTestExecutor skylark;
+
+  @Rule
+  public final ExpectedException thrown = ExpectedException.none();
 
   private static class MockTransform implements Transformation {
 
@@ -76,9 +89,10 @@ public final class SequenceTest {
     FileSystem fs = Jimfs.newFileSystem();
     checkoutDir = fs.getPath("/test-checkoutDir");
     Files.createDirectories(checkoutDir);
-    OptionsBuilder options = new OptionsBuilder();
+    options = new OptionsBuilder();
     console = new TestingConsole();
     options.setConsole(console);
+    skylark = new SkylarkTestExecutor(options, Core.class);
     sequence = new Sequence(options.general.profiler(), ImmutableList.of(t1, t2));
   }
 
@@ -109,6 +123,70 @@ public final class SequenceTest {
     assertCachedTreeState(work.withUpdatedTreeState()).isFalse();
   }
 
+  @Test
+  public void testFusedReplaces() throws Exception {
+    Files.write(checkoutDir.resolve("file.txt"), "foo\nother".getBytes(UTF_8));
+    Files.write(checkoutDir.resolve("file.java"), "foo".getBytes(UTF_8));
+    sequence = new Sequence(options.general.profiler(), ImmutableList.of(
+        skylark.<Transformation>eval("r", "r = core.replace(before = 'foo', after = 'bar')"),
+        skylark.<Transformation>eval("r", "r = core.replace(before = 'bar', after = 'baz',"
+            + " paths = glob(['**.txt']))"),
+        skylark.<Transformation>eval("r", "r = core.verify_match(regex = 'baz',"
+            + " paths = glob(['**.txt']))")));
+
+    sequence.transform(TransformWorks.of(checkoutDir, "foo", console));
+
+    assertThatPath(checkoutDir)
+        .containsFile("file.txt", "baz\nother")
+        .containsFile("file.java", "bar");
+  }
+
+  @Test
+  public void testFusedReplacesReportNoopPerRule() throws Exception {
+    Files.write(checkoutDir.resolve("file.txt"), "foo".getBytes(UTF_8));
+    sequence = new Sequence(options.general.profiler(), ImmutableList.of(
+        skylark.<Transformation>eval("r", "r = core.replace(before = 'foo', after = 'bar')"),
+        skylark.<Transformation>eval("r", "r = core.replace(before = 'foo', after = 'baz')")));
+
+    thrown.expect(VoidOperationException.class);
+    thrown.expectMessage("didn't change any of the matching files");
+    sequence.transform(TransformWorks.of(checkoutDir, "foo", console));
+  }
+
+  @Test
+  public void testFusedReplacesFailureAlsoAppliesTheLaterRules() throws Exception {
+    Files.write(checkoutDir.resolve("file.txt"), "foo".getBytes(UTF_8));
+    sequence = new Sequence(options.general.profiler(), ImmutableList.of(
+        skylark.<Transformation>eval("r", "r = core.replace(before = 'foo', after = 'bar')"),
+        skylark.<Transformation>eval("r", "r = core.replace(before = 'foo', after = 'baz')"),
+        skylark.<Transformation>eval("r", "r = core.replace(before = 'bar', after = 'qux')")));
+
+    try {
+      sequence.transform(TransformWorks.of(checkoutDir, "foo", console));
+      fail();
+    } catch (VoidOperationException expected) {
+      assertThat(expected.getMessage()).contains("didn't change any of the matching files");
+    }
+    // Each file is written once all its rules ran, so the rule after the failing one was applied
+    // too.
+    assertThatPath(checkoutDir).containsFile("file.txt", "qux");
+  }
+
+  @Test
+  public void testFusedReplacesReverse() throws Exception {
+    Files.write(checkoutDir.resolve("file.txt"), "foo".getBytes(UTF_8));
+    FusedFileTransformation fused = new FusedFileTransformation(options.general.profiler(),
+        ImmutableList.of(
+            skylark.<Transformation>eval("r", "r = core.replace(before = 'foo', after = 'bar')"),
+            skylark.<Transformation>eval("r", "r = core.replace(before = 'bar', after = 'baz')")));
+
+    fused.transform(TransformWorks.of(checkoutDir, "foo", console));
+    assertThatPath(checkoutDir).containsFile("file.txt", "baz");
+
+    fused.reverse().transform(TransformWorks.of(checkoutDir, "foo", console));
+    assertThatPath(checkoutDir).containsFile("file.txt", "foo");
+  }
+
   private TransformWork cachedTreeStateTranformWork() throws IOException {
     TransformWork work = TransformWorks.of(checkoutDir, "foo", console);
     // Force a map based tree-state
@@ -18,13 +18,20 @@ package com.google.copybara.treestate;
 
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.copybara.treestate.TreeStateUtil.isCachedTreeState;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.hash.HashCode;
 import com.google.common.jimfs.Jimfs;
+import com.google.copybara.treestate.TreeState.FileState;
 import com.google.copybara.util.Glob;
 import java.io.IOException;
 import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -93,4 +100,119 @@ public class TreeStateTest {
     // This TreeState has not been used or notified. Should return a FS based one.
     assertThat(isCachedTreeState(treeState.newTreeState())).isFalse();
   }
+
+  @Test
+  public void testContentHashIsKeptUntilModified() throws IOException {
+    Path file = Files.write(checkoutDir.resolve("foo.txt"), "foo".getBytes(UTF_8));
+    TreeState treeState = new FileSystemTreeState(checkoutDir);
+    FileState fileState = Iterables.getOnlyElement(
+        treeState.find(Glob.ALL_FILES.relativeTo(checkoutDir)));
+    assertThat(fileState.getSize()).isEqualTo(3);
+    assertThat(fileState.getCachedContentHash()).isNull();
+    HashCode hash = fileState.getContentHash();
+    treeState.notifyNoChange();
+
+    treeState = treeState.newTreeState();
+    fileState = Iterables.getOnlyElement(treeState.find(Glob.ALL_FILES.relativeTo(checkoutDir)));
+    assertThat(fileState.getCachedContentHash()).isEqualTo(hash);
+
+    Files.write(file, "foobar".getBytes(UTF_8));
+    treeState.notifyModify(ImmutableList.of(fileState));
+    assertThat(fileState.getCachedContentHash()).isNull();
+    assertThat(fileState.getSize()).isEqualTo(6);
+    assertThat(fileState.getContentHash()).isNotEqualTo(hash);
+  }
+
+  @Test
+  public void testOnlyTheRootsOfTheGlobAreRead() throws IOException {
+    Files.createDirectories(checkoutDir.resolve("foo"));
+    Files.createDirectories(checkoutDir.resolve("bar"));
+    Files.write(checkoutDir.resolve("foo/a.txt"), "a".getBytes(UTF_8));
+    Files.write(checkoutDir.resolve("bar/b.txt"), "b".getBytes(UTF_8));
+    TreeState treeState = new FileSystemTreeState(checkoutDir);
+    assertThat(paths(treeState.find(
+        Glob.createGlob(ImmutableList.of("foo/**")).relativeTo(checkoutDir))))
+        .containsExactly("foo/a.txt");
+    treeState.notifyNoChange();
+
+    // 'foo' is cached but 'bar' is read when needed
+    Files.write(checkoutDir.resolve("foo/new.txt"), "new".getBytes(UTF_8));
+    Files.write(checkoutDir.resolve("bar/new.txt"), "new".getBytes(UTF_8));
+    treeState = treeState.newTreeState();
+    assertThat(isCachedTreeState(treeState)).isTrue();
+    assertThat(paths(treeState.find(
+        Glob.createGlob(ImmutableList.of("foo/**")).relativeTo(checkoutDir))))
+        .containsExactly("foo/a.txt");
+    assertThat(paths(treeState.find(
+        Glob.createGlob(ImmutableList.of("bar/**")).relativeTo(checkoutDir))))
+        .containsExactly("bar/b.txt", "bar/new.txt");
+  }
+
+  @Test
+  public void testAddAndDeleteKeepTheCache() throws IOException {
+    Files.write(checkoutDir.resolve("a.txt"), "a".getBytes(UTF_8));
+    Files.write(checkoutDir.resolve("b.txt"), "b".getBytes(UTF_8));
+    TreeState treeState = new FileSystemTreeState(checkoutDir);
+    assertThat(paths(treeState.find(Glob.ALL_FILES.relativeTo(checkoutDir))))
+        .containsExactly("a.txt", "b.txt");
+
+    Files.createDirectories(checkoutDir.resolve("foo"));
+    Files.move(checkoutDir.resolve("a.txt"), checkoutDir.resolve("foo/a.txt"));
+    treeState.notifyDelete(ImmutableList.of(checkoutDir.resolve("a.txt")));
+    treeState.notifyAdd(ImmutableList.of(checkoutDir.resolve("foo/a.txt")));
+    assertThat(paths(treeState.find(Glob.ALL_FILES.relativeTo(checkoutDir))))
+        .containsExactly("foo/a.txt", "b.txt");
+
+    // Not notified, so the cached version doesn't see it
+    Files.write(checkoutDir.resolve("c.txt"), "c".getBytes(UTF_8));
+    treeState = treeState.newTreeState();
+    assertThat(isCachedTreeState(treeState)).isTrue();
+    assertThat(paths(treeState.find(Glob.ALL_FILES.relativeTo(checkoutDir))))
+        .containsExactly("foo/a.txt", "b.txt");
+
+    Files.delete(checkoutDir.resolve("b.txt"));
+    treeState.notifyDelete(ImmutableList.of(checkoutDir.resolve("b.txt")));
+    treeState.notifyAdd(ImmutableList.of(checkoutDir.resolve("c.txt")));
+    assertThat(paths(treeState.newTreeState().find(Glob.ALL_FILES.relativeTo(checkoutDir))))
+        .containsExactly("foo/a.txt", "c.txt");
+  }
+
+  @Test
+  public void testGlobRootsUnderSymlinksAreNotFollowed() throws IOException {
+    Files.createDirectories(checkoutDir.resolve("shared/api"));
+    Files.write(checkoutDir.resolve("shared/api/a.txt"), "a".getBytes(UTF_8));
+    Files.createSymbolicLink(checkoutDir.resolve("docs"), checkoutDir.resolve("shared"));
+    TreeState treeState = new FileSystemTreeState(checkoutDir);
+
+    assertThat(paths(treeState.find(
+        Glob.createGlob(ImmutableList.of("docs/api/**")).relativeTo(checkoutDir)))).isEmpty();
+    // The file is only found once, under its real path
+    assertThat(paths(treeState.find(
+        Glob.createGlob(ImmutableList.of("docs/api/**", "shared/**")).relativeTo(checkoutDir))))
+        .containsExactly("shared/api/a.txt");
+  }
+
+  @Test
+  public void testPartialTreeStateFollowsAddsAndDeletes() throws IOException {
+    Files.write(checkoutDir.resolve("a.txt"), "a".getBytes(UTF_8));
+    Files.write(checkoutDir.resolve("b.txt"), "b".getBytes(UTF_8));
+    Files.write(checkoutDir.resolve("unchanged.txt"), "c".getBytes(UTF_8));
+    TreeState treeState = new PartialTreeState(
+        ImmutableList.of(checkoutDir.resolve("a.txt"), checkoutDir.resolve("b.txt")));
+
+    Files.move(checkoutDir.resolve("a.txt"), checkoutDir.resolve("moved.txt"));
+    treeState.notifyDelete(ImmutableList.of(checkoutDir.resolve("a.txt")));
+    treeState.notifyAdd(ImmutableList.of(checkoutDir.resolve("moved.txt")));
+
+    assertThat(paths(treeState.newTreeState().find(Glob.ALL_FILES.relativeTo(checkoutDir))))
+        .containsExactly("b.txt", "moved.txt");
+  }
+
+  private List<String> paths(Iterable<FileState> files) {
+    List<String> result = new ArrayList<>();
+    for (FileState file : files) {
+      result.add(checkoutDir.relativize(file.getPath()).toString());
+    }
+    return result;
+  }
 }
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.util;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.fail;
+
+import com.google.common.io.ByteStreams;
+import com.google.devtools.build.lib.shell.Command;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class CommandUtilTest {
+
+  @Test
+  public void testStreamingKeepsOnlyTheTail() throws Exception {
+    List<String> lines = new ArrayList<>();
+    CommandOutputWithStatus output;
+    try (LineOutputStream stdout = new LineOutputStream(lines::add)) {
+      output = CommandUtil.executeCommandStreaming(
+          new Command(new String[]{"seq", "1", "100000"}), CommandUtil.NO_INPUT,
+          /*verbose=*/false, stdout, ByteStreams.nullOutputStream());
+    }
+    assertThat(lines).hasSize(100000);
+    assertThat(lines.get(0)).isEqualTo("1");
+    assertThat(lines.get(99999)).isEqualTo("100000");
+    assertThat(output.getStdoutBytes().length).isEqualTo(CommandUtil.MAX_KEPT_OUTPUT_BYTES);
+    assertThat(output.getStdout()).endsWith("99999\n100000\n");
+  }
+
+  @Test
+  public void testStreamingFailure() throws Exception {
+    List<String> lines = new ArrayList<>();
+    try (LineOutputStream stderr = new LineOutputStream(lines::add)) {
+      CommandUtil.executeCommandStreaming(
+          new Command(new String[]{"bash", "-c", "echo foo; echo bar >&2; exit 3"}),
+          CommandUtil.NO_INPUT, /*verbose=*/false, ByteStreams.nullOutputStream(), stderr);
+      fail();
+    } catch (BadExitStatusWithOutputException e) {
+      assertThat(e.getOutput().getTerminationStatus().getExitCode()).isEqualTo(3);
+      assertThat(e.getOutput().getStdout()).isEqualTo("foo\n");
+      assertThat(e.getOutput().getStderr()).isEqualTo("bar\n");
+    }
+    assertThat(lines).containsExactly("bar");
+  }
+
+  @Test
+  public void testRingBuffer() throws Exception {
+    RingBufferOutputStream buffer = new RingBufferOutputStream(10);
+    buffer.write("abc".getBytes(UTF_8));
+    assertThat(buffer.toString()).isEqualTo("abc");
+    buffer.write("defghijkl".getBytes(UTF_8));
+    assertThat(buffer.toString()).isEqualTo("cdefghijkl");
+    assertThat(buffer.getDiscardedBytes()).isEqualTo(2);
+    buffer.write('m');
+    assertThat(buffer.toString()).isEqualTo("defghijklm");
+    buffer.write("0123456789ABCDEF".getBytes(UTF_8), 2, 13);
+    assertThat(buffer.toString()).isEqualTo("56789ABCDE");
+    assertThat(buffer.getDiscardedBytes()).isEqualTo(16);
+  }
+}
@@ -24,6 +24,7 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -77,6 +78,47 @@ public class DiffUtilTest {
     assertThat(diffContents).isEmpty();
   }
 
+  @Test
+  public void emptyDiffInProcess() throws Exception {
+    writeFile(left, "file1.txt", "foo");
+    writeFile(left, "b/file2.txt", "bar");
+    writeFile(right, "file1.txt", "foo");
+    writeFile(right, "b/file2.txt", "bar");
+    Files.createSymbolicLink(left.resolve("link"), left.getFileSystem().getPath("file1.txt"));
+    Files.createSymbolicLink(right.resolve("link"), right.getFileSystem().getPath("file1.txt"));
+    Files.createLink(right.resolve("hardlink"), right.resolve("file1.txt"));
+    Files.createLink(left.resolve("hardlink"), right.resolve("hardlink"));
+
+    assertThat(DiffUtil.diff(left, right, VERBOSE, new ForkJoinPool(2))).isEmpty();
+    assertThat(DiffUtil.diff(left, right, VERBOSE, /*pool=*/null)).isEmpty();
+  }
+
+  @Test
+  public void diffInProcessOnlyContainsChangedFiles() throws Exception {
+    writeFile(left, "file1.txt", "foo");
+    writeFile(left, "b/file2.txt", "bar");
+    writeFile(left, "b/file3.txt", "bar");
+    writeFile(left, "c", "file");
+    writeFile(left, "same.txt", "same");
+    Files.createSymbolicLink(left.resolve("link"), left.getFileSystem().getPath("file1.txt"));
+    writeFile(right, "file1.txt", "fooo");
+    writeFile(right, "b/file2.txt", "baz");
+    writeFile(right, "c/file4.txt", "bar");
+    writeFile(right, "same.txt", "same");
+    Files.createSymbolicLink(right.resolve("link"), right.getFileSystem().getPath("same.txt"));
+
+    String diff = new String(DiffUtil.diff(left, right, VERBOSE, new ForkJoinPool(2)),
+        StandardCharsets.UTF_8);
+
+    assertThat(diff).contains("diff --git a/left/file1.txt b/right/file1.txt");
+    assertThat(diff).contains("diff --git a/left/b/file2.txt b/right/b/file2.txt");
+    assertThat(diff).contains("--- a/left/b/file3.txt\n+++ /dev/null");
+    assertThat(diff).contains("--- a/left/c\n+++ /dev/null");
+    assertThat(diff).contains("--- /dev/null\n+++ b/right/c/file4.txt");
+    assertThat(diff).contains("diff --git a/left/link b/right/link");
+    assertThat(diff).doesNotContain("same.txt");
+  }
+
   /**
    * Don't treat origin/destination folders as flags or other special argument. This means that
    * we run 'git options -- origin dest' instead of 'git options origin dest' that is
@@ -22,12 +22,14 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.copybara.util.FileUtil.CopyMode;
 import com.google.copybara.util.FileUtil.CopySymlinkStrategy;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.attribute.PosixFilePermission;
+import java.util.concurrent.ForkJoinPool;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -212,6 +214,89 @@ public class FileUtilTest {
     assertThat(Files.isWritable(two.resolve("absolute"))).isTrue();
   }
 
+  @Test
+  public void testParallelCopyAndDelete() throws Exception {
+    Path one = Files.createDirectory(temp.resolve("one"));
+    Path two = Files.createDirectory(temp.resolve("two"));
+    for (int i = 0; i < 10; i++) {
+      for (int j = 0; j < 100; j++) {
+        touch(one.resolve("dir" + i + "/sub/file" + j));
+      }
+    }
+    Files.createSymbolicLink(one.resolve("dir0/link"), one.getFileSystem().getPath("sub"));
+    Path absolute = touch(temp.resolve("absolute/file"));
+    Files.createSymbolicLink(one.resolve("dir1/absolute"), absolute.getParent());
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      FileUtil.copyFilesRecursively(one, two, CopySymlinkStrategy.MATERIALIZE_OUTSIDE_SYMLINKS,
+          Glob.ALL_FILES, pool);
+
+      assertThatPath(two)
+          .containsFile("dir0/sub/file0", "abc")
+          .containsFile("dir9/sub/file99", "abc")
+          .containsFile("dir1/absolute/file", "abc");
+      assertThat(Files.isSymbolicLink(two.resolve("dir0/link"))).isTrue();
+      assertThat(Files.isSymbolicLink(two.resolve("dir1/absolute"))).isFalse();
+
+      assertThat(FileUtil.deleteFilesRecursively(two,
+          Glob.createGlob(ImmutableList.of("dir2/**", "dir3/sub/file1*")).relativeTo(two), pool))
+          .isEqualTo(111);
+      assertThat(Files.exists(two.resolve("dir2/sub/file0"))).isFalse();
+      assertThat(Files.exists(two.resolve("dir3/sub/file0"))).isTrue();
+
+      FileUtil.deleteRecursively(two, pool);
+      assertThat(Files.exists(two)).isFalse();
+      assertThat(Files.exists(absolute)).isTrue();
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testParallelCopyFailsForAbsoluteSymlinks() throws Exception {
+    Path one = Files.createDirectory(temp.resolve("one"));
+    Path two = Files.createDirectory(temp.resolve("two"));
+    Path absolute = touch(temp.resolve("absolute/file"));
+    touch(one.resolve("some/folder/file"));
+    Files.createSymbolicLink(one.resolve("some/folder/absolute"), absolute);
+
+    ForkJoinPool pool = new ForkJoinPool(4);
+    thrown.expect(AbsoluteSymlinksNotAllowed.class);
+    try {
+      FileUtil.copyFilesRecursively(one, two, CopySymlinkStrategy.FAIL_OUTSIDE_SYMLINKS,
+          Glob.ALL_FILES, pool);
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testHardLinkCopyIsNotModifiedByWrites() throws Exception {
+    Path one = Files.createDirectory(temp.resolve("one"));
+    Path two = Files.createDirectory(temp.resolve("two"));
+    FileUtil.addPermissions(touch(one.resolve("some/folder/file")),
+        ImmutableSet.of(PosixFilePermission.OWNER_EXECUTE));
+    touch(one.resolve("other"));
+
+    FileUtil.copyFilesRecursively(one, two, CopySymlinkStrategy.FAIL_OUTSIDE_SYMLINKS,
+        Glob.ALL_FILES, /*pool=*/null, CopyMode.HARDLINK);
+
+    assertThat(Files.isSameFile(one.resolve("some/folder/file"), two.resolve("some/folder/file")))
+        .isTrue();
+    FileUtil.write(two.resolve("some/folder/file"), "modified".getBytes(UTF_8));
+    FileUtil.write(one.resolve("other"), "modified".getBytes(UTF_8));
+
+    assertThatPath(one)
+        .containsFile("some/folder/file", "abc")
+        .containsFile("other", "modified")
+        .containsNoMoreFiles();
+    assertThatPath(two)
+        .containsFile("some/folder/file", "modified")
+        .containsFile("other", "abc")
+        .containsNoMoreFiles();
+    assertThat(Files.isExecutable(two.resolve("some/folder/file"))).isTrue();
+  }
+
   @Test
   public void testCopyWithGlob() throws Exception {
     Path one = Files.createDirectory(temp.resolve("one"));
@@ -206,6 +206,33 @@ public class GlobTest {
         .containsExactly("foo/bar", "foo/barbar");
   }
 
+  @Test
+  public void directoriesThatCannotMatch() throws Exception {
+    GlobPathMatcher matcher = parseGlob("glob(['foo/**', 'bar/*.java', 'baz/**/*.txt'],"
+        + " exclude = ['foo/excluded/**'])").relativeTo(workdir);
+
+    assertThat(matcher.mayMatchUnder(workdir)).isTrue();
+    assertThat(matcher.mayMatchUnder(workdir.resolve("foo/some/dir"))).isTrue();
+    assertThat(matcher.mayMatchUnder(workdir.resolve("foo/excluded"))).isFalse();
+    assertThat(matcher.mayMatchUnder(workdir.resolve("foo/excluded/dir"))).isFalse();
+    assertThat(matcher.mayMatchUnder(workdir.resolve("bar"))).isTrue();
+    assertThat(matcher.mayMatchUnder(workdir.resolve("bar/dir"))).isFalse();
+    assertThat(matcher.mayMatchUnder(workdir.resolve("baz/dir"))).isTrue();
+    assertThat(matcher.mayMatchUnder(workdir.resolve("other"))).isFalse();
+
+    assertThat(matcher.matchesAllUnder(workdir)).isFalse();
+    assertThat(matcher.matchesAllUnder(workdir.resolve("foo"))).isFalse();
+    assertThat(matcher.matchesAllUnder(workdir.resolve("foo/some/dir"))).isTrue();
+    assertThat(matcher.matchesAllUnder(workdir.resolve("bar"))).isFalse();
+
+    assertThat(matcher.matches(workdir.resolve("foo/a"))).isTrue();
+    assertThat(matcher.matches(workdir.resolve("foo/excluded/a"))).isFalse();
+    assertThat(matcher.matches(workdir.resolve("bar/A.java"))).isTrue();
+    assertThat(matcher.matches(workdir.resolve("bar/dir/A.java"))).isFalse();
+    assertThat(matcher.matches(workdir.resolve("baz/a.txt"))).isFalse();
+    assertThat(matcher.matches(workdir.resolve("baz/dir/a.txt"))).isTrue();
+  }
+
   @Test
   public void windowsGlobWorks() throws Exception {
     FileSystem workFs = Jimfs.newFileSystem(Configuration.windows());